@@ -0,0 +1,305 @@
+package pattern_matching_with_switch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *   <b> ** Cost of dispatching on a type : pattern matching vs instanceof vs virtual methods ** </b>
+ * </p>
+ * <p>
+ *   {@link PatternMatchingWithSwitch} shows the ways of branching on the type of a {@link Shape} or a {@link Routers} record ,
+ *   this benchmark measures them. Every <code>strategy</code> maps the {@value #SIZE} elements of an array to an
+ *   <code>int</code> , the array holding one , two or three different types to give the dispatch a monomorphic , bimorphic
+ *   or megamorphic <code>profile</code> :
+ *   <ul>
+ *       <li><code>instanceof</code>            : the <code>instanceof</code> chain of {@link PatternMatchingWithSwitch}</li>
+ *       <li><code>switch</code>                : a type pattern switch with <code>case null, default</code></li>
+ *       <li><code>sealed-switch</code>         : the same switch without default , exhaustive over the sealed {@link Shape}</li>
+ *       <li><code>virtual</code>               : {@link Shape#sides()}</li>
+ *       <li><code>visitor</code>               : {@link Shape#accept(ShapeVisitor)}</li>
+ *       <li><code>routers-instanceof</code>    : record patterns in an <code>instanceof</code> chain , with the guards on
+ *           <code>id</code> of {@link PatternMatchingWithSwitch}</li>
+ *       <li><code>routers-switch</code>        : the record pattern switch with <code>when</code> guards and a default</li>
+ *       <li><code>routers-sealed-switch</code> : the same switch made exhaustive over the sealed {@link Routers} without default</li>
+ *   </ul>
+ *   The results of a pass are summed and the sum handed to a {@link Blackhole} , scores are per dispatched element.
+ * </p>
+ * <p>
+ *   A pattern switch is compiled to an <code>invokedynamic</code> bootstrapped by
+ *   {@link java.lang.runtime.SwitchBootstraps#typeSwitch} , whose target tests the labels one after the other. JMH runs
+ *   every (strategy , profile) pair in its own fork so the type profiles of one do not leak into another , and the forks
+ *   run with <code>-XX:+PrintInlining</code> : the inlining decisions for the <code>typeSwitch</code> call site and the
+ *   dispatch methods are printed in the log of every fork. Pass <code>-jvmArgsAppend -XX:-PrintInlining</code> to JMH to
+ *   silence them.
+ * </p>
+ *
+ * Example : <code>mvn -f jmh/pom.xml -Pjmh verify -Djmh.args="PatternDispatch -p profile=mega"</code>
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UnlockDiagnosticVMOptions", "-XX:+PrintInlining"})
+@State(Scope.Thread)
+public class PatternDispatchJmhBenchMark {
+
+    static final int SIZE = 1024;
+
+    private static final ShapeVisitor SIDES = new ShapeVisitor() {
+        @Override
+        public int visit(Circle circle) {
+            return 0;
+        }
+
+        @Override
+        public int visit(Square square) {
+            return 4;
+        }
+
+        @Override
+        public int visit(Triangle triangle) {
+            return 3;
+        }
+    };
+
+    @Param({"instanceof", "switch", "sealed-switch", "virtual", "visitor",
+            "routers-instanceof", "routers-switch", "routers-sealed-switch"})
+    public String strategy;
+
+    @Param({"mono", "bi", "mega"})
+    public String profile;
+
+    private Strategy dispatch;
+    private Shape[] shapes;
+    private Routers[] routers;
+
+    /**
+     * Fills the array of the strategy with {@value #SIZE} shapes or routers , of one type for <code>mono</code> , two for
+     * <code>bi</code> and three for <code>mega</code> , in a fixed random order.
+     */
+    @Setup
+    public void setUp() {
+        dispatch = Strategy.of(strategy);
+        int types = switch (profile) {
+            case "mono" -> 1;
+            case "bi" -> 2;
+            case "mega" -> 3;
+            default -> throw new IllegalArgumentException("Unknown profile : " + profile);
+        };
+        Random random = new Random(42);
+        shapes = new Shape[SIZE];
+        routers = new Routers[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            int type = random.nextInt(types);
+            shapes[i] = switch (type) {
+                case 0 -> new Circle();
+                case 1 -> new Square();
+                default -> new Triangle();
+            };
+            int id = random.nextInt(3) - 1;
+            routers[i] = switch (type) {
+                case 0 -> new Hdm(id, "hdm");
+                case 1 -> new Rdk(id, "rdk");
+                default -> new Rhino(id, "rhino");
+            };
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void dispatch(Blackhole blackhole) {
+        blackhole.consume(dispatch.run(this));
+    }
+
+    // ------------------------------------------------------------------------------------------------------------------
+    // Dispatch strategies , the shape ones all map a shape to its number of sides
+    // ------------------------------------------------------------------------------------------------------------------
+
+    private static int instanceofChain(Shape shape) {
+        if (shape instanceof Triangle) {
+            return 3;
+        } else if (shape instanceof Circle) {
+            return 0;
+        } else if (shape instanceof Square) {
+            return 4;
+        }
+        return -1;
+    }
+
+    private static int patternSwitch(Shape shape) {
+        return switch (shape) {
+            case Triangle t -> 3;
+            case Square s -> 4;
+            case Circle c -> 0;
+            case null, default -> -1;
+        };
+    }
+
+    private static int sealedSwitch(Shape shape) {
+        return switch (shape) {
+            case Triangle t -> 3;
+            case Square s -> 4;
+            case Circle c -> 0;
+        };
+    }
+
+    private static int virtualMethod(Shape shape) {
+        return shape.sides();
+    }
+
+    private static int visitor(Shape shape) {
+        return shape.accept(SIDES);
+    }
+
+    private static int routersInstanceof(Routers router) {
+        if (router instanceof Hdm(int id, String name) && id == 0) {
+            return 1;
+        } else if (router instanceof Rdk(int id, String name) && id > 0) {
+            return 2;
+        } else if (router instanceof Rhino(int id, String name) && id < 0) {
+            return 3;
+        }
+        return 0;
+    }
+
+    private static int routersSwitch(Routers router) {
+        return switch (router) {
+            case Hdm(int id, String name) when id == 0 -> 1;
+            case Rdk(int id, String name) when id > 0 -> 2;
+            case Rhino(int id, String name) when id < 0 -> 3;
+            default -> 0;
+        };
+    }
+
+    private static int routersSealedSwitch(Routers router) {
+        return switch (router) {
+            case Hdm(int id, String name) when id == 0 -> 1;
+            case Rdk(int id, String name) when id > 0 -> 2;
+            case Rhino(int id, String name) when id < 0 -> 3;
+            case Hdm h -> 0;
+            case Rdk r -> 0;
+            case Rhino r -> 0;
+        };
+    }
+
+    /**
+     * Every strategy has its own loop , so each dispatch call site only ever sees the types of its own input. A fork only
+     * runs one strategy , so the call of {@link #run(PatternDispatchJmhBenchMark)} is monomorphic.
+     */
+    private enum Strategy {
+
+        INSTANCEOF("instanceof") {
+            @Override
+            long run(PatternDispatchJmhBenchMark state) {
+                long sum = 0;
+                for (Shape shape : state.shapes) {
+                    sum += instanceofChain(shape);
+                }
+                return sum;
+            }
+        },
+        SWITCH("switch") {
+            @Override
+            long run(PatternDispatchJmhBenchMark state) {
+                long sum = 0;
+                for (Shape shape : state.shapes) {
+                    sum += patternSwitch(shape);
+                }
+                return sum;
+            }
+        },
+        SEALED_SWITCH("sealed-switch") {
+            @Override
+            long run(PatternDispatchJmhBenchMark state) {
+                long sum = 0;
+                for (Shape shape : state.shapes) {
+                    sum += sealedSwitch(shape);
+                }
+                return sum;
+            }
+        },
+        VIRTUAL("virtual") {
+            @Override
+            long run(PatternDispatchJmhBenchMark state) {
+                long sum = 0;
+                for (Shape shape : state.shapes) {
+                    sum += virtualMethod(shape);
+                }
+                return sum;
+            }
+        },
+        VISITOR("visitor") {
+            @Override
+            long run(PatternDispatchJmhBenchMark state) {
+                long sum = 0;
+                for (Shape shape : state.shapes) {
+                    sum += visitor(shape);
+                }
+                return sum;
+            }
+        },
+        ROUTERS_INSTANCEOF("routers-instanceof") {
+            @Override
+            long run(PatternDispatchJmhBenchMark state) {
+                long sum = 0;
+                for (Routers router : state.routers) {
+                    sum += routersInstanceof(router);
+                }
+                return sum;
+            }
+        },
+        ROUTERS_SWITCH("routers-switch") {
+            @Override
+            long run(PatternDispatchJmhBenchMark state) {
+                long sum = 0;
+                for (Routers router : state.routers) {
+                    sum += routersSwitch(router);
+                }
+                return sum;
+            }
+        },
+        ROUTERS_SEALED_SWITCH("routers-sealed-switch") {
+            @Override
+            long run(PatternDispatchJmhBenchMark state) {
+                long sum = 0;
+                for (Routers router : state.routers) {
+                    sum += routersSealedSwitch(router);
+                }
+                return sum;
+            }
+        };
+
+        private final String label;
+
+        Strategy(String label) {
+            this.label = label;
+        }
+
+        abstract long run(PatternDispatchJmhBenchMark state);
+
+        static Strategy of(String label) {
+            for (Strategy strategy : values()) {
+                if (strategy.label.equals(label)) {
+                    return strategy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown strategy : " + label);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package virtual_threads.part1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *   <b> ** Thread creation , start and join cost : Platform vs Virtual , with JMH ** </b>
+ * </p>
+ * <p>
+ *   The JMH version of {@code virtual_threads.part1.ThreadLifecycleBenchMark} , run through the <code>jmh</code> Maven module :
+ *   <ul>
+ *       <li><b>create</b>         : {@link Thread.Builder#unstarted(Runnable)} , the thread is returned so JMH keeps it alive</li>
+ *       <li><b>startJoin</b>      : starting one thread and waiting for it , sampled to report the latency percentiles
+ *           (p50 , p90 , p99 ...)</li>
+ *       <li><b>startJoinBatch</b> : starting <code>threadCount</code> threads and joining them all , like an iteration of
+ *           {@code ThreadLifecycleBenchMark} , the score is the time of the whole batch</li>
+ *   </ul>
+ *   Forks , warmup and the dead code elimination of unused results are left to JMH. Allocation per thread comes from
+ *   <code>-prof gc</code>.
+ * </p>
+ *
+ * Example : <code>mvn -f jmh/pom.xml -Pjmh verify -Djmh.args="ThreadLifecycle -p builder=virtual -p threadCount=10000 -prof gc"</code>
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ThreadLifecycleJmhBenchMark {
+
+    private static final Runnable NO_OP = () -> { };
+
+    @Param({"platform", "virtual"})
+    public String builder;
+
+    private Thread.Builder threadBuilder;
+
+    @Setup
+    public void setUp() {
+        threadBuilder = switch (builder) {
+            case "platform" -> Thread.ofPlatform();
+            case "virtual" -> Thread.ofVirtual();
+            default -> throw new IllegalArgumentException("Unknown builder : " + builder);
+        };
+    }
+
+    @Benchmark
+    public Thread create() {
+        return threadBuilder.unstarted(NO_OP);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void startJoin() throws InterruptedException {
+        threadBuilder.start(NO_OP).join();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void startJoinBatch(Batch batch) throws InterruptedException {
+        Thread[] threads = batch.threads;
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = threadBuilder.start(NO_OP);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * The threads of {@link #startJoinBatch(Batch)} , its own state so only that benchmark runs for every thread count.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+
+        @Param({"1000", "10000", "100000"})
+        public int threadCount;
+
+        Thread[] threads;
+
+        @Setup
+        public void setUp() {
+            threads = new Thread[threadCount];
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   <b> ** Benchmark Harness ** </b>
+ * </p>
+ * <p>
+ *   A small, dependency free harness shared by the benchmarks of this project. It covers the parts of a
+ *   JMH run which matter for the scenarios we measure :
+ *   <ul>
+ *       <li>Forking a fresh JVM per configuration so JIT profiles and heap state do not leak between runs.</li>
+ *       <li>Warmup and measurement iterations.</li>
+ *       <li>Per thread allocation accounting using {@link com.sun.management.ThreadMXBean}.</li>
+ *       <li>Percentiles over the collected samples.</li>
+ *   </ul>
+ * </p>
+ * <p>
+ *   Every benchmark accepts its parameters as <code>key=value</code> program arguments, see {@link #parseArgs(String[], Map)}.
+ * </p>
+ */
+
+public final class BenchMarkHarness {
+
+    /** System property set on every JVM started by {@link #fork(Class, List, List)}. */
+    public static final String FORKED_CHILD_PROPERTY = "benchmark.forked";
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private BenchMarkHarness() {
+    }
+
+    /**
+     * Parses <code>key=value</code> program arguments on top of the provided defaults.
+     *
+     * @param args     program arguments
+     * @param defaults default value of every supported key
+     * @return the merged parameters , in the order of the defaults
+     * @throws IllegalArgumentException if an argument is malformed or the key is unknown
+     */
+    public static Map<String, String> parseArgs(String[] args, Map<String, String> defaults) {
+        Map<String, String> params = new LinkedHashMap<>(defaults);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got : " + arg);
+            }
+            String key = arg.substring(0, separator);
+            if (!defaults.containsKey(key)) {
+                throw new IllegalArgumentException("Unknown parameter : " + key + " , supported : " + defaults.keySet());
+            }
+            params.put(key, arg.substring(separator + 1));
+        }
+        return params;
+    }
+
+    /**
+     * Converts the parameters back to program arguments , used when forwarding them to a forked JVM.
+     */
+    public static List<String> toArgs(Map<String, String> params) {
+        List<String> args = new ArrayList<>();
+        params.forEach((key, value) -> args.add(key + "=" + value));
+        return args;
+    }
+
+    public static List<String> csv(String value) {
+        return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+    }
+
+    public static List<Integer> csvInts(String value) {
+        return csv(value).stream().map(s -> Integer.parseInt(s.replace("_", ""))).toList();
+    }
+
+    public static boolean isForkedChild() {
+        return Boolean.getBoolean(FORKED_CHILD_PROPERTY);
+    }
+
+    /**
+     * Runs <code>mainClass</code> in a fresh JVM using the current classpath and waits for it to finish.
+     * Output of the child is inherited by the current process.
+     *
+     * @param mainClass class whose <code>main</code> method is executed
+     * @param jvmArgs   extra JVM options for the child
+     * @param args      program arguments for the child
+     * @return exit code of the child JVM
+     */
+    public static int fork(Class<?> mainClass, List<String> jvmArgs, List<String> args) throws IOException, InterruptedException {
+        Process process = processBuilder(mainClass, jvmArgs, args).inheritIO().start();
+        return process.waitFor();
+    }
+
+    /**
+     * Same as {@link #fork(Class, List, List)} but captures the standard output of the child , merged with its
+     * standard error , instead of inheriting it.
+     *
+     * @return the output lines of the child JVM
+     * @throws IOException if the child JVM exits with a non zero code
+     */
+    public static List<String> forkAndCapture(Class<?> mainClass, List<String> jvmArgs, List<String> args) throws IOException, InterruptedException {
+        Process process = processBuilder(mainClass, jvmArgs, args).redirectErrorStream(true).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException("Forked JVM exited with code " + exitCode + " , output : " + String.join(System.lineSeparator(), lines));
+        }
+        return lines;
+    }
+
+    private static ProcessBuilder processBuilder(Class<?> mainClass, List<String> jvmArgs, List<String> args) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        // keep flags like --enable-preview or -Xmx of the parent , but never a debugger agent
+        for (String inputArgument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!inputArgument.startsWith("-agentlib:jdwp") && !inputArgument.startsWith("-javaagent")) {
+                command.add(inputArgument);
+            }
+        }
+        command.addAll(jvmArgs);
+        command.add("-D" + FORKED_CHILD_PROPERTY + "=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        command.addAll(args);
+        return new ProcessBuilder(command);
+    }
+
+    /**
+     * @return bytes allocated on the heap by the current thread since it started
+     */
+    public static long allocatedBytes() {
+        return THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * @return CPU time consumed by the current thread in nanos
+     */
+    public static long cpuTimeNanos() {
+        return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Nearest rank percentile of an already sorted array.
+     *
+     * @param sorted     values sorted in ascending order
+     * @param percentile percentile in the range [0 , 100]
+     */
+    public static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+    }
+
+    /**
+     * Requests a full GC and gives the collector a moment to finish , used between iterations to reduce noise.
+     */
+    public static void settle() {
+        System.gc();
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ *   <b> ** Lock-free Latency Histogram ** </b>
+ * </p>
+ * <p>
+ *   A fixed size , log-linear histogram in the spirit of HdrHistogram. Values below 128 get an exact bucket , above that
+ *   every power of two range is split into 64 linear sub buckets which bounds the relative error to under 1.6% for any
+ *   value up to {@link Long#MAX_VALUE}.
+ * </p>
+ * <p>
+ *   {@link #record(long)} is a single {@link AtomicLongArray#incrementAndGet(int)} plus a few counter updates , so any number
+ *   of threads can record concurrently without locks or allocation. Histograms are mergeable with {@link #add(LatencyHistogram)}.
+ * </p>
+ * <p>
+ *   Reading percentiles while other threads are still recording is allowed , the result is then an approximation of
+ *   the distribution at some point during the read.
+ * </p>
+ */
+
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final int MAX_SHIFT = 64 - SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT + MAX_SHIFT * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Records a single value , negative values are recorded as zero.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketIndex(v));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(v);
+        long max = maxValue.get();
+        while (v > max && !maxValue.compareAndSet(max, v)) {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Adds all values recorded in <code>other</code> to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalSum.addAndGet(other.totalSum.get());
+        long otherMax = other.maxValue.get();
+        long max = maxValue.get();
+        while (otherMax > max && !maxValue.compareAndSet(max, otherMax)) {
+            max = maxValue.get();
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+    }
+
+    public long count() {
+        return totalCount.get();
+    }
+
+    public long max() {
+        return maxValue.get();
+    }
+
+    public long sum() {
+        return totalSum.get();
+    }
+
+    public double mean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalSum.get() / count;
+    }
+
+    /**
+     * @param percentile percentile in the range [0 , 100]
+     * @return the highest value equivalent to the bucket holding the requested percentile , capped by {@link #max()}
+     */
+    public long percentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * @return number of recorded values that are less than or equal to <code>value</code> , accurate to the bucket resolution
+     */
+    public long countAtOrBelow(long value) {
+        int last = bucketIndex(Math.max(0, value));
+        long seen = 0;
+        for (int i = 0; i <= last; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        long highest = ((subBucket + 1) << shift) - 1;
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
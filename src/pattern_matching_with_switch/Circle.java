@@ -1,4 +1,14 @@
 package pattern_matching_with_switch;
 
-public class Circle implements Shape{
+public final class Circle implements Shape{
+
+    @Override
+    public int sides() {
+        return 0;
+    }
+
+    @Override
+    public int accept(ShapeVisitor visitor) {
+        return visitor.visit(this);
+    }
 }
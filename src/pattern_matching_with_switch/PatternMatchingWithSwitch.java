@@ -17,6 +17,7 @@ import java.math.BigDecimal;
  *  </p>
  *
  *  @see <a href="https://openjdk.org/jeps/441">JEP 441: Record Pattern Matching With Switch Statements </a> for detailed information.
+ *  @see "PatternDispatchJmhBenchMark of the jmh module , for what each way of dispatching costs."
  *
  */
 
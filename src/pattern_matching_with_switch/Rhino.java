@@ -1,4 +1,6 @@
 package pattern_matching_with_switch;
 
-public record Rhino(int id , String name) implements Routers {
+import java.io.Serializable;
+
+public record Rhino(int id , String name) implements Routers , Serializable {
 }
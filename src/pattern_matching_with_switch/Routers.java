@@ -1,4 +1,4 @@
 package pattern_matching_with_switch;
 
-public interface Routers {
+public sealed interface Routers permits Hdm, Rdk, Rhino {
 }
@@ -1,4 +1,13 @@
 package pattern_matching_with_switch;
 
-public interface Shape {
+/**
+ * Sealed , so a switch over the three shapes is exhaustive without a <code>default</code>. {@link #sides()} and
+ * {@link #accept(ShapeVisitor)} are the virtual method and visitor ways of dispatching on a shape , compared with the
+ * pattern matching ones in {@code PatternDispatchJmhBenchMark} of the jmh module.
+ */
+public sealed interface Shape permits Circle, Square, Triangle {
+
+    int sides();
+
+    int accept(ShapeVisitor visitor);
 }
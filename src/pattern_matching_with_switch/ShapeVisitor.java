@@ -0,0 +1,14 @@
+package pattern_matching_with_switch;
+
+/**
+ * Visitor over the {@link Shape} hierarchy , the double dispatch used before pattern matching. Returns an <code>int</code>
+ * so visiting does not box.
+ */
+public interface ShapeVisitor {
+
+    int visit(Circle circle);
+
+    int visit(Square square);
+
+    int visit(Triangle triangle);
+}
@@ -1,4 +1,14 @@
 package pattern_matching_with_switch;
 
-public class Square implements Shape{
+public final class Square implements Shape{
+
+    @Override
+    public int sides() {
+        return 4;
+    }
+
+    @Override
+    public int accept(ShapeVisitor visitor) {
+        return visitor.visit(this);
+    }
 }
@@ -1,4 +1,14 @@
 package pattern_matching_with_switch;
 
-public class Triangle implements Shape{
+public final class Triangle implements Shape{
+
+    @Override
+    public int sides() {
+        return 3;
+    }
+
+    @Override
+    public int accept(ShapeVisitor visitor) {
+        return visitor.visit(this);
+    }
 }
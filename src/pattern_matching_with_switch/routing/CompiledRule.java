@@ -0,0 +1,142 @@
+package pattern_matching_with_switch.routing;
+
+import pattern_matching_with_switch.Routers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link RouteRule} with its conditions turned into predicates over the generated component accessors.
+ */
+final class CompiledRule {
+
+    private static final Predicate<Routers> ALWAYS = event -> true;
+
+    /**
+     * A compiled condition , <code>from</code> and <code>to</code> bound the values of a numeric component it accepts if
+     * <code>range</code> is set.
+     */
+    record CompiledCondition(RouteRule.Condition condition, Predicate<Routers> test, boolean range, long from, long to) {
+    }
+
+    final int priority;
+    final RouteRule rule;
+    final List<CompiledCondition> conditions;
+    final Predicate<Routers> matches;
+
+    /**
+     * @param priority position of the rule in the configuration , the first matching rule wins
+     * @throws IllegalArgumentException if a condition does not fit the component it is on
+     */
+    CompiledRule(int priority, RouteRule rule) {
+        this.priority = priority;
+        this.rule = rule;
+        List<CompiledCondition> compiled = new ArrayList<>();
+        for (RouteRule.Condition condition : rule.conditions()) {
+            try {
+                compiled.add(compile(rule.type(), condition));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Rule '" + rule + "' : " + e.getMessage(), e);
+            }
+        }
+        this.conditions = List.copyOf(compiled);
+        this.matches = allOf(compiled.stream().map(CompiledCondition::test).toList());
+    }
+
+    /**
+     * @return <code>[from , to]</code> allowed by the range conditions on <code>component</code> , or <code>null</code> if
+     * there is none
+     */
+    long[] range(String component) {
+        long from = Integer.MIN_VALUE;
+        long to = Integer.MAX_VALUE;
+        boolean constrained = false;
+        for (CompiledCondition condition : conditions) {
+            if (condition.range() && condition.condition().component().equals(component)) {
+                from = Math.max(from, condition.from());
+                to = Math.min(to, condition.to());
+                constrained = true;
+            }
+        }
+        return constrained ? new long[]{from, to} : null;
+    }
+
+    /**
+     * @return the conditions left to test once an index on <code>component</code> selected the rule
+     */
+    Predicate<Routers> residual(String component) {
+        return allOf(conditions.stream()
+                .filter(condition -> !condition.range() || !condition.condition().component().equals(component))
+                .map(CompiledCondition::test)
+                .toList());
+    }
+
+    private static CompiledCondition compile(Class<? extends Routers> type, RouteRule.Condition condition) {
+        ComponentAccessors.Accessor accessor = ComponentAccessors.of(type, condition.component());
+        RouteRule.Operator operator = condition.operator();
+        String operand = condition.operand();
+        if (accessor.type() == int.class) {
+            ToIntFunction<Routers> value = accessor.asInt();
+            if (operator == RouteRule.Operator.IN) {
+                int separator = operand.indexOf("..");
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected <from>..<to> but got : " + operand);
+                }
+                int from = Integer.parseInt(operand.substring(0, separator));
+                int to = Integer.parseInt(operand.substring(separator + 2));
+                return new CompiledCondition(condition, event -> {
+                    int v = value.applyAsInt(event);
+                    return v >= from && v <= to;
+                }, true, from, to);
+            }
+            int v = Integer.parseInt(operand);
+            return switch (operator) {
+                case EQ -> new CompiledCondition(condition, event -> value.applyAsInt(event) == v, true, v, v);
+                case NE -> new CompiledCondition(condition, event -> value.applyAsInt(event) != v, false, 0, 0);
+                case LT -> new CompiledCondition(condition, event -> value.applyAsInt(event) < v, true, Integer.MIN_VALUE, v - 1L);
+                case LE -> new CompiledCondition(condition, event -> value.applyAsInt(event) <= v, true, Integer.MIN_VALUE, v);
+                case GT -> new CompiledCondition(condition, event -> value.applyAsInt(event) > v, true, v + 1L, Integer.MAX_VALUE);
+                case GE -> new CompiledCondition(condition, event -> value.applyAsInt(event) >= v, true, v, Integer.MAX_VALUE);
+                default -> throw new IllegalArgumentException(operator + " does not apply to the int component " + condition.component());
+            };
+        }
+        if (accessor.type() == String.class) {
+            Function<Routers, Object> value = accessor.asObject();
+            return switch (operator) {
+                case EQ -> new CompiledCondition(condition, event -> operand.equals(value.apply(event)), false, 0, 0);
+                case NE -> new CompiledCondition(condition, event -> !operand.equals(value.apply(event)), false, 0, 0);
+                case STARTS_WITH -> new CompiledCondition(condition,
+                        event -> value.apply(event) instanceof String s && s.startsWith(operand), false, 0, 0);
+                default -> throw new IllegalArgumentException(operator + " does not apply to the String component " + condition.component());
+            };
+        }
+        throw new IllegalArgumentException("Components of type " + accessor.type().getSimpleName() + " are not supported : "
+                + condition.component());
+    }
+
+    private static Predicate<Routers> allOf(List<Predicate<Routers>> predicates) {
+        return switch (predicates.size()) {
+            case 0 -> ALWAYS;
+            case 1 -> predicates.get(0);
+            case 2 -> {
+                Predicate<Routers> first = predicates.get(0);
+                Predicate<Routers> second = predicates.get(1);
+                yield event -> first.test(event) && second.test(event);
+            }
+            default -> {
+                List<Predicate<Routers>> all = List.copyOf(predicates);
+                yield event -> {
+                    for (Predicate<Routers> predicate : all) {
+                        if (!predicate.test(event)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package pattern_matching_with_switch.routing;
+
+import pattern_matching_with_switch.Routers;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>
+ *   Reads the components of {@link Routers} records by name. The accessors are spun once per record type with
+ *   {@link LambdaMetafactory} , so reading a component is a plain interface call the JIT inlines like a direct call to the
+ *   accessor , with no reflection and no boxing of <code>int</code> components.
+ * </p>
+ */
+final class ComponentAccessors {
+
+    /**
+     * @param type     declared type of the component
+     * @param asInt    reads an <code>int</code> component , <code>null</code> for other types
+     * @param asObject reads any component , boxing primitives
+     */
+    record Accessor(Class<?> type, ToIntFunction<Routers> asInt, Function<Routers, Object> asObject) {
+    }
+
+    private static final ClassValue<Map<String, Accessor>> ACCESSORS = new ClassValue<>() {
+        @Override
+        protected Map<String, Accessor> computeValue(Class<?> type) {
+            Map<String, Accessor> accessors = new LinkedHashMap<>();
+            for (RecordComponent component : type.getRecordComponents()) {
+                accessors.put(component.getName(), accessor(type, component));
+            }
+            return accessors;
+        }
+    };
+
+    private ComponentAccessors() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the record has no such component
+     */
+    static Accessor of(Class<? extends Routers> type, String component) {
+        Accessor accessor = ACCESSORS.get(type).get(component);
+        if (accessor == null) {
+            throw new IllegalArgumentException(type.getSimpleName() + " has no component " + component
+                    + " , it has " + ACCESSORS.get(type).keySet());
+        }
+        return accessor;
+    }
+
+    /**
+     * @return the names of the <code>int</code> components of the record
+     */
+    static Iterable<String> intComponents(Class<? extends Routers> type) {
+        return ACCESSORS.get(type).entrySet().stream()
+                .filter(entry -> entry.getValue().type() == int.class)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Accessor accessor(Class<?> type, RecordComponent component) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle getter = lookup.unreflect(component.getAccessor());
+            Class<?> componentType = component.getType();
+            ToIntFunction<Routers> asInt = null;
+            if (componentType == int.class) {
+                CallSite site = LambdaMetafactory.metafactory(lookup, "applyAsInt", MethodType.methodType(ToIntFunction.class),
+                        MethodType.methodType(int.class, Object.class), getter, MethodType.methodType(int.class, type));
+                asInt = (ToIntFunction<Routers>) site.getTarget().invokeExact();
+            }
+            CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class), getter, MethodType.methodType(Object.class, type));
+            Function<Routers, Object> asObject = (Function<Routers, Object>) site.getTarget().invokeExact();
+            return new Accessor(componentType, asInt, asObject);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can not create the accessor of " + type.getSimpleName() + "." + component.getName(), e);
+        }
+    }
+}
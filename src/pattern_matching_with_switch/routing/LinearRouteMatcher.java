@@ -0,0 +1,32 @@
+package pattern_matching_with_switch.routing;
+
+import pattern_matching_with_switch.Routers;
+
+import java.util.List;
+
+/**
+ * Tests the rules one by one in declaration order , the baseline {@link RouterRuleEngine} is measured against. Conditions
+ * are compiled the same way , only the index is missing.
+ */
+final class LinearRouteMatcher implements RouteMatcher {
+
+    private final CompiledRule[] rules;
+
+    LinearRouteMatcher(List<RouteRule> rules) {
+        this.rules = new CompiledRule[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            this.rules[i] = new CompiledRule(i, rules.get(i));
+        }
+    }
+
+    @Override
+    public String route(Routers event) {
+        Class<?> type = event.getClass();
+        for (CompiledRule rule : rules) {
+            if (rule.rule.type() == type && rule.matches.test(event)) {
+                return rule.rule.route();
+            }
+        }
+        return null;
+    }
+}
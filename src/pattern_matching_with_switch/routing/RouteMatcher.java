@@ -0,0 +1,14 @@
+package pattern_matching_with_switch.routing;
+
+import pattern_matching_with_switch.Routers;
+
+/**
+ * Finds the route of a router event , the one of the first declared {@link RouteRule} it matches.
+ */
+public interface RouteMatcher {
+
+    /**
+     * @return the route of the first rule matching <code>event</code> , or <code>null</code> if none does
+     */
+    String route(Routers event);
+}
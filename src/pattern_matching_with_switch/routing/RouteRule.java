@@ -0,0 +1,145 @@
+package pattern_matching_with_switch.routing;
+
+import pattern_matching_with_switch.Routers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ *   A routing rule : the {@link Routers} record type it applies to , conditions on the components of that record and the
+ *   route of the events matching all of them. It is the runtime form of a guarded case like
+ *   <code>case Rdk(int id , String name) when id &gt; 0</code>.
+ * </p>
+ * <p>
+ *   Rules are written one per line , see {@link #parse(String)} :
+ *   <pre>
+ *   &lt;name&gt; : &lt;Type&gt; [&lt;component&gt; &lt;operator&gt; &lt;operand&gt; [and ...]] -&gt; &lt;route&gt;
+ *
+ *   lab-hdm    : Hdm id == 0 -&gt; lab
+ *   edge-rdk   : Rdk id in 1000..1999 and name startsWith edge -&gt; edge
+ *   any-rhino  : Rhino -&gt; rhino
+ *   </pre>
+ *   Numeric components take <code>==</code> , <code>!=</code> , <code>&lt;</code> , <code>&lt;=</code> , <code>&gt;</code> ,
+ *   <code>&gt;=</code> and <code>in &lt;from&gt;..&lt;to&gt;</code> (inclusive) , string components <code>==</code> ,
+ *   <code>!=</code> and <code>startsWith</code>. Operands do not contain spaces.
+ * </p>
+ *
+ * @param name       name of the rule , for diagnostics
+ * @param type       record type the rule applies to
+ * @param conditions conditions all of which must hold
+ * @param route      route of the matching events
+ */
+public record RouteRule(String name, Class<? extends Routers> type, List<Condition> conditions, String route) {
+
+    public RouteRule {
+        conditions = List.copyOf(conditions);
+    }
+
+    public enum Operator {
+        EQ("=="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">="), IN("in"), STARTS_WITH("startsWith");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        static Operator of(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operator : " + symbol);
+        }
+
+        @Override
+        public String toString() {
+            return symbol;
+        }
+    }
+
+    /**
+     * @param component name of the record component
+     * @param operator  comparison
+     * @param operand   value compared with , <code>&lt;from&gt;..&lt;to&gt;</code> for {@link Operator#IN}
+     */
+    public record Condition(String component, Operator operator, String operand) {
+
+        @Override
+        public String toString() {
+            return component + " " + operator + " " + operand;
+        }
+    }
+
+    /**
+     * Parses a rule , see the class comment.
+     *
+     * @throws IllegalArgumentException if the rule is malformed or the type is not a {@link Routers} record
+     */
+    public static RouteRule parse(String line) {
+        try {
+            int colon = line.indexOf(':');
+            int arrow = line.lastIndexOf("->");
+            if (colon <= 0 || arrow < colon) {
+                throw new IllegalArgumentException("Expected <name> : <Type> [conditions] -> <route>");
+            }
+            String name = line.substring(0, colon).trim();
+            String route = line.substring(arrow + 2).trim();
+            List<String> tokens = Arrays.stream(line.substring(colon + 1, arrow).trim().split("\\s+"))
+                    .filter(token -> !token.isEmpty()).toList();
+            if (name.isEmpty() || route.isEmpty() || tokens.isEmpty()) {
+                throw new IllegalArgumentException("Expected <name> : <Type> [conditions] -> <route>");
+            }
+            Class<? extends Routers> type = routerType(tokens.get(0));
+            List<Condition> conditions = new ArrayList<>();
+            for (int i = 1; i < tokens.size(); i += 4) {
+                if (i + 2 >= tokens.size()) {
+                    throw new IllegalArgumentException("Incomplete condition : " + String.join(" ", tokens.subList(i, tokens.size())));
+                }
+                conditions.add(new Condition(tokens.get(i), Operator.of(tokens.get(i + 1)), tokens.get(i + 2)));
+                if (i + 3 < tokens.size() && !tokens.get(i + 3).equals("and")) {
+                    throw new IllegalArgumentException("Expected and but got : " + tokens.get(i + 3));
+                }
+            }
+            return new RouteRule(name, type, conditions, route);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed rule '" + line + "' : " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses the rules of a config file , empty lines and lines starting with <code>#</code> are skipped.
+     */
+    public static List<RouteRule> parseAll(List<String> lines) {
+        return lines.stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .map(RouteRule::parse)
+                .toList();
+    }
+
+    /**
+     * Resolves the simple name of a record permitted by the sealed {@link Routers}.
+     */
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Routers> routerType(String simpleName) {
+        for (Class<?> type : Routers.class.getPermittedSubclasses()) {
+            if (type.getSimpleName().equals(simpleName)) {
+                return (Class<? extends Routers>) type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown router type : " + simpleName);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder rule = new StringBuilder(name).append(" : ").append(type.getSimpleName());
+        for (int i = 0; i < conditions.size(); i++) {
+            rule.append(i == 0 ? " " : " and ").append(conditions.get(i));
+        }
+        return rule.append(" -> ").append(route).toString();
+    }
+}
@@ -0,0 +1,240 @@
+package pattern_matching_with_switch.routing;
+
+import pattern_matching_with_switch.Routers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>
+ *   <b> ** Compiled rule engine for router events ** </b>
+ * </p>
+ * <p>
+ *   {@link pattern_matching_with_switch.PatternMatchingWithSwitch} routes a {@link Routers} record with a switch whose
+ *   guards are written in the code. This engine does the same for {@link RouteRule}s declared at runtime , the first
+ *   declared rule matching an event gives its route , but it does not test the rules one by one. They are compiled into a
+ *   two level decision tree :
+ *   <ul>
+ *       <li><b>type bucket</b> : the rules of every record type , looked up with a {@link ClassValue} on the class of the
+ *           event , so the rules of other types are never looked at.</li>
+ *       <li><b>range index</b> : in every bucket the <code>int</code> component bounded by the most rules (<code>==</code> ,
+ *           <code>&lt;</code> , <code>in</code> ...) is indexed. The bounds of all rules cut the values of the component into
+ *           segments , every segment keeps the rules that can match in it , in declaration order. A binary search on the
+ *           value of the event finds its segment.</li>
+ *   </ul>
+ *   Only the remaining conditions of the rules in that segment are tested , on components read through accessors
+ *   generated once per record type , see {@link ComponentAccessors}.
+ * </p>
+ * <p>
+ *   Rules without a bound on the indexed component are kept in every segment. Many of them , or many overlapping
+ *   ranges , make the segments longer and the index grows with segments times rules per segment , see {@link #describe()}.
+ * </p>
+ *
+ * Example : <code>RouterRuleEngine.load(Path.of("routes.conf")).route(new Rdk(1042 , "edge-7"))</code>
+ */
+
+public final class RouterRuleEngine implements RouteMatcher {
+
+    private final int ruleCount;
+    private final Map<Class<?>, Bucket> bucketsByType;
+    private final ClassValue<Bucket> buckets = new ClassValue<>() {
+        @Override
+        protected Bucket computeValue(Class<?> type) {
+            return bucketsByType.getOrDefault(type, Bucket.EMPTY);
+        }
+    };
+
+    private RouterRuleEngine(int ruleCount, Map<Class<?>, Bucket> bucketsByType) {
+        this.ruleCount = ruleCount;
+        this.bucketsByType = bucketsByType;
+    }
+
+    /**
+     * @param rules rules in priority order
+     * @throws IllegalArgumentException if a rule does not fit the components of its record type
+     */
+    public static RouterRuleEngine compile(List<RouteRule> rules) {
+        Map<Class<?>, List<CompiledRule>> rulesByType = new LinkedHashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            CompiledRule rule = new CompiledRule(i, rules.get(i));
+            rulesByType.computeIfAbsent(rule.rule.type(), type -> new ArrayList<>()).add(rule);
+        }
+        Map<Class<?>, Bucket> bucketsByType = new LinkedHashMap<>();
+        rulesByType.forEach((type, typeRules) -> bucketsByType.put(type, Bucket.build(type.asSubclass(Routers.class), typeRules)));
+        return new RouterRuleEngine(rules.size(), Map.copyOf(bucketsByType));
+    }
+
+    /**
+     * Compiles the rules of a config file , see {@link RouteRule#parseAll(List)}.
+     */
+    public static RouterRuleEngine load(Path rulesFile) throws IOException {
+        return compile(RouteRule.parseAll(Files.readAllLines(rulesFile)));
+    }
+
+    @Override
+    public String route(Routers event) {
+        return buckets.get(event.getClass()).route(event);
+    }
+
+    public int ruleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * @return per record type the indexed component , the number of segments and the rules per segment
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder();
+        bucketsByType.forEach((type, bucket) -> {
+            int max = 0;
+            long total = 0;
+            for (Candidate[] segment : bucket.segments) {
+                max = Math.max(max, segment.length);
+                total += segment.length;
+            }
+            description.append(type.getSimpleName())
+                    .append(" index=").append(bucket.component == null ? "none" : bucket.component)
+                    .append(" segments=").append(bucket.segments.length)
+                    .append(" rules/segment avg=").append(String.format("%.1f", (double) total / bucket.segments.length))
+                    .append(" max=").append(max).append('\n');
+        });
+        return description.toString();
+    }
+
+    /**
+     * A rule of a segment with the conditions left to test once the event is in the segment.
+     */
+    private static final class Candidate {
+
+        final String route;
+        final Predicate<Routers> residual;
+
+        Candidate(String route, Predicate<Routers> residual) {
+            this.route = route;
+            this.residual = residual;
+        }
+    }
+
+    /**
+     * The rules of one record type , split into segments of the indexed component.
+     */
+    private static final class Bucket {
+
+        static final Bucket EMPTY = new Bucket(null, null, new int[]{Integer.MIN_VALUE}, new Candidate[][]{{}});
+
+        final String component;
+        final ToIntFunction<Routers> index;
+        /** first value of every segment , ascending , the first one is {@link Integer#MIN_VALUE} */
+        final int[] starts;
+        final Candidate[][] segments;
+
+        private Bucket(String component, ToIntFunction<Routers> index, int[] starts, Candidate[][] segments) {
+            this.component = component;
+            this.index = index;
+            this.starts = starts;
+            this.segments = segments;
+        }
+
+        String route(Routers event) {
+            int segment = 0;
+            if (index != null) {
+                segment = Arrays.binarySearch(starts, index.applyAsInt(event));
+                if (segment < 0) {
+                    segment = -segment - 2;
+                }
+            }
+            for (Candidate candidate : segments[segment]) {
+                if (candidate.residual.test(event)) {
+                    return candidate.route;
+                }
+            }
+            return null;
+        }
+
+        static Bucket build(Class<? extends Routers> type, List<CompiledRule> rules) {
+            String component = null;
+            int bounded = 0;
+            for (String candidate : ComponentAccessors.intComponents(type)) {
+                int count = (int) rules.stream().filter(rule -> rule.range(candidate) != null).count();
+                if (count > bounded) {
+                    component = candidate;
+                    bounded = count;
+                }
+            }
+            if (component == null) {
+                Candidate[] all = rules.stream().map(rule -> new Candidate(rule.rule.route(), rule.matches)).toArray(Candidate[]::new);
+                return new Bucket(null, null, new int[]{Integer.MIN_VALUE}, new Candidate[][]{all});
+            }
+
+            // cut the values of the component at the bounds of every rule
+            List<long[]> ranges = new ArrayList<>(rules.size());
+            TreeSet<Long> cuts = new TreeSet<>();
+            cuts.add((long) Integer.MIN_VALUE);
+            for (CompiledRule rule : rules) {
+                long[] range = rule.range(component);
+                if (range == null) {
+                    range = new long[]{Integer.MIN_VALUE, Integer.MAX_VALUE};
+                }
+                ranges.add(range);
+                if (range[0] <= range[1]) {
+                    cuts.add(range[0]);
+                    if (range[1] < Integer.MAX_VALUE) {
+                        cuts.add(range[1] + 1);
+                    }
+                }
+            }
+            int[] starts = cuts.stream().mapToInt(Long::intValue).toArray();
+            List<List<CompiledRule>> segmentRules = new ArrayList<>(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                segmentRules.add(new ArrayList<>());
+            }
+            for (int r = 0; r < rules.size(); r++) {
+                long[] range = ranges.get(r);
+                if (range[0] > range[1]) {
+                    // contradicting bounds , the rule never matches
+                    continue;
+                }
+                int first = Arrays.binarySearch(starts, (int) range[0]);
+                for (int s = first; s < starts.length && starts[s] <= range[1]; s++) {
+                    segmentRules.get(s).add(rules.get(r));
+                }
+            }
+
+            // merge neighbouring segments holding the same rules
+            List<Integer> mergedStarts = new ArrayList<>();
+            List<CompiledRule[]> mergedSegments = new ArrayList<>();
+            for (int s = 0; s < starts.length; s++) {
+                CompiledRule[] segment = segmentRules.get(s).toArray(new CompiledRule[0]);
+                if (!mergedSegments.isEmpty() && Arrays.equals(mergedSegments.get(mergedSegments.size() - 1), segment)) {
+                    continue;
+                }
+                mergedStarts.add(starts[s]);
+                mergedSegments.add(segment);
+            }
+
+            // residual predicates are shared by all the segments of a rule
+            Map<CompiledRule, Candidate> candidateByRule = new LinkedHashMap<>();
+            String indexed = component;
+            Candidate[][] segments = new Candidate[mergedSegments.size()][];
+            for (int s = 0; s < segments.length; s++) {
+                CompiledRule[] segment = mergedSegments.get(s);
+                segments[s] = new Candidate[segment.length];
+                for (int i = 0; i < segment.length; i++) {
+                    segments[s][i] = candidateByRule.computeIfAbsent(segment[i],
+                            rule -> new Candidate(rule.rule.route(), rule.residual(indexed)));
+                }
+            }
+            return new Bucket(component, ComponentAccessors.of(type, component).asInt(),
+                    mergedStarts.stream().mapToInt(Integer::intValue).toArray(), segments);
+        }
+    }
+}
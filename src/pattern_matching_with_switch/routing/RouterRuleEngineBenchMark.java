@@ -0,0 +1,214 @@
+package pattern_matching_with_switch.routing;
+
+import benchmark.BenchMarkHarness;
+import pattern_matching_with_switch.Hdm;
+import pattern_matching_with_switch.Rdk;
+import pattern_matching_with_switch.Rhino;
+import pattern_matching_with_switch.Routers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>
+ *   <b> ** Routing router events : compiled rules vs rules tested one by one ** </b>
+ * </p>
+ * <p>
+ *   Generates the rules of a device fleet spread over <code>idSpace</code> router ids and routes random {@link Hdm} ,
+ *   {@link Rdk} and {@link Rhino} events with :
+ *   <ul>
+ *       <li><code>linear</code>   : {@link LinearRouteMatcher} , every rule tested in declaration order</li>
+ *       <li><code>compiled</code> : {@link RouterRuleEngine} , type buckets and a range index on <code>id</code></li>
+ *   </ul>
+ *   Of the generated rules 70% route an id range , half of them also on a name prefix , 24% a single id , 5% ids above a
+ *   bound with a given name and 1% a name prefix on any id. Both matchers are checked to route the first events the same
+ *   before measuring. The report has the time to compile the rules , routed events per second and how many events
+ *   matched a rule.
+ * </p>
+ * <p>
+ *   Parameters (<code>key=value</code>) :
+ *   <ul>
+ *       <li><code>matchers</code>        : comma separated list of <code>linear</code> , <code>compiled</code></li>
+ *       <li><code>rules</code>           : comma separated rule counts</li>
+ *       <li><code>idSpace</code>         : router ids are drawn from <code>[0 , idSpace)</code></li>
+ *       <li><code>events</code>          : distinct events routed in a loop</li>
+ *       <li><code>warmups</code>         : warmup iterations</li>
+ *       <li><code>iterations</code>      : measurement iterations</li>
+ *       <li><code>iterationMillis</code> : duration of an iteration</li>
+ *       <li><code>forks</code>           : forked JVMs per configuration , <code>0</code> runs in the current JVM</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -cp out pattern_matching_with_switch.routing.RouterRuleEngineBenchMark rules=10,100,1000,10000</code>
+ */
+
+public class RouterRuleEngineBenchMark {
+
+    private static final String[] NAME_PREFIXES = {"edge", "core", "lab"};
+
+    /** Keeps the JIT from dropping routes whose result is otherwise unused. */
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("matchers", "linear,compiled");
+        defaults.put("rules", "10,100,1000,10000");
+        defaults.put("idSpace", "1000000");
+        defaults.put("events", "65536");
+        defaults.put("warmups", "3");
+        defaults.put("iterations", "5");
+        defaults.put("iterationMillis", "1000");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> matchers = BenchMarkHarness.csv(params.get("matchers"));
+        List<Integer> ruleCounts = BenchMarkHarness.csvInts(params.get("rules"));
+        int idSpace = Integer.parseInt(params.get("idSpace").replace("_", ""));
+        int eventCount = Integer.parseInt(params.get("events").replace("_", ""));
+        int warmups = Integer.parseInt(params.get("warmups"));
+        int iterations = Integer.parseInt(params.get("iterations"));
+        long iterationNanos = Long.parseLong(params.get("iterationMillis")) * 1_000_000;
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String matcher : matchers) {
+                for (int ruleCount : ruleCounts) {
+                    for (int fork = 1; fork <= forks; fork++) {
+                        Map<String, String> childParams = new LinkedHashMap<>(params);
+                        childParams.put("matchers", matcher);
+                        childParams.put("rules", String.valueOf(ruleCount));
+                        int exitCode = BenchMarkHarness.fork(RouterRuleEngineBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+                        if (exitCode != 0) {
+                            System.out.println("matcher=" + matcher + " rules=" + ruleCount + " failed with exit code " + exitCode);
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        Routers[] events = events(eventCount, idSpace, new Random(7));
+        for (String matcher : matchers) {
+            for (int ruleCount : ruleCounts) {
+                List<RouteRule> rules = rules(ruleCount, idSpace, new Random(42));
+
+                long compileStart = System.nanoTime();
+                RouteMatcher routeMatcher = switch (matcher) {
+                    case "linear" -> new LinearRouteMatcher(rules);
+                    case "compiled" -> RouterRuleEngine.compile(rules);
+                    default -> throw new IllegalArgumentException("Unknown matcher : " + matcher);
+                };
+                long compileNanos = System.nanoTime() - compileStart;
+                if (routeMatcher instanceof RouterRuleEngine engine) {
+                    verify(engine, new LinearRouteMatcher(rules), events);
+                }
+
+                for (int i = 0; i < warmups; i++) {
+                    runIteration(routeMatcher, events, iterationNanos);
+                }
+                double eventsPerSecond = 0;
+                for (int i = 0; i < iterations; i++) {
+                    eventsPerSecond += runIteration(routeMatcher, events, iterationNanos);
+                }
+                eventsPerSecond /= iterations;
+
+                int matched = 0;
+                for (Routers event : events) {
+                    if (routeMatcher.route(event) != null) {
+                        matched++;
+                    }
+                }
+                System.out.printf("matcher=%-8s rules=%-6d compile=%9.2f ms throughput=%9.3f Mevents/s %10.1f ns/event matched=%5.1f%%%n",
+                        matcher, ruleCount, compileNanos / 1e6, eventsPerSecond / 1e6, 1e9 / eventsPerSecond, 100.0 * matched / events.length);
+                if (routeMatcher instanceof RouterRuleEngine engine) {
+                    engine.describe().lines().forEach(line -> System.out.printf("matcher=%-8s rules=%-6d %s%n", matcher, ruleCount, line));
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates <code>count</code> rules , see the class comment.
+     */
+    static List<RouteRule> rules(int count, int idSpace, Random random) {
+        List<String> lines = new ArrayList<>(count);
+        int width = Math.max(1, idSpace / count * 2);
+        for (int i = 0; i < count; i++) {
+            String type = switch (random.nextInt(3)) {
+                case 0 -> "Hdm";
+                case 1 -> "Rdk";
+                default -> "Rhino";
+            };
+            String prefix = NAME_PREFIXES[random.nextInt(NAME_PREFIXES.length)];
+            int kind = random.nextInt(100);
+            String conditions;
+            if (kind < 70) {
+                int from = random.nextInt(idSpace);
+                conditions = "id in " + from + ".." + (from + random.nextInt(width));
+                if (kind < 35) {
+                    conditions += " and name startsWith " + prefix;
+                }
+            } else if (kind < 94) {
+                conditions = "id == " + random.nextInt(idSpace);
+            } else if (kind < 99) {
+                conditions = "id >= " + random.nextInt(idSpace) + " and name == " + prefix + "-" + random.nextInt(10);
+            } else {
+                conditions = "name startsWith " + prefix + "-" + random.nextInt(10);
+            }
+            lines.add("rule-" + i + " : " + type + " " + conditions + " -> route-" + i);
+        }
+        return RouteRule.parseAll(lines);
+    }
+
+    private static Routers[] events(int count, int idSpace, Random random) {
+        Routers[] events = new Routers[count];
+        for (int i = 0; i < count; i++) {
+            int id = random.nextInt(idSpace);
+            String name = NAME_PREFIXES[random.nextInt(NAME_PREFIXES.length)] + "-" + random.nextInt(10);
+            events[i] = switch (random.nextInt(3)) {
+                case 0 -> new Hdm(id, name);
+                case 1 -> new Rdk(id, name);
+                default -> new Rhino(id, name);
+            };
+        }
+        return events;
+    }
+
+    /**
+     * Checks the engine routes the first events like the rules tested one by one.
+     *
+     * @throws IllegalStateException on the first event routed differently
+     */
+    private static void verify(RouterRuleEngine engine, LinearRouteMatcher linear, Routers[] events) {
+        for (int i = 0; i < Math.min(events.length, 4096); i++) {
+            String expected = linear.route(events[i]);
+            String actual = engine.route(events[i]);
+            if (expected == null ? actual != null : !expected.equals(actual)) {
+                throw new IllegalStateException("Event " + events[i] + " routed to " + actual + " instead of " + expected);
+            }
+        }
+    }
+
+    /**
+     * Routes the events until <code>iterationNanos</code> passed.
+     *
+     * @return routed events per second
+     */
+    private static double runIteration(RouteMatcher matcher, Routers[] events, long iterationNanos) {
+        long routed = 0;
+        long begin = System.nanoTime();
+        long end;
+        do {
+            for (Routers event : events) {
+                String route = matcher.route(event);
+                sink += route == null ? 0 : route.length();
+            }
+            routed += events.length;
+        } while ((end = System.nanoTime()) - begin < iterationNanos);
+        return routed * 1e9 / (end - begin);
+    }
+}
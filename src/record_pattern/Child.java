@@ -1,3 +1,5 @@
 package record_pattern;
 
-public record Child(String id) { }
+import java.io.Serializable;
+
+public record Child(String id) implements Serializable { }
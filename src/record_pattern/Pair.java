@@ -1,4 +1,6 @@
 package record_pattern;
 
-public record Pair(Object s1 , Object s2) {
+import java.io.Serializable;
+
+public record Pair(Object s1 , Object s2) implements Serializable {
 }
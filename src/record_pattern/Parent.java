@@ -1,3 +1,5 @@
 package record_pattern;
 
-public record Parent(Child c , String parentId) { }
+import java.io.Serializable;
+
+public record Parent(Child c , String parentId) implements Serializable { }
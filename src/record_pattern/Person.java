@@ -1,5 +1,7 @@
 package record_pattern;
 
-public record Person(String name , int age)  {
+import java.io.Serializable;
+
+public record Person(String name , int age) implements Serializable {
 
 }
@@ -0,0 +1,304 @@
+package record_pattern.codec;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ *   Writes and reads one component of a record. Every component gets the codec of its declared type , chosen once when
+ *   the {@link RecordLayout} is built :
+ *   <ul>
+ *       <li>primitives : fixed width , big endian like {@link ByteBuffer}</li>
+ *       <li><code>String</code> : <code>int</code> byte length , <code>-1</code> for null , and UTF-8 bytes</li>
+ *       <li>record : a presence byte and the components of the nested record , no type information since the type is
+ *           known</li>
+ *       <li><code>Object</code> , interfaces , abstract and boxed types : a tag byte and the value , records as the id they
+ *           are registered under in the {@link RecordCodec}</li>
+ *   </ul>
+ *   The accessor of the component is a {@link MethodHandle} adapted to return the primitive itself , so writing an
+ *   <code>int</code> does not box it.
+ * </p>
+ */
+abstract class FieldCodec {
+
+    static final byte TAG_NULL = 0;
+    static final byte TAG_STRING = 1;
+    static final byte TAG_INT = 2;
+    static final byte TAG_LONG = 3;
+    static final byte TAG_DOUBLE = 4;
+    static final byte TAG_BOOLEAN = 5;
+    static final byte TAG_RECORD = 6;
+
+    final String name;
+
+    FieldCodec(String name) {
+        this.name = name;
+    }
+
+    abstract void write(Record record, ByteBuffer buffer, RecordCodec codec) throws Throwable;
+
+    abstract Object read(ByteBuffer buffer, RecordCodec codec);
+
+    /**
+     * @throws IllegalArgumentException if the type of the component is not supported
+     */
+    static FieldCodec of(RecordComponent component, MethodHandles.Lookup lookup) throws IllegalAccessException {
+        String name = component.getName();
+        Class<?> type = component.getType();
+        MethodHandle getter = lookup.unreflect(component.getAccessor());
+        if (type.isPrimitive()) {
+            MethodHandle primitiveGetter = getter.asType(MethodType.methodType(type, Record.class));
+            if (type == int.class) {
+                return new IntField(name, primitiveGetter);
+            } else if (type == long.class) {
+                return new LongField(name, primitiveGetter);
+            } else if (type == double.class) {
+                return new DoubleField(name, primitiveGetter);
+            } else if (type == boolean.class) {
+                return new BooleanField(name, primitiveGetter);
+            }
+            throw new IllegalArgumentException("Component " + name + " of type " + type + " is not supported");
+        }
+        MethodHandle objectGetter = getter.asType(MethodType.methodType(Object.class, Record.class));
+        if (type == String.class) {
+            return new StringField(name, objectGetter);
+        } else if (type.isRecord()) {
+            return new RecordField(name, objectGetter, type);
+        } else if (type == Object.class || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+                || type == Integer.class || type == Long.class || type == Double.class || type == Boolean.class) {
+            return new DynamicField(name, objectGetter);
+        }
+        throw new IllegalArgumentException("Component " + name + " of type " + type.getName() + " is not supported");
+    }
+
+    static void writeString(String value, ByteBuffer buffer) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        // encodes UTF-8 straight into the buffer , String.getBytes would allocate an array per string
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate , replaced like String.getBytes does
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Corrupt string length " + length + " with " + buffer.remaining() + " bytes left");
+        }
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class IntField extends FieldCodec {
+
+        private final MethodHandle getter;
+
+        IntField(String name, MethodHandle getter) {
+            super(name);
+            this.getter = getter;
+        }
+
+        @Override
+        void write(Record record, ByteBuffer buffer, RecordCodec codec) throws Throwable {
+            buffer.putInt((int) getter.invokeExact(record));
+        }
+
+        @Override
+        Object read(ByteBuffer buffer, RecordCodec codec) {
+            return buffer.getInt();
+        }
+    }
+
+    private static final class LongField extends FieldCodec {
+
+        private final MethodHandle getter;
+
+        LongField(String name, MethodHandle getter) {
+            super(name);
+            this.getter = getter;
+        }
+
+        @Override
+        void write(Record record, ByteBuffer buffer, RecordCodec codec) throws Throwable {
+            buffer.putLong((long) getter.invokeExact(record));
+        }
+
+        @Override
+        Object read(ByteBuffer buffer, RecordCodec codec) {
+            return buffer.getLong();
+        }
+    }
+
+    private static final class DoubleField extends FieldCodec {
+
+        private final MethodHandle getter;
+
+        DoubleField(String name, MethodHandle getter) {
+            super(name);
+            this.getter = getter;
+        }
+
+        @Override
+        void write(Record record, ByteBuffer buffer, RecordCodec codec) throws Throwable {
+            buffer.putDouble((double) getter.invokeExact(record));
+        }
+
+        @Override
+        Object read(ByteBuffer buffer, RecordCodec codec) {
+            return buffer.getDouble();
+        }
+    }
+
+    private static final class BooleanField extends FieldCodec {
+
+        private final MethodHandle getter;
+
+        BooleanField(String name, MethodHandle getter) {
+            super(name);
+            this.getter = getter;
+        }
+
+        @Override
+        void write(Record record, ByteBuffer buffer, RecordCodec codec) throws Throwable {
+            buffer.put((boolean) getter.invokeExact(record) ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        Object read(ByteBuffer buffer, RecordCodec codec) {
+            return buffer.get() != 0;
+        }
+    }
+
+    private static final class StringField extends FieldCodec {
+
+        private final MethodHandle getter;
+
+        StringField(String name, MethodHandle getter) {
+            super(name);
+            this.getter = getter;
+        }
+
+        @Override
+        void write(Record record, ByteBuffer buffer, RecordCodec codec) throws Throwable {
+            writeString((String) (Object) getter.invokeExact(record), buffer);
+        }
+
+        @Override
+        Object read(ByteBuffer buffer, RecordCodec codec) {
+            return readString(buffer);
+        }
+    }
+
+    /**
+     * A component declared with a record type , the layout of the nested record is looked up when used so a record
+     * may nest its own type.
+     */
+    private static final class RecordField extends FieldCodec {
+
+        private final MethodHandle getter;
+        private final Class<?> type;
+
+        RecordField(String name, MethodHandle getter, Class<?> type) {
+            super(name);
+            this.getter = getter;
+            this.type = type;
+        }
+
+        @Override
+        void write(Record record, ByteBuffer buffer, RecordCodec codec) throws Throwable {
+            Record value = (Record) (Object) getter.invokeExact(record);
+            if (value == null) {
+                buffer.put(TAG_NULL);
+                return;
+            }
+            buffer.put(TAG_RECORD);
+            RecordLayout.of(type).write(value, buffer, codec);
+        }
+
+        @Override
+        Object read(ByteBuffer buffer, RecordCodec codec) {
+            return buffer.get() == TAG_NULL ? null : RecordLayout.of(type).read(buffer, codec);
+        }
+    }
+
+    private static final class DynamicField extends FieldCodec {
+
+        private final MethodHandle getter;
+
+        DynamicField(String name, MethodHandle getter) {
+            super(name);
+            this.getter = getter;
+        }
+
+        @Override
+        void write(Record record, ByteBuffer buffer, RecordCodec codec) throws Throwable {
+            Object value = getter.invokeExact(record);
+            switch (value) {
+                case null -> buffer.put(TAG_NULL);
+                case String s -> {
+                    buffer.put(TAG_STRING);
+                    writeString(s, buffer);
+                }
+                case Integer i -> buffer.put(TAG_INT).putInt(i);
+                case Long l -> buffer.put(TAG_LONG).putLong(l);
+                case Double d -> buffer.put(TAG_DOUBLE).putDouble(d);
+                case Boolean b -> buffer.put(TAG_BOOLEAN).put(b ? (byte) 1 : (byte) 0);
+                case Record r -> {
+                    buffer.put(TAG_RECORD);
+                    codec.writeTyped(r, buffer);
+                }
+                default -> throw new IllegalArgumentException("Component " + name + " holds a " + value.getClass().getName()
+                        + " , only strings , Integer , Long , Double , Boolean and registered records are supported");
+            }
+        }
+
+        @Override
+        Object read(ByteBuffer buffer, RecordCodec codec) {
+            byte tag = buffer.get();
+            return switch (tag) {
+                case TAG_NULL -> null;
+                case TAG_STRING -> readString(buffer);
+                case TAG_INT -> buffer.getInt();
+                case TAG_LONG -> buffer.getLong();
+                case TAG_DOUBLE -> buffer.getDouble();
+                case TAG_BOOLEAN -> buffer.get() != 0;
+                case TAG_RECORD -> codec.read(buffer);
+                default -> throw new IllegalArgumentException("Corrupt value tag " + tag + " of component " + name);
+            };
+        }
+    }
+}
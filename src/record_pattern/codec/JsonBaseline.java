@@ -0,0 +1,328 @@
+package record_pattern.codec;
+
+import pattern_matching_with_switch.Hdm;
+import record_pattern.Child;
+import record_pattern.Parent;
+import record_pattern.Pair;
+import record_pattern.Person;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hand-written JSON for the records of {@link RecordCodecBenchMark} , one writer and one parser per type like a
+ * codec written without a library. <code>Pair</code> components may be strings , numbers , booleans or null.
+ */
+final class JsonBaseline {
+
+    private JsonBaseline() {
+    }
+
+    static byte[] write(Record record) {
+        StringBuilder json = new StringBuilder(64);
+        switch (record) {
+            case Person(var name, var age) -> {
+                json.append("{\"name\":");
+                string(json, name);
+                json.append(",\"age\":").append(age).append('}');
+            }
+            case Parent(var child, var parentId) -> {
+                json.append("{\"c\":");
+                if (child == null) {
+                    json.append("null");
+                } else {
+                    json.append("{\"id\":");
+                    string(json, child.id());
+                    json.append('}');
+                }
+                json.append(",\"parentId\":");
+                string(json, parentId);
+                json.append('}');
+            }
+            case Pair(var s1, var s2) -> {
+                json.append("{\"s1\":");
+                value(json, s1);
+                json.append(",\"s2\":");
+                value(json, s2);
+                json.append('}');
+            }
+            case Hdm(var id, var name) -> {
+                json.append("{\"id\":").append(id).append(",\"name\":");
+                string(json, name);
+                json.append('}');
+            }
+            default -> throw new IllegalArgumentException("No JSON writer for " + record.getClass().getName());
+        }
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static <R extends Record> R read(byte[] bytes, Class<R> type) {
+        Parser parser = new Parser(new String(bytes, StandardCharsets.UTF_8));
+        Record record;
+        if (type == Person.class) {
+            record = parser.person();
+        } else if (type == Parent.class) {
+            record = parser.parent();
+        } else if (type == Pair.class) {
+            record = parser.pair();
+        } else if (type == Hdm.class) {
+            record = parser.hdm();
+        } else {
+            throw new IllegalArgumentException("No JSON parser for " + type.getName());
+        }
+        parser.end();
+        return type.cast(record);
+    }
+
+    private static void value(StringBuilder json, Object value) {
+        switch (value) {
+            case null -> json.append("null");
+            case String s -> string(json, s);
+            case Integer i -> json.append(i.intValue());
+            case Long l -> json.append(l.longValue());
+            case Double d -> json.append(d.doubleValue());
+            case Boolean b -> json.append(b.booleanValue());
+            default -> throw new IllegalArgumentException("No JSON value for " + value.getClass().getName());
+        }
+    }
+
+    private static void string(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Reads the fields of an object in any order , unknown fields are an error.
+     */
+    private static final class Parser {
+
+        private final String json;
+        private int position;
+
+        Parser(String json) {
+            this.json = json;
+        }
+
+        Person person() {
+            String name = null;
+            int age = 0;
+            expect('{');
+            do {
+                String field = field();
+                switch (field) {
+                    case "name" -> name = string();
+                    case "age" -> age = (int) number();
+                    default -> throw unknown(field);
+                }
+            } while (next());
+            return new Person(name, age);
+        }
+
+        Parent parent() {
+            Child child = null;
+            String parentId = null;
+            expect('{');
+            do {
+                String field = field();
+                switch (field) {
+                    case "c" -> child = literal("null") ? null : child();
+                    case "parentId" -> parentId = string();
+                    default -> throw unknown(field);
+                }
+            } while (next());
+            return new Parent(child, parentId);
+        }
+
+        Child child() {
+            String id = null;
+            expect('{');
+            do {
+                String field = field();
+                if (!field.equals("id")) {
+                    throw unknown(field);
+                }
+                id = string();
+            } while (next());
+            return new Child(id);
+        }
+
+        Pair pair() {
+            Object s1 = null;
+            Object s2 = null;
+            expect('{');
+            do {
+                String field = field();
+                switch (field) {
+                    case "s1" -> s1 = value();
+                    case "s2" -> s2 = value();
+                    default -> throw unknown(field);
+                }
+            } while (next());
+            return new Pair(s1, s2);
+        }
+
+        Hdm hdm() {
+            int id = 0;
+            String name = null;
+            expect('{');
+            do {
+                String field = field();
+                switch (field) {
+                    case "id" -> id = (int) number();
+                    case "name" -> name = string();
+                    default -> throw unknown(field);
+                }
+            } while (next());
+            return new Hdm(id, name);
+        }
+
+        void end() {
+            if (position != json.length()) {
+                throw error("Trailing characters");
+            }
+        }
+
+        private String field() {
+            String field = string();
+            expect(':');
+            return field;
+        }
+
+        /**
+         * @return true after a <code>,</code> , false after the closing <code>}</code>
+         */
+        private boolean next() {
+            char c = peek();
+            position++;
+            if (c == ',') {
+                return true;
+            } else if (c == '}') {
+                return false;
+            }
+            throw error("Expected , or }");
+        }
+
+        private Object value() {
+            char c = peek();
+            if (c == '"') {
+                return string();
+            } else if (literal("null")) {
+                return null;
+            } else if (literal("true")) {
+                return Boolean.TRUE;
+            } else if (literal("false")) {
+                return Boolean.FALSE;
+            }
+            int start = position;
+            double value = number();
+            String text = json.substring(start, position);
+            if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+                return value;
+            }
+            long integer = Long.parseLong(text);
+            return integer == (int) integer ? (Object) (int) integer : (Object) integer;
+        }
+
+        private double number() {
+            int start = position;
+            while (position < json.length() && "+-.eE0123456789".indexOf(json.charAt(position)) >= 0) {
+                position++;
+            }
+            if (start == position) {
+                throw error("Expected a number");
+            }
+            return Double.parseDouble(json.substring(start, position));
+        }
+
+        private String string() {
+            if (literal("null")) {
+                return null;
+            }
+            expect('"');
+            StringBuilder value = null;
+            int start = position;
+            while (true) {
+                char c = peek();
+                position++;
+                if (c == '"') {
+                    return value == null ? json.substring(start, position - 1) : value.append(json, start, position - 1).toString();
+                }
+                if (c == '\\') {
+                    if (value == null) {
+                        value = new StringBuilder();
+                    }
+                    value.append(json, start, position - 1);
+                    char escaped = peek();
+                    position++;
+                    switch (escaped) {
+                        case '"', '\\', '/' -> value.append(escaped);
+                        case 'n' -> value.append('\n');
+                        case 'r' -> value.append('\r');
+                        case 't' -> value.append('\t');
+                        case 'b' -> value.append('\b');
+                        case 'f' -> value.append('\f');
+                        case 'u' -> {
+                            if (position + 4 > json.length()) {
+                                throw error("Truncated escape");
+                            }
+                            value.append((char) Integer.parseInt(json, position, position + 4, 16));
+                            position += 4;
+                        }
+                        default -> throw error("Unknown escape \\" + escaped);
+                    }
+                    start = position;
+                }
+            }
+        }
+
+        private boolean literal(String literal) {
+            if (json.startsWith(literal, position)) {
+                position += literal.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char expected) {
+            if (peek() != expected) {
+                throw error("Expected " + expected);
+            }
+            position++;
+        }
+
+        private char peek() {
+            if (position >= json.length()) {
+                throw error("Unexpected end");
+            }
+            return json.charAt(position);
+        }
+
+        private IllegalArgumentException unknown(String field) {
+            return error("Unknown field " + field);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + position + " of " + json);
+        }
+    }
+}
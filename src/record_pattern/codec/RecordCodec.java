@@ -0,0 +1,101 @@
+package record_pattern.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   <b> ** Binary codec for records ** </b>
+ * </p>
+ * <p>
+ *   Writes records straight into a {@link ByteBuffer} and reads them back , using a layout derived once per record type
+ *   from {@link Class#getRecordComponents()} , see {@link RecordLayout}. Nested records like
+ *   <code>Parent(Child c , String parentId)</code> are written inline , components declared as <code>Object</code> or an
+ *   interface , like the ones of <code>Pair</code> , carry a tag with the type of their value.
+ * </p>
+ * <p>
+ *   Every record written is preceded by the id of its type , the position of the type in {@link #of(Class[])}. Only
+ *   those types , and the record types of their components , are ever instantiated when reading , an unknown id fails
+ *   instead of loading a class named by the input. Writer and reader must register the same types in the same order.
+ * </p>
+ * <p>
+ *   A buffer too small for the record throws a {@link java.nio.BufferOverflowException} , the position of the buffer is
+ *   then undefined. Truncated input throws a {@link java.nio.BufferUnderflowException} and corrupt input an
+ *   {@link IllegalArgumentException}. A codec is thread safe , buffers are not.
+ * </p>
+ *
+ * Example : <code>RecordCodec.of(Person.class , Parent.class).write(new Person("Suraj" , 25) , buffer)</code>
+ */
+
+public final class RecordCodec {
+
+    private final List<Class<? extends Record>> types;
+    private final Map<Class<?>, Integer> ids = new HashMap<>();
+
+    private RecordCodec(List<Class<? extends Record>> types) {
+        this.types = types;
+        for (int i = 0; i < types.size(); i++) {
+            // builds the layout now , so an unsupported record fails here and not on its first write
+            RecordLayout.of(types.get(i));
+            ids.put(types.get(i), i);
+        }
+    }
+
+    /**
+     * @param types record types written at the top level or in <code>Object</code> components
+     * @throws IllegalArgumentException if a type has a component of an unsupported type
+     */
+    @SafeVarargs
+    public static RecordCodec of(Class<? extends Record>... types) {
+        List<Class<? extends Record>> registered = new ArrayList<>(types.length);
+        for (Class<? extends Record> type : types) {
+            registered.add(type);
+        }
+        return new RecordCodec(List.copyOf(registered));
+    }
+
+    /**
+     * Writes the type id of the record and its components at the position of the buffer.
+     *
+     * @throws IllegalArgumentException if the type of the record was not registered
+     */
+    public void write(Record record, ByteBuffer buffer) {
+        writeTyped(record, buffer);
+    }
+
+    /**
+     * Reads a record written by {@link #write(Record, ByteBuffer)}.
+     */
+    public Record read(ByteBuffer buffer) {
+        int id = buffer.getShort() & 0xFFFF;
+        if (id >= types.size()) {
+            throw new IllegalArgumentException("Unknown type id " + id + " , " + types.size() + " types are registered");
+        }
+        return RecordLayout.of(types.get(id)).read(buffer, this);
+    }
+
+    /**
+     * Reads a record of the expected type.
+     *
+     * @throws IllegalArgumentException if the buffer holds a record of another type
+     */
+    public <R extends Record> R read(ByteBuffer buffer, Class<R> type) {
+        Record record = read(buffer);
+        if (!type.isInstance(record)) {
+            throw new IllegalArgumentException("Expected a " + type.getName() + " but read a " + record.getClass().getName());
+        }
+        return type.cast(record);
+    }
+
+    void writeTyped(Record record, ByteBuffer buffer) {
+        Integer id = ids.get(record.getClass());
+        if (id == null) {
+            throw new IllegalArgumentException(record.getClass().getName() + " is not registered , registered types : " + types);
+        }
+        buffer.putShort(id.shortValue());
+        RecordLayout.of(record.getClass()).write(record, buffer, this);
+    }
+}
@@ -0,0 +1,290 @@
+package record_pattern.codec;
+
+import benchmark.BenchMarkHarness;
+import pattern_matching_with_switch.Hdm;
+import record_pattern.Child;
+import record_pattern.Pair;
+import record_pattern.Parent;
+import record_pattern.Person;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>
+ *   <b> ** Encoding records : binary codec vs Java serialization vs hand-written JSON ** </b>
+ * </p>
+ * <p>
+ *   Encodes and decodes <code>records</code> random records of one type with :
+ *   <ul>
+ *       <li><code>codec</code>         : {@link RecordCodec} , into a reused {@link ByteBuffer}</li>
+ *       <li><code>serialization</code> : an <code>ObjectOutputStream</code> per record , like a cache or a queue storing
+ *           one value at a time</li>
+ *       <li><code>json</code>          : {@link JsonBaseline} , a writer and a parser per type , to UTF-8 bytes</li>
+ *   </ul>
+ *   Records :
+ *   <ul>
+ *       <li><code>person</code> : <code>Person(String name , int age)</code></li>
+ *       <li><code>parent</code> : <code>Parent(Child c , String parentId)</code> , a nested record</li>
+ *       <li><code>pair</code>   : <code>Pair(Object s1 , Object s2)</code> holding a string and an <code>Integer</code></li>
+ *       <li><code>hdm</code>    : <code>Hdm(int id , String name)</code></li>
+ *   </ul>
+ *   Every format is checked to decode what it encoded before measuring. The report has the time and the bytes allocated
+ *   per encoded and decoded record and the size of an encoded record.
+ * </p>
+ * <p>
+ *   Parameters (<code>key=value</code>) :
+ *   <ul>
+ *       <li><code>formats</code>         : comma separated list of <code>codec</code> , <code>serialization</code> , <code>json</code></li>
+ *       <li><code>records</code>         : comma separated list of <code>person</code> , <code>parent</code> , <code>pair</code> , <code>hdm</code></li>
+ *       <li><code>count</code>           : distinct records encoded in a loop</li>
+ *       <li><code>warmups</code>         : warmup iterations</li>
+ *       <li><code>iterations</code>      : measurement iterations</li>
+ *       <li><code>iterationMillis</code> : duration of an iteration</li>
+ *       <li><code>forks</code>           : forked JVMs per configuration , <code>0</code> runs in the current JVM</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -cp out record_pattern.codec.RecordCodecBenchMark formats=codec,json records=parent</code>
+ */
+
+public class RecordCodecBenchMark {
+
+    private static final RecordCodec CODEC = RecordCodec.of(Person.class, Parent.class, Pair.class, Hdm.class);
+
+    /** Keeps the JIT from dropping encoded or decoded records whose result is otherwise unused. */
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("formats", "codec,serialization,json");
+        defaults.put("records", "person,parent,pair,hdm");
+        defaults.put("count", "1024");
+        defaults.put("warmups", "3");
+        defaults.put("iterations", "5");
+        defaults.put("iterationMillis", "500");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> formats = BenchMarkHarness.csv(params.get("formats"));
+        List<String> kinds = BenchMarkHarness.csv(params.get("records"));
+        int count = Integer.parseInt(params.get("count"));
+        int warmups = Integer.parseInt(params.get("warmups"));
+        int iterations = Integer.parseInt(params.get("iterations"));
+        long iterationNanos = Long.parseLong(params.get("iterationMillis")) * 1_000_000;
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String format : formats) {
+                for (String kind : kinds) {
+                    for (int fork = 1; fork <= forks; fork++) {
+                        Map<String, String> childParams = new LinkedHashMap<>(params);
+                        childParams.put("formats", format);
+                        childParams.put("records", kind);
+                        int exitCode = BenchMarkHarness.fork(RecordCodecBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+                        if (exitCode != 0) {
+                            System.out.println("format=" + format + " record=" + kind + " failed with exit code " + exitCode);
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        for (String format : formats) {
+            for (String kind : kinds) {
+                Record[] records = records(kind, count, new Random(42));
+                Class<? extends Record> type = records[0].getClass();
+                Format encoder = format(format);
+                byte[][] encoded = new byte[records.length][];
+                long totalSize = 0;
+                for (int i = 0; i < records.length; i++) {
+                    encoded[i] = encoder.encode(records[i]);
+                    totalSize += encoded[i].length;
+                    Record decoded = encoder.decode(encoded[i], type);
+                    if (!records[i].equals(decoded)) {
+                        throw new IllegalStateException(format + " decoded " + records[i] + " as " + decoded);
+                    }
+                }
+
+                for (int i = 0; i < warmups; i++) {
+                    runEncode(encoder, records, iterationNanos);
+                    runDecode(encoder, encoded, type, iterationNanos);
+                }
+                double[] encode = new double[2];
+                double[] decode = new double[2];
+                for (int i = 0; i < iterations; i++) {
+                    add(encode, runEncode(encoder, records, iterationNanos));
+                    add(decode, runDecode(encoder, encoded, type, iterationNanos));
+                }
+                System.out.printf("format=%-13s record=%-6s encode=%8.1f ns/op %7.1f B/op decode=%8.1f ns/op %7.1f B/op size=%6.1f B/record%n",
+                        format, kind, encode[0] / iterations, encode[1] / iterations,
+                        decode[0] / iterations, decode[1] / iterations, (double) totalSize / records.length);
+            }
+        }
+    }
+
+    /**
+     * A way to turn a record into bytes and back.
+     */
+    private interface Format {
+
+        /**
+         * Encodes without copying the bytes out when the format allows it , the returned array is only used to check and
+         * decode.
+         */
+        byte[] encode(Record record);
+
+        /**
+         * @return the bytes the measured encoding produced , for formats writing into a buffer its position
+         */
+        int encodeMeasured(Record record);
+
+        Record decode(byte[] bytes, Class<? extends Record> type);
+    }
+
+    private static Format format(String format) {
+        return switch (format) {
+            case "codec" -> new Format() {
+                private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+                @Override
+                public byte[] encode(Record record) {
+                    encodeMeasured(record);
+                    return Arrays.copyOf(buffer.array(), buffer.position());
+                }
+
+                @Override
+                public int encodeMeasured(Record record) {
+                    buffer.clear();
+                    CODEC.write(record, buffer);
+                    return buffer.position();
+                }
+
+                @Override
+                public Record decode(byte[] bytes, Class<? extends Record> type) {
+                    return CODEC.read(ByteBuffer.wrap(bytes), type);
+                }
+            };
+            case "serialization" -> new Format() {
+                @Override
+                public byte[] encode(Record record) {
+                    try {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                            output.writeObject(record);
+                        }
+                        return bytes.toByteArray();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public int encodeMeasured(Record record) {
+                    return encode(record).length;
+                }
+
+                @Override
+                public Record decode(byte[] bytes, Class<? extends Record> type) {
+                    try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        return type.cast(input.readObject());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (ClassNotFoundException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            case "json" -> new Format() {
+                @Override
+                public byte[] encode(Record record) {
+                    return JsonBaseline.write(record);
+                }
+
+                @Override
+                public int encodeMeasured(Record record) {
+                    return encode(record).length;
+                }
+
+                @Override
+                public Record decode(byte[] bytes, Class<? extends Record> type) {
+                    return JsonBaseline.read(bytes, type);
+                }
+            };
+            default -> throw new IllegalArgumentException("Unknown format : " + format);
+        };
+    }
+
+    /**
+     * Generates <code>count</code> records with random contents , a few names with non ASCII characters.
+     */
+    private static Record[] records(String kind, int count, Random random) {
+        Record[] records = new Record[count];
+        for (int i = 0; i < count; i++) {
+            String name = (random.nextInt(10) == 0 ? "Zoë-" : "name-") + random.nextInt(100_000);
+            records[i] = switch (kind) {
+                case "person" -> new Person(name, random.nextInt(100));
+                case "parent" -> new Parent(new Child(String.valueOf(random.nextInt(100_000))), name);
+                case "pair" -> new Pair(name, random.nextInt(1_000_000));
+                case "hdm" -> new Hdm(random.nextInt(1_000_000), name);
+                default -> throw new IllegalArgumentException("Unknown record : " + kind);
+            };
+        }
+        return records;
+    }
+
+    private static void add(double[] total, double[] iteration) {
+        total[0] += iteration[0];
+        total[1] += iteration[1];
+    }
+
+    /**
+     * Encodes the records until <code>iterationNanos</code> passed.
+     *
+     * @return nanos and bytes allocated per record
+     */
+    private static double[] runEncode(Format format, Record[] records, long iterationNanos) {
+        long encoded = 0;
+        long allocated = BenchMarkHarness.allocatedBytes();
+        long begin = System.nanoTime();
+        long end;
+        do {
+            for (Record record : records) {
+                sink += format.encodeMeasured(record);
+            }
+            encoded += records.length;
+        } while ((end = System.nanoTime()) - begin < iterationNanos);
+        return new double[]{(double) (end - begin) / encoded, (double) (BenchMarkHarness.allocatedBytes() - allocated) / encoded};
+    }
+
+    /**
+     * Decodes the records until <code>iterationNanos</code> passed.
+     *
+     * @return nanos and bytes allocated per record
+     */
+    private static double[] runDecode(Format format, byte[][] encoded, Class<? extends Record> type, long iterationNanos) {
+        long decoded = 0;
+        long allocated = BenchMarkHarness.allocatedBytes();
+        long begin = System.nanoTime();
+        long end;
+        do {
+            for (byte[] bytes : encoded) {
+                sink += format.decode(bytes, type).hashCode();
+            }
+            decoded += encoded.length;
+        } while ((end = System.nanoTime()) - begin < iterationNanos);
+        return new double[]{(double) (end - begin) / decoded, (double) (BenchMarkHarness.allocatedBytes() - allocated) / decoded};
+    }
+}
@@ -0,0 +1,86 @@
+package record_pattern.codec;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *   The binary layout of a record type : its components in declaration order , each with its {@link FieldCodec} , and
+ *   its canonical constructor as a {@link MethodHandle} taking the components as an <code>Object[]</code>.
+ * </p>
+ * <p>
+ *   {@link Class#getRecordComponents()} is read once per type , layouts are cached in a {@link ClassValue} , so encoding
+ *   a record only calls the cached method handles , no reflection.
+ * </p>
+ */
+final class RecordLayout {
+
+    private static final ClassValue<RecordLayout> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected RecordLayout computeValue(Class<?> type) {
+            return new RecordLayout(type);
+        }
+    };
+
+    final Class<?> type;
+    private final FieldCodec[] fields;
+    private final MethodHandle constructor;
+
+    private RecordLayout(Class<?> type) {
+        if (!type.isRecord()) {
+            throw new IllegalArgumentException(type.getName() + " is not a record");
+        }
+        this.type = type;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            RecordComponent[] components = type.getRecordComponents();
+            Class<?>[] componentTypes = new Class<?>[components.length];
+            this.fields = new FieldCodec[components.length];
+            for (int i = 0; i < components.length; i++) {
+                componentTypes[i] = components[i].getType();
+                fields[i] = FieldCodec.of(components[i], lookup);
+            }
+            this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class, componentTypes))
+                    .asSpreader(Object[].class, components.length)
+                    .asType(MethodType.methodType(Record.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Can not access the components of " + type.getName(), e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the type is not a record or has a component of an unsupported type
+     */
+    static RecordLayout of(Class<?> type) {
+        return LAYOUTS.get(type);
+    }
+
+    void write(Record record, ByteBuffer buffer, RecordCodec codec) {
+        try {
+            for (FieldCodec field : fields) {
+                field.write(record, buffer, codec);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can not write " + type.getName(), e);
+        }
+    }
+
+    Record read(ByteBuffer buffer, RecordCodec codec) {
+        Object[] components = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            components[i] = fields[i].read(buffer, codec);
+        }
+        try {
+            return (Record) constructor.invokeExact(components);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can not create " + type.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package record_pattern.columnar;
+
+/**
+ * Bulk predicates over an <code>int</code> column , writing their result into the words of a {@link SelectionBitmap}.
+ */
+interface ColumnKernels {
+
+    /**
+     * Vector kernels are used if the <code>jdk.incubator.vector</code> module is present
+     * (<code>--add-modules jdk.incubator.vector</code>) unless <code>-DpersonTable.vector=false</code>.
+     */
+    boolean VECTOR_ENABLED = !"false".equals(System.getProperty("personTable.vector"))
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /**
+     * @return the fastest kernels available in this JVM
+     */
+    static ColumnKernels best() {
+        return VECTOR_ENABLED ? new VectorColumnKernels() : new ScalarColumnKernels();
+    }
+
+    /**
+     * @return the name of the implementation , for reports
+     */
+    String name();
+
+    /**
+     * Sets the bit of every row <code>i &lt; size</code> with <code>from &lt;= column[i] &lt;= to</code>.
+     *
+     * @param selection cleared words , see {@link SelectionBitmap#newWords(int)}
+     */
+    void between(int[] column, int size, int from, int to, long[] selection);
+}
@@ -0,0 +1,159 @@
+package record_pattern.columnar;
+
+import record_pattern.Person;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   <b> ** Columnar Person table ** </b>
+ * </p>
+ * <p>
+ *   {@link record_pattern.RecordPattern} filters one {@link Person} at a time , every record being an object of its own with
+ *   a header and a reference to a <code>String</code> , so scanning millions of them chases pointers all over the heap.
+ *   This table stores the components of the records column by column instead :
+ *   <ul>
+ *       <li><b>age</b>  : an <code>int[]</code></li>
+ *       <li><b>name</b> : an <code>int[]</code> of codes into a dictionary holding every distinct name once</li>
+ *   </ul>
+ *   A predicate is evaluated over a whole column in one call and returns a {@link SelectionBitmap} , a filter on the age
+ *   reads 4 bytes per row from a single array. The predicates use the incubator Vector API when the JVM runs with
+ *   <code>--add-modules jdk.incubator.vector</code> and plain loops otherwise , see {@link #kernels()}.
+ * </p>
+ * <p>
+ *   Rows are appended with {@link #add(Person)} , the table is not thread safe while it is filled.
+ * </p>
+ *
+ * Example : <code>table.ageGreaterThan(18).and(table.nameEquals("Suraj")).cardinality()</code>
+ */
+
+public final class PersonTable {
+
+    private final ColumnKernels kernels;
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private int[] ages;
+    private int[] nameCodes;
+    private int size;
+
+    public PersonTable() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity rows the table holds before growing
+     */
+    public PersonTable(int capacity) {
+        this(capacity, ColumnKernels.best());
+    }
+
+    PersonTable(int capacity, ColumnKernels kernels) {
+        this.kernels = kernels;
+        this.ages = new int[Math.max(capacity, 16)];
+        this.nameCodes = new int[ages.length];
+    }
+
+    public static PersonTable of(Collection<Person> people) {
+        PersonTable table = new PersonTable(people.size());
+        people.forEach(table::add);
+        return table;
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @return the row of the person
+     */
+    public int add(Person person) {
+        if (size == ages.length) {
+            ages = Arrays.copyOf(ages, size * 2);
+            nameCodes = Arrays.copyOf(nameCodes, size * 2);
+        }
+        ages[size] = person.age();
+        nameCodes[size] = codes.computeIfAbsent(person.name(), name -> {
+            dictionary.add(name);
+            return dictionary.size() - 1;
+        });
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of distinct names , every one stored once
+     */
+    public int distinctNames() {
+        return dictionary.size();
+    }
+
+    public Person get(int row) {
+        return new Person(name(row), age(row));
+    }
+
+    public int age(int row) {
+        return ages[checkRow(row)];
+    }
+
+    public String name(int row) {
+        return dictionary.get(nameCodes[checkRow(row)]);
+    }
+
+    public SelectionBitmap ageGreaterThan(int age) {
+        return age == Integer.MAX_VALUE ? empty() : ageBetween(age + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the rows with <code>from &lt;= age &lt;= to</code>
+     */
+    public SelectionBitmap ageBetween(int from, int to) {
+        long[] selection = SelectionBitmap.newWords(size);
+        kernels.between(ages, size, from, to, selection);
+        return new SelectionBitmap(selection, size);
+    }
+
+    /**
+     * Looks the name up in the dictionary once and compares codes , a name the table does not hold selects no row
+     * without scanning.
+     */
+    public SelectionBitmap nameEquals(String name) {
+        Integer code = codes.get(name);
+        if (code == null) {
+            return empty();
+        }
+        long[] selection = SelectionBitmap.newWords(size);
+        kernels.between(nameCodes, size, code, code, selection);
+        return new SelectionBitmap(selection, size);
+    }
+
+    /**
+     * @return the selected rows as records
+     */
+    public List<Person> select(SelectionBitmap selection) {
+        return selection.rows().mapToObj(this::get).toList();
+    }
+
+    /**
+     * @return the kernels evaluating the predicates , <code>scalar</code> or <code>vector-&lt;lanes&gt;x&lt;bits&gt;</code>
+     */
+    public String kernels() {
+        return kernels.name();
+    }
+
+    private SelectionBitmap empty() {
+        return new SelectionBitmap(SelectionBitmap.newWords(size), size);
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,173 @@
+package record_pattern.columnar;
+
+import benchmark.BenchMarkHarness;
+import record_pattern.Person;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>
+ *   <b> ** Filtering Person records : List stream vs columnar table ** </b>
+ * </p>
+ * <p>
+ *   Runs the same queries over <code>rows</code> random people with :
+ *   <ul>
+ *       <li><code>stream</code> : a <code>List&lt;Person&gt;</code> stream filtered with the record pattern of
+ *           {@link record_pattern.RecordPattern} , <code>Person(var name , var age) &amp;&amp; age &gt; 18</code></li>
+ *       <li><code>scalar</code> : a {@link PersonTable} with the scalar kernels</li>
+ *       <li><code>vector</code> : a {@link PersonTable} with the Vector API kernels , its fork runs with
+ *           <code>--add-modules jdk.incubator.vector</code></li>
+ *   </ul>
+ *   Queries :
+ *   <ul>
+ *       <li><code>adults</code>     : <code>age &gt; 18</code></li>
+ *       <li><code>range-name</code> : <code>30 &lt;= age &lt;= 40</code> and a given name , two bitmaps and-ed for the table</li>
+ *   </ul>
+ *   Ages are uniform in [0 , 100) and names drawn from <code>names</code> distinct values. The report has the time per
+ *   query , rows scanned per second , the selected rows , which must be the same for every strategy , and the heap
+ *   retained per row by the list or the table.
+ * </p>
+ * <p>
+ *   Parameters (<code>key=value</code>) :
+ *   <ul>
+ *       <li><code>strategies</code> : comma separated list of <code>stream</code> , <code>scalar</code> , <code>vector</code></li>
+ *       <li><code>queries</code>    : comma separated list of <code>adults</code> , <code>range-name</code></li>
+ *       <li><code>rows</code>       : comma separated row counts</li>
+ *       <li><code>names</code>      : distinct names</li>
+ *       <li><code>warmups</code>    : warmup iterations</li>
+ *       <li><code>iterations</code> : measurement iterations</li>
+ *       <li><code>forks</code>      : forked JVMs per configuration , <code>0</code> runs in the current JVM</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -Xmx3g -cp out record_pattern.columnar.PersonTableBenchMark rows=1000000,10000000</code>
+ */
+
+public class PersonTableBenchMark {
+
+    private static final String VECTOR_MODULE = "--add-modules=jdk.incubator.vector";
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("strategies", "stream,scalar,vector");
+        defaults.put("queries", "adults,range-name");
+        defaults.put("rows", "1000000,10000000");
+        defaults.put("names", "10000");
+        defaults.put("warmups", "20");
+        defaults.put("iterations", "10");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> strategies = BenchMarkHarness.csv(params.get("strategies"));
+        List<String> queries = BenchMarkHarness.csv(params.get("queries"));
+        List<Integer> rowCounts = BenchMarkHarness.csvInts(params.get("rows"));
+        int names = Integer.parseInt(params.get("names"));
+        int warmups = Integer.parseInt(params.get("warmups"));
+        int iterations = Integer.parseInt(params.get("iterations"));
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String strategy : strategies) {
+                for (int rows : rowCounts) {
+                    for (int fork = 1; fork <= forks; fork++) {
+                        Map<String, String> childParams = new LinkedHashMap<>(params);
+                        childParams.put("strategies", strategy);
+                        childParams.put("rows", String.valueOf(rows));
+                        List<String> jvmArgs = strategy.equals("vector") ? List.of(VECTOR_MODULE) : List.of();
+                        int exitCode = BenchMarkHarness.fork(PersonTableBenchMark.class, jvmArgs, BenchMarkHarness.toArgs(childParams));
+                        if (exitCode != 0) {
+                            System.out.println("strategy=" + strategy + " rows=" + rows + " failed with exit code " + exitCode);
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        for (String strategy : strategies) {
+            for (int rows : rowCounts) {
+                if (strategy.equals("vector") && !ColumnKernels.VECTOR_ENABLED) {
+                    System.out.println("strategy=vector needs " + VECTOR_MODULE + " , skipped");
+                    continue;
+                }
+                BenchMarkHarness.settle();
+                long heapBefore = usedHeap();
+                Dataset dataset = dataset(strategy, rows, names);
+                BenchMarkHarness.settle();
+                double heapPerRow = (double) (usedHeap() - heapBefore) / rows;
+                String label = dataset.table() != null ? dataset.table().kernels() : strategy;
+
+                for (String query : queries) {
+                    long selected = 0;
+                    for (int i = 0; i < warmups; i++) {
+                        selected = run(dataset, query);
+                    }
+                    long begin = System.nanoTime();
+                    for (int i = 0; i < iterations; i++) {
+                        selected = run(dataset, query);
+                    }
+                    double nanosPerQuery = (double) (System.nanoTime() - begin) / iterations;
+                    System.out.printf("strategy=%-13s query=%-10s rows=%-9d time=%9.3f ms/query throughput=%9.1f Mrows/s selected=%-9d heap=%6.1f B/row%n",
+                            label, query, rows, nanosPerQuery / 1e6, rows / nanosPerQuery * 1e3, selected, heapPerRow);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param people list of the <code>stream</code> strategy
+     * @param table  table of the <code>scalar</code> and <code>vector</code> strategies
+     * @param name   name of the <code>range-name</code> query
+     */
+    private record Dataset(List<Person> people, PersonTable table, String name) {
+    }
+
+    /**
+     * Generates the same people for every strategy , every name a <code>String</code> of its own like when parsed from
+     * input.
+     */
+    private static Dataset dataset(String strategy, int rows, int names) {
+        Random random = new Random(42);
+        List<Person> people = strategy.equals("stream") ? new ArrayList<>(rows) : null;
+        PersonTable table = switch (strategy) {
+            case "stream" -> null;
+            case "scalar" -> new PersonTable(rows, new ScalarColumnKernels());
+            case "vector" -> new PersonTable(rows, new VectorColumnKernels());
+            default -> throw new IllegalArgumentException("Unknown strategy : " + strategy);
+        };
+        for (int i = 0; i < rows; i++) {
+            Person person = new Person("name-" + random.nextInt(names), random.nextInt(100));
+            if (people != null) {
+                people.add(person);
+            } else {
+                table.add(person);
+            }
+        }
+        return new Dataset(people, table, "name-" + (names / 2));
+    }
+
+    private static long run(Dataset dataset, String query) {
+        PersonTable table = dataset.table();
+        return switch (query) {
+            case "adults" -> table != null
+                    ? table.ageGreaterThan(18).cardinality()
+                    : dataset.people().stream().filter(p -> p instanceof Person(var name, var age) && age > 18).count();
+            case "range-name" -> table != null
+                    ? table.ageBetween(30, 40).and(table.nameEquals(dataset.name())).cardinality()
+                    : dataset.people().stream()
+                    .filter(p -> p instanceof Person(var name, var age) && age >= 30 && age <= 40 && name.equals(dataset.name()))
+                    .count();
+            default -> throw new IllegalArgumentException("Unknown query : " + query);
+        };
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,33 @@
+package record_pattern.columnar;
+
+/**
+ * Kernels written as plain loops , one row at a time , used when the Vector API is not available. The test is branch
+ * free arithmetic , so the rows are packed into their word without mispredictions whatever the selectivity and whatever
+ * branch profile an earlier query left.
+ */
+final class ScalarColumnKernels implements ColumnKernels {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public void between(int[] column, int size, int from, int to, long[] selection) {
+        if (from > to) {
+            return;
+        }
+        // from <= value <= to is (value - from) <= (to - from) unsigned , computed without a comparison : the difference
+        // of the two as longs is negative , its sign bit set , exactly when the value is out of range
+        long width = (to - from) & 0xFFFF_FFFFL;
+        for (int base = 0; base < size; base += 64) {
+            int rows = Math.min(64, size - base);
+            long word = 0;
+            for (int bit = 0; bit < rows; bit++) {
+                long offset = (column[base + bit] - from) & 0xFFFF_FFFFL;
+                word |= (((width - offset) >>> 63) ^ 1L) << bit;
+            }
+            selection[base >>> 6] = word;
+        }
+    }
+}
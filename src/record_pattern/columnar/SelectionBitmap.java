@@ -0,0 +1,97 @@
+package record_pattern.columnar;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ *   The rows of a {@link PersonTable} selected by a predicate , one bit per row , bit <code>i % 64</code> of word
+ *   <code>i / 64</code> for row <code>i</code>. Bitmaps of the same table are combined with {@link #and(SelectionBitmap)} ,
+ *   {@link #or(SelectionBitmap)} and {@link #andNot(SelectionBitmap)} , 64 rows per operation , without touching the
+ *   columns again.
+ * </p>
+ */
+public final class SelectionBitmap {
+
+    private final long[] words;
+    private final int size;
+
+    /**
+     * @param words bits of the selected rows , bits past <code>size</code> must be clear
+     * @param size  number of rows of the table
+     */
+    SelectionBitmap(long[] words, int size) {
+        this.words = words;
+        this.size = size;
+    }
+
+    static long[] newWords(int size) {
+        return new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * @return number of rows of the table , selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean get(int row) {
+        return (words[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @return number of selected rows
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public SelectionBitmap and(SelectionBitmap other) {
+        long[] result = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = words[i] & other.words[i];
+        }
+        return new SelectionBitmap(result, size);
+    }
+
+    public SelectionBitmap or(SelectionBitmap other) {
+        long[] result = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = words[i] | other.words[i];
+        }
+        return new SelectionBitmap(result, size);
+    }
+
+    public SelectionBitmap andNot(SelectionBitmap other) {
+        long[] result = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = words[i] & ~other.words[i];
+        }
+        return new SelectionBitmap(result, size);
+    }
+
+    /**
+     * @return the selected rows in ascending order
+     */
+    public IntStream rows() {
+        return IntStream.range(0, words.length).flatMap(index -> {
+            long word = words[index];
+            int[] rows = new int[Long.bitCount(word)];
+            for (int i = 0; word != 0; i++) {
+                rows[i] = (index << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+            return Arrays.stream(rows);
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "SelectionBitmap[" + cardinality() + " of " + size + " rows]";
+    }
+}
@@ -0,0 +1,43 @@
+package record_pattern.columnar;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ *   Kernels on the incubator Vector API : a row of every lane of the widest vector of the CPU (16 ints with AVX-512) is
+ *   compared at once and the comparison mask is written as bits of the selection with {@link VectorMask#toLong()}.
+ * </p>
+ * <p>
+ *   Only loaded when {@link ColumnKernels#VECTOR_ENABLED} , the <code>jdk.incubator.vector</code> module is not resolved by
+ *   default.
+ * </p>
+ */
+final class VectorColumnKernels implements ColumnKernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.length() + "x" + SPECIES.elementSize();
+    }
+
+    @Override
+    public void between(int[] column, int size, int from, int to, long[] selection) {
+        // lanes is a power of two of at most 16 , a vector never straddles two words
+        int lanes = SPECIES.length();
+        int upperBound = SPECIES.loopBound(size);
+        int row = 0;
+        for (; row < upperBound; row += lanes) {
+            IntVector values = IntVector.fromArray(SPECIES, column, row);
+            VectorMask<Integer> selected = values.compare(VectorOperators.GE, from).and(values.compare(VectorOperators.LE, to));
+            selection[row >>> 6] |= selected.toLong() << (row & 63);
+        }
+        for (; row < size; row++) {
+            int value = column[row];
+            selection[row >>> 6] |= (value >= from & value <= to ? 1L : 0L) << (row & 63);
+        }
+    }
+}
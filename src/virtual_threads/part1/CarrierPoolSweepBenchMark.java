@@ -0,0 +1,102 @@
+package virtual_threads.part1;
+
+import benchmark.BenchMarkHarness;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   <b> ** Carrier pool sizing sweep for the virtual thread scheduler ** </b>
+ * </p>
+ * <p>
+ *   As seen in {@link VirtualThreadsExample} virtual threads are mounted on the carrier threads of a ForkJoinPool. By
+ *   default its parallelism is the number of available processors and it can grow up to 256 carriers to compensate for
+ *   pinned threads. Both can be changed with the system properties :
+ *   <ul>
+ *       <li><code>jdk.virtualThreadScheduler.parallelism</code></li>
+ *       <li><code>jdk.virtualThreadScheduler.maxPoolSize</code></li>
+ *   </ul>
+ *   Since they are read once when the scheduler is created , every setting is run in its own forked JVM executing
+ *   {@link PlatformVsVirtualThreadModelConcurrencyBenchMark} with virtual threads for each workload.
+ * </p>
+ * <p>
+ *   A workload is written as <code>sleepMillis:cpuMicros</code> , the blocking time and CPU time of every task. The default
+ *   set covers a pure sleep workload , a mixed one and a CPU heavy one. The result is a table with throughput and
+ *   latency percentiles per (parallelism , maxPoolSize , workload).
+ * </p>
+ * <p>
+ *   Parameters (<code>key=value</code>) :
+ *   <ul>
+ *       <li><code>parallelism</code> : comma separated carrier counts</li>
+ *       <li><code>maxPoolSize</code> : comma separated maximum pool sizes , settings below the parallelism are skipped</li>
+ *       <li><code>workloads</code>   : comma separated <code>sleepMillis:cpuMicros</code> pairs</li>
+ *       <li><code>concurrency</code> : number of concurrent tasks per run</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -cp out virtual_threads.part1.CarrierPoolSweepBenchMark parallelism=2,4,8,16 workloads=100:0,20:500</code>
+ */
+
+public class CarrierPoolSweepBenchMark {
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("parallelism", "1,2,4," + Runtime.getRuntime().availableProcessors());
+        defaults.put("maxPoolSize", "256");
+        defaults.put("workloads", "100:0,20:200,1:1000");
+        defaults.put("concurrency", "10000");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<Integer> parallelismLevels = BenchMarkHarness.csvInts(params.get("parallelism"));
+        List<Integer> maxPoolSizes = BenchMarkHarness.csvInts(params.get("maxPoolSize"));
+        List<String> workloads = BenchMarkHarness.csv(params.get("workloads"));
+
+        List<String> rows = new ArrayList<>();
+        for (int parallelism : parallelismLevels) {
+            for (int maxPoolSize : maxPoolSizes) {
+                if (maxPoolSize < parallelism) {
+                    continue;
+                }
+                for (String workload : workloads) {
+                    String[] sleepAndCpu = workload.split(":");
+                    List<String> jvmArgs = List.of(
+                            "-Djdk.virtualThreadScheduler.parallelism=" + parallelism,
+                            "-Djdk.virtualThreadScheduler.maxPoolSize=" + maxPoolSize);
+                    List<String> benchmarkArgs = List.of(
+                            "models=virtual",
+                            "concurrency=" + params.get("concurrency"),
+                            "sleepMillis=" + sleepAndCpu[0],
+                            "cpuMicros=" + sleepAndCpu[1],
+                            "format=csv",
+                            "forks=0");
+                    System.out.println("# parallelism=" + parallelism + " maxPoolSize=" + maxPoolSize + " workload=" + workload);
+                    List<String> output = BenchMarkHarness.forkAndCapture(PlatformVsVirtualThreadModelConcurrencyBenchMark.class, jvmArgs, benchmarkArgs);
+                    rows.add(row(parallelism, maxPoolSize, workload, output.get(output.size() - 1)));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-11s %-11s %-12s %13s %12s %12s %12s %12s %12s%n",
+                "parallelism", "maxPoolSize", "workload", "tasks/s", "late p99 ms", "e2e p50 ms", "e2e p99 ms", "e2e p99.9 ms", "e2e max ms");
+        rows.forEach(System.out::println);
+    }
+
+    /**
+     * Formats one csv line of {@link PlatformVsVirtualThreadModelConcurrencyBenchMark} as a table row.
+     */
+    private static String row(int parallelism, int maxPoolSize, String workload, String csvLine) {
+        String[] columns = csvLine.split(",");
+        return String.format("%-11d %-11d %-12s %13s %12.3f %12.3f %12.3f %12.3f %12.3f",
+                parallelism, maxPoolSize, workload, columns[2],
+                micros(columns[4]), micros(columns[7]), micros(columns[8]), micros(columns[9]), micros(columns[10]));
+    }
+
+    private static double micros(String value) {
+        return Long.parseLong(value) / 1000.0;
+    }
+}
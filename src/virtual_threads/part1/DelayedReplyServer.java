@@ -0,0 +1,100 @@
+package virtual_threads.part1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *   <b> ** Delayed Reply Server ** </b>
+ * </p>
+ * <p>
+ *   A loopback server for {@link PlatformVsVirtualThreadModelConcurrencyBenchMark} , so a task blocks on a socket read
+ *   instead of a {@link Thread#sleep(Duration)}. The protocol is a single byte each way on a kept open connection :
+ *   <ul>
+ *       <li>{@link #DELAYED} : the byte is echoed after <code>delay</code></li>
+ *       <li>{@link #IMMEDIATE} : the byte is echoed right away , used to warm up a connection</li>
+ *   </ul>
+ *   Every connection is served by its own virtual thread.
+ * </p>
+ */
+
+final class DelayedReplyServer implements AutoCloseable {
+
+    static final int DELAYED = 1;
+    static final int IMMEDIATE = 0;
+
+    private final ServerSocket serverSocket;
+    private final Duration delay;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+
+    /**
+     * @param backlog length of the accept queue
+     * @param delay   time before a {@link #DELAYED} byte is echoed
+     */
+    DelayedReplyServer(int backlog, Duration delay) throws IOException {
+        this.delay = delay;
+        this.serverSocket = new ServerSocket(0, backlog, InetAddress.getLoopbackAddress());
+        this.acceptor = Thread.ofVirtual().name("delayed-reply-acceptor").start(this::acceptLoop);
+    }
+
+    InetSocketAddress address() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket connection = serverSocket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                Thread.ofVirtual().start(() -> serve(connection));
+            } catch (IOException e) {
+                // the server socket was closed
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (connection) {
+            InputStream in = connection.getInputStream();
+            OutputStream out = connection.getOutputStream();
+            int request;
+            while ((request = in.read()) >= 0) {
+                if (request == DELAYED) {
+                    Thread.sleep(delay);
+                }
+                out.write(request);
+                out.flush();
+            }
+        } catch (SocketException | InterruptedException e) {
+            // closed by the client or by close()
+        } catch (IOException e) {
+            System.err.println("Delayed reply connection failed : " + e);
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
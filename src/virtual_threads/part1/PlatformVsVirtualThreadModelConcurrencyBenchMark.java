@@ -1,15 +1,61 @@
 package virtual_threads.part1;
 
+import benchmark.BenchMarkHarness;
+import benchmark.LatencyHistogram;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.time.Duration;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-public class PlatformVsVirtualThreadModelConcurrencyBenchMark {
+/**
+ * <p>
+ *   <b> ** Concurrency : Platform vs Virtual thread model ** </b>
+ * </p>
+ * <p>
+ *   Spawns <code>concurrency</code> threads at once , each performing {@link #externalBlockingCall(long, long)} , and waits
+ *   for all of them to complete using a {@link CountDownLatch}. For every task two latencies are recorded in a
+ *   {@link LatencyHistogram} :
+ *   <ul>
+ *       <li><b>wake-up lateness</b> : how much later than requested the thread resumed after its blocking call ,
+ *           i.e. the scheduling delay of the thread model.</li>
+ *       <li><b>end-to-end</b> : from the moment the task was handed to the thread builder until it completed.</li>
+ *   </ul>
+ *   At the end the throughput and p50 / p99 / p99.9 / max of both latencies are reported for each thread model and concurrency level.
+ * </p>
+ * <p>
+ *   Parameters (<code>key=value</code>) :
+ *   <ul>
+ *       <li><code>models</code>      : comma separated list of <code>platform</code> , <code>virtual</code></li>
+ *       <li><code>concurrency</code> : comma separated number of concurrent tasks</li>
+ *       <li><code>sleepMillis</code> : duration of the blocking call</li>
+ *       <li><code>io</code>          : <code>sleep</code> blocks in {@link Thread#sleep(Duration)} , <code>socket</code> calls an
+ *           embedded {@link DelayedReplyServer} answering after <code>sleepMillis</code> and blocks on the socket read , wake-up
+ *           lateness then includes the loopback round trip. One connection per task is opened and warmed up with an
+ *           immediate round trip before the run , so the run measures blocking reads , not connects and accepts. The
+ *           time to open the connections is reported on its own.</li>
+ *       <li><code>cpuMicros</code>   : CPU bound work done by every task after the blocking call , to simulate mixed workloads</li>
+ *       <li><code>format</code>      : <code>text</code> or <code>csv</code> , the latter prints one machine readable line per run</li>
+ *       <li><code>forks</code>       : forked JVMs per configuration , <code>0</code> runs in the current JVM</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -cp out virtual_threads.part1.PlatformVsVirtualThreadModelConcurrencyBenchMark models=virtual concurrency=4000,4000000</code>
+ *
+ * @see CarrierPoolSweepBenchMark for running this benchmark against different carrier pool sizes.
+ */
 
-    private static final AtomicInteger taskCounter = new AtomicInteger(0);
-    private static final int platformThreadCount = 4000;
-    private static final int virtualThreadCount = 4_000_000;
+public class PlatformVsVirtualThreadModelConcurrencyBenchMark {
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws Exception {
 
         /**
          *  Here is a quick demonstration of how performant virtual thread model is over Platform thread model.
@@ -21,12 +67,12 @@ public class PlatformVsVirtualThreadModelConcurrencyBenchMark {
          *
          *  Observations :
          *  --------------
-         *  1. We spawn around 4000 platform threads and each thread performed {@link #externalBlockingCall()}
+         *  1. We spawn around 4000 platform threads and each thread performed {@link #externalBlockingCall(long, long)}
          *
          *     - Increasing the platform thread count above 4100 resulted in OOM error
          *     - So , in general we can say using platform threads we were able to handle 4000 avg concurrent request.
          *
-         *  2. We spwan around 1 Million virtual threads and each thread performed {@link #externalBlockingCall()}
+         *  2. We spwan around 1 Million virtual threads and each thread performed {@link #externalBlockingCall(long, long)}
          *
          *     - Even increasing virtual thread count to 6 Million , we didn't face OOM error but processing got slow.
          *     - Till 5 million virtual thread count the application ran smoothly.
@@ -36,29 +82,204 @@ public class PlatformVsVirtualThreadModelConcurrencyBenchMark {
          *   Note : The actual benefit of Virtual Thread Model will be visible in I/O intensive task like we did in the demonstration.
          */
 
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("models", "platform,virtual");
+        defaults.put("concurrency", "4000");
+        defaults.put("sleepMillis", "1000");
+        defaults.put("io", "sleep");
+        defaults.put("cpuMicros", "0");
+        defaults.put("format", "text");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> models = BenchMarkHarness.csv(params.get("models"));
+        List<Integer> concurrencyLevels = BenchMarkHarness.csvInts(params.get("concurrency"));
+        long sleepNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(params.get("sleepMillis")));
+        long cpuWorkNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(params.get("cpuMicros")));
+        String io = params.get("io");
+        if (!io.equals("sleep") && !io.equals("socket")) {
+            throw new IllegalArgumentException("Unknown io : " + io);
+        }
+        boolean csv = params.get("format").equals("csv");
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String model : models) {
+                for (int concurrency : concurrencyLevels) {
+                    for (int fork = 1; fork <= forks; fork++) {
+                        Map<String, String> childParams = new LinkedHashMap<>(params);
+                        childParams.put("models", model);
+                        childParams.put("concurrency", String.valueOf(concurrency));
+                        int exitCode = BenchMarkHarness.fork(PlatformVsVirtualThreadModelConcurrencyBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+                        if (exitCode != 0) {
+                            System.out.println("model=" + model + " concurrency=" + concurrency + " failed with exit code " + exitCode);
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        for (String model : models) {
+            for (int concurrency : concurrencyLevels) {
+                RunResult result;
+                if (io.equals("socket")) {
+                    try (DelayedReplyServer server = new DelayedReplyServer(concurrency, Duration.ofNanos(sleepNanos))) {
+                        Socket[] connections = new Socket[concurrency];
+                        try {
+                            long connectNanos = openConnections(server.address(), connections);
+                            if (!csv) {
+                                System.out.printf("model=%-8s concurrency=%-9d connect=%8.1f ms for %d warmed up connections , not part of the run%n",
+                                        model, concurrency, connectNanos / 1e6, concurrency);
+                            }
+                            result = threadSpinner(threadBuilder(model), concurrency, sleepNanos, cpuWorkNanos, connections);
+                        } finally {
+                            closeConnections(connections);
+                        }
+                    }
+                } else {
+                    result = threadSpinner(threadBuilder(model), concurrency, sleepNanos, cpuWorkNanos, null);
+                }
+                if (csv) {
+                    reportCsv(model, concurrency, result);
+                } else {
+                    report(model, concurrency, result);
+                }
+            }
+        }
+    }
+
+    private static Thread.Builder threadBuilder(String model) {
+        return switch (model) {
+            case "platform" -> Thread.ofPlatform();
+            case "virtual" -> Thread.ofVirtual();
+            default -> throw new IllegalArgumentException("Unknown thread model : " + model);
+        };
+    }
 
-          // execute one threadSpinner function at a time.
-          threadSpinner(Thread.ofPlatform() , platformThreadCount);
-          //threadSpinner(Thread.ofVirtual() , virtualThreadCount);
+    /**
+     * Opens one connection per slot of <code>connections</code> and does an immediate round trip on each , so the server
+     * has accepted it and started its handler before the run.
+     *
+     * @return time spent opening and warming up the connections in nanos
+     */
+    private static long openConnections(InetSocketAddress address, Socket[] connections) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < connections.length; i++) {
+            Socket connection = new Socket();
+            connections[i] = connection;
+            connection.setTcpNoDelay(true);
+            connection.connect(address);
+            roundTrip(connection, DelayedReplyServer.IMMEDIATE);
+        }
+        return System.nanoTime() - start;
+    }
 
-          Thread.currentThread().join();
+    private static void closeConnections(Socket[] connections) throws IOException {
+        for (Socket connection : connections) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
     }
 
-    private static void threadSpinner(Thread.Builder threadBuilderType , int threadCount) throws InterruptedException {
+    private static void roundTrip(Socket connection, int request) throws IOException {
+        connection.getOutputStream().write(request);
+        InputStream in = connection.getInputStream();
+        if (in.read() < 0) {
+            throw new EOFException("Connection closed before the reply");
+        }
+    }
+
+    /**
+     * Starts <code>threadCount</code> threads each performing a blocking call and waits for all of them to complete.
+     *
+     * @param connections when not <code>null</code> , task <code>i</code> blocks on a read of <code>connections[i]</code>
+     *                    instead of sleeping
+     */
+    private static RunResult threadSpinner(Thread.Builder threadBuilderType, int threadCount, long sleepNanos, long cpuWorkNanos,
+                                           Socket[] connections) throws InterruptedException {
+
+        CountDownLatch completed = new CountDownLatch(threadCount);
+        LatencyHistogram wakeUpLateness = new LatencyHistogram();
+        LatencyHistogram endToEnd = new LatencyHistogram();
+
+        long begin = System.nanoTime();
         for (int i = 0; i < threadCount; i++) {
-            threadBuilderType.start(PlatformVsVirtualThreadModelConcurrencyBenchMark::externalBlockingCall);
+            long submittedAt = System.nanoTime();
+            Socket connection = connections != null ? connections[i] : null;
+            threadBuilderType.start(() -> {
+                try {
+                    wakeUpLateness.record(externalBlockingCall(sleepNanos, cpuWorkNanos, connection));
+                } finally {
+                    endToEnd.record(System.nanoTime() - submittedAt);
+                    completed.countDown();
+                }
+            });
         }
+        long allStarted = System.nanoTime();
+        completed.await();
+        long end = System.nanoTime();
+        return new RunResult(allStarted - begin, end - begin, wakeUpLateness, endToEnd);
     }
 
     /**
-     * This acts as a external n/w call
+     * This acts as a external n/w call , optionally followed by some CPU bound work on the result.
+     *
+     * @param sleepNanos   time spent blocked
+     * @param cpuWorkNanos time spent on the CPU once the blocking call returned
+     * @param connection   if not <code>null</code> the thread blocks on a read of it , which is answered after
+     *                     <code>sleepNanos</code> , instead of sleeping
+     * @return how late the thread woke up compared to the requested sleep duration in nanos
      */
-    private static void externalBlockingCall() {
+    static long externalBlockingCall(long sleepNanos, long cpuWorkNanos, Socket connection) {
+        long sleepStart = System.nanoTime();
         try {
-            Thread.sleep(Duration.ofSeconds(1));
+            if (connection != null) {
+                roundTrip(connection, DelayedReplyServer.DELAYED);
+            } else {
+                Thread.sleep(Duration.ofNanos(sleepNanos));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        System.out.println("Task completed : " + taskCounter.incrementAndGet());
+        long wokeUp = System.nanoTime();
+        // busy loop , keeps the carrier thread occupied like real processing would
+        while (System.nanoTime() - wokeUp < cpuWorkNanos) {
+            Thread.onSpinWait();
+        }
+        return wokeUp - sleepStart - sleepNanos;
+    }
+
+    private static void report(String model, int concurrency, RunResult result) {
+        double seconds = result.totalNanos() / 1e9;
+        System.out.printf("model=%-8s concurrency=%-9d spawn=%8.1f ms total=%9.1f ms throughput=%11.1f tasks/s%n",
+                model, concurrency, result.spawnNanos() / 1e6, result.totalNanos() / 1e6, concurrency / seconds);
+        printLatencies(model, concurrency, "wake-up lateness", result.wakeUpLateness());
+        printLatencies(model, concurrency, "end-to-end      ", result.endToEnd());
+    }
+
+    /**
+     * Prints <code>model,concurrency,throughput,lateness p50,p99,p99.9,max,end-to-end p50,p99,p99.9,max</code> , latencies in micros.
+     */
+    private static void reportCsv(String model, int concurrency, RunResult result) {
+        LatencyHistogram lateness = result.wakeUpLateness();
+        LatencyHistogram endToEnd = result.endToEnd();
+        System.out.printf("%s,%d,%.1f,%d,%d,%d,%d,%d,%d,%d,%d%n",
+                model, concurrency, concurrency / (result.totalNanos() / 1e9),
+                lateness.percentile(50) / 1000, lateness.percentile(99) / 1000, lateness.percentile(99.9) / 1000, lateness.max() / 1000,
+                endToEnd.percentile(50) / 1000, endToEnd.percentile(99) / 1000, endToEnd.percentile(99.9) / 1000, endToEnd.max() / 1000);
+    }
+
+    private static void printLatencies(String model, int concurrency, String label, LatencyHistogram histogram) {
+        System.out.printf("model=%-8s concurrency=%-9d %s p50=%9.3f ms p99=%9.3f ms p99.9=%9.3f ms max=%9.3f ms%n",
+                model, concurrency, label,
+                histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6,
+                histogram.percentile(99.9) / 1e6, histogram.max() / 1e6);
+    }
+
+    private record RunResult(long spawnNanos, long totalNanos, LatencyHistogram wakeUpLateness, LatencyHistogram endToEnd) {
     }
 }
@@ -26,6 +26,9 @@ public class PlatformVsVirtualThreadStartUpTimeBenchMark {
          *
          *   - The platform threads are resource intensive having a 1::1 relation with kernel thread thus hardware and resource
          *     alignment takes most of the time making.
+         *
+         *   Note : This is a quick demonstration only , use {@link ThreadLifecycleBenchMark} for reproducible
+         *          create / start / join numbers with percentiles and allocation per thread.
          */
 
          // execute one threadStartUp func at a time
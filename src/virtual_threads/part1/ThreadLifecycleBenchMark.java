@@ -0,0 +1,159 @@
+package virtual_threads.part1;
+
+import benchmark.BenchMarkHarness;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   <b> ** Thread creation , start and join cost : Platform vs Virtual ** </b>
+ * </p>
+ * <p>
+ *   This is the reproducible version of {@link PlatformVsVirtualThreadStartUpTimeBenchMark}. Instead of timing a single loop
+ *   with {@link java.time.Instant} it measures every phase of a thread's lifecycle separately :
+ *   <ul>
+ *       <li><b>create</b> : {@link Thread.Builder#unstarted(Runnable)}</li>
+ *       <li><b>start</b>  : {@link Thread#start()} , also sampled per thread to report percentiles</li>
+ *       <li><b>join</b>   : waiting for all the started threads to terminate</li>
+ *   </ul>
+ *   The started threads run an empty task , so no console I/O ends up in the numbers.
+ * </p>
+ * <p>
+ *   Every (builder , thread count) pair runs in its own forked JVM with warmup iterations before the measured ones.
+ *   Allocation is reported as bytes allocated by the starting thread per created thread.
+ * </p>
+ * <p>
+ *   Parameters (<code>key=value</code>) :
+ *   <ul>
+ *       <li><code>builders</code>   : comma separated list of <code>platform</code> , <code>virtual</code></li>
+ *       <li><code>counts</code>     : comma separated thread counts per iteration</li>
+ *       <li><code>warmups</code>    : warmup iterations</li>
+ *       <li><code>iterations</code> : measurement iterations</li>
+ *       <li><code>forks</code>      : forked JVMs per configuration , <code>0</code> runs in the current JVM</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -cp out virtual_threads.part1.ThreadLifecycleBenchMark builders=virtual counts=10000,100000</code>
+ */
+
+public class ThreadLifecycleBenchMark {
+
+    private static final Runnable NO_OP = () -> { };
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("builders", "platform,virtual");
+        defaults.put("counts", "1000,10000,100000");
+        defaults.put("warmups", "3");
+        defaults.put("iterations", "5");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> builders = BenchMarkHarness.csv(params.get("builders"));
+        List<Integer> counts = BenchMarkHarness.csvInts(params.get("counts"));
+        int warmups = Integer.parseInt(params.get("warmups"));
+        int iterations = Integer.parseInt(params.get("iterations"));
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String builder : builders) {
+                for (int count : counts) {
+                    for (int fork = 1; fork <= forks; fork++) {
+                        Map<String, String> childParams = new LinkedHashMap<>(params);
+                        childParams.put("builders", builder);
+                        childParams.put("counts", String.valueOf(count));
+                        System.out.println("# Fork " + fork + " of " + forks + " : builder=" + builder + " threads=" + count);
+                        BenchMarkHarness.fork(ThreadLifecycleBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+                    }
+                }
+            }
+            return;
+        }
+
+        for (String builder : builders) {
+            for (int count : counts) {
+                for (int i = 0; i < warmups; i++) {
+                    runIteration(builder, count);
+                }
+                LifecycleSample[] samples = new LifecycleSample[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    samples[i] = runIteration(builder, count);
+                }
+                report(builder, count, samples);
+            }
+        }
+    }
+
+    private static Thread.Builder threadBuilder(String builder) {
+        return switch (builder) {
+            case "platform" -> Thread.ofPlatform();
+            case "virtual" -> Thread.ofVirtual();
+            default -> throw new IllegalArgumentException("Unknown builder : " + builder);
+        };
+    }
+
+    /**
+     * Creates , starts and joins <code>threadCount</code> threads measuring each phase.
+     */
+    private static LifecycleSample runIteration(String builder, int threadCount) throws InterruptedException {
+
+        Thread.Builder threadBuilder = threadBuilder(builder);
+        Thread[] threads = new Thread[threadCount];
+        long[] startNanos = new long[threadCount];
+        BenchMarkHarness.settle();
+
+        long allocatedBefore = BenchMarkHarness.allocatedBytes();
+        long createBegin = System.nanoTime();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = threadBuilder.unstarted(NO_OP);
+        }
+        long startBegin = System.nanoTime();
+        for (int i = 0; i < threadCount; i++) {
+            long begin = System.nanoTime();
+            threads[i].start();
+            startNanos[i] = System.nanoTime() - begin;
+        }
+        long joinBegin = System.nanoTime();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        long end = System.nanoTime();
+        long allocated = BenchMarkHarness.allocatedBytes() - allocatedBefore;
+
+        return new LifecycleSample(startBegin - createBegin, joinBegin - startBegin, end - joinBegin, allocated, startNanos);
+    }
+
+    private static void report(String builder, int threadCount, LifecycleSample[] samples) {
+
+        double create = 0, start = 0, join = 0, allocated = 0;
+        long[] perThreadStart = new long[samples.length * threadCount];
+        for (int i = 0; i < samples.length; i++) {
+            LifecycleSample sample = samples[i];
+            create += sample.createNanos();
+            start += sample.startNanos();
+            join += sample.joinNanos();
+            allocated += sample.allocatedBytes();
+            System.arraycopy(sample.perThreadStartNanos(), 0, perThreadStart, i * threadCount, threadCount);
+        }
+        double operations = (double) samples.length * threadCount;
+        Arrays.sort(perThreadStart);
+
+        System.out.printf("builder=%-8s threads=%-8d create=%8.1f ns/op start=%8.1f ns/op join=%8.1f ns/op total=%9.1f ns/op alloc=%7.1f B/thread%n",
+                builder, threadCount, create / operations, start / operations, join / operations,
+                (create + start + join) / operations, allocated / operations);
+        System.out.printf("builder=%-8s threads=%-8d start latency p50=%d ns p90=%d ns p99=%d ns p99.9=%d ns max=%d ns%n",
+                builder, threadCount,
+                BenchMarkHarness.percentile(perThreadStart, 50),
+                BenchMarkHarness.percentile(perThreadStart, 90),
+                BenchMarkHarness.percentile(perThreadStart, 99),
+                BenchMarkHarness.percentile(perThreadStart, 99.9),
+                perThreadStart[perThreadStart.length - 1]);
+    }
+
+    private record LifecycleSample(long createNanos, long startNanos, long joinNanos, long allocatedBytes, long[] perThreadStartNanos) {
+    }
+}
@@ -0,0 +1,198 @@
+package virtual_threads.part1;
+
+import benchmark.BenchMarkHarness;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>
+ *   <b> ** Memory footprint : Platform vs Virtual thread model ** </b>
+ * </p>
+ * <p>
+ *   {@link PlatformVsVirtualThreadModelConcurrencyBenchMark} tells us when a thread model runs out of memory , this
+ *   benchmark tells us where the memory goes. It ramps up the number of <b>parked</b> threads in steps and after every step samples :
+ *   <ul>
+ *       <li><b>heap</b> : heap used after a full GC , this is where a parked virtual thread keeps its stack.</li>
+ *       <li><b>stack chunks</b> : number and size of <code>jdk.internal.vm.StackChunk</code> objects taken from a class histogram.</li>
+ *       <li><b>rss</b> : resident set size of the process (Linux only) , this is where a platform thread keeps its stack.</li>
+ *       <li><b>gc</b> : GC time accumulated while the threads of the step were started.</li>
+ *   </ul>
+ *   Every sample is turned into a bytes-per-thread value against the baseline taken before the first thread was started ,
+ *   which gives a footprint curve per thread builder that can be used for capacity planning.
+ * </p>
+ * <p>
+ *   Parameters (<code>key=value</code>) :
+ *   <ul>
+ *       <li><code>models</code> : comma separated list of <code>platform</code> , <code>virtual</code></li>
+ *       <li><code>steps</code>  : comma separated , increasing , total number of parked threads per step</li>
+ *       <li><code>forks</code>  : forked JVMs per thread model , <code>0</code> runs in the current JVM</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -Xmx4g -cp out virtual_threads.part1.ThreadMemoryFootprintBenchMark models=virtual steps=10000,100000,1000000</code>
+ */
+
+public class ThreadMemoryFootprintBenchMark {
+
+    private static final String STACK_CHUNK_CLASS = "jdk.internal.vm.StackChunk";
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("models", "platform,virtual");
+        defaults.put("steps", "500,1000,2000,4000");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> models = BenchMarkHarness.csv(params.get("models"));
+        List<Integer> steps = BenchMarkHarness.csvInts(params.get("steps"));
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String model : models) {
+                for (int fork = 1; fork <= forks; fork++) {
+                    Map<String, String> childParams = new LinkedHashMap<>(params);
+                    childParams.put("models", model);
+                    int exitCode = BenchMarkHarness.fork(ThreadMemoryFootprintBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+                    if (exitCode != 0) {
+                        System.out.println("model=" + model + " failed with exit code " + exitCode);
+                    }
+                }
+            }
+            return;
+        }
+
+        for (String model : models) {
+            ramp(model, steps);
+        }
+    }
+
+    private static Thread.Builder threadBuilder(String model) {
+        return switch (model) {
+            case "platform" -> Thread.ofPlatform();
+            case "virtual" -> Thread.ofVirtual();
+            default -> throw new IllegalArgumentException("Unknown thread model : " + model);
+        };
+    }
+
+    /**
+     * Starts parked threads step by step , sampling the footprint after each step , and releases all of them at the end.
+     */
+    private static void ramp(String model, List<Integer> steps) throws Exception {
+
+        Thread.Builder threadBuilder = threadBuilder(model);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(steps.get(steps.size() - 1));
+
+        Sample baseline = sample();
+        System.out.printf("model=%-8s threads=%-9d heap=%9.1f MB rss=%9.1f MB (baseline)%n",
+                model, 0, baseline.heapUsed() / 1e6, baseline.rss() / 1e6);
+
+        for (int target : steps) {
+            int toStart = target - threads.size();
+            if (toStart <= 0) {
+                continue;
+            }
+            CountDownLatch parked = new CountDownLatch(toStart);
+            long gcMillisBefore = gcMillis();
+            for (int i = 0; i < toStart; i++) {
+                threads.add(threadBuilder.start(() -> {
+                    parked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+            parked.await();
+            long rampGcMillis = gcMillis() - gcMillisBefore;
+            // give the last threads time to actually park before sampling
+            Thread.sleep(200);
+
+            Sample sample = sample();
+            int threadCount = threads.size();
+            System.out.printf("model=%-8s threads=%-9d heap=%9.1f MB stackChunks=%-9d (%8.1f MB) rss=%9.1f MB gc=%6d ms heap/thread=%8.1f B rss/thread=%9.1f B%n",
+                    model, threadCount, sample.heapUsed() / 1e6, sample.stackChunkCount(), sample.stackChunkBytes() / 1e6,
+                    sample.rss() / 1e6, rampGcMillis,
+                    (double) (sample.heapUsed() - baseline.heapUsed()) / threadCount,
+                    sample.rss() < 0 ? Double.NaN : (double) (sample.rss() - baseline.rss()) / threadCount);
+        }
+
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Takes a footprint sample. The class histogram used to count stack chunks triggers a full GC , so the heap is
+     * sampled right after it.
+     */
+    private static Sample sample() {
+        long[] stackChunks = stackChunkHistogram();
+        BenchMarkHarness.settle();
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        return new Sample(heapUsed, stackChunks[0], stackChunks[1], residentSetSize());
+    }
+
+    /**
+     * @return instance count and total bytes of stack chunks , both <code>-1</code> when the histogram is not available
+     */
+    private static long[] stackChunkHistogram() {
+        try {
+            String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"),
+                    "gcClassHistogram",
+                    new Object[]{new String[0]},
+                    new String[]{String[].class.getName()});
+            for (String line : histogram.split("\n")) {
+                // format : "   1:        123456       7890123  jdk.internal.vm.StackChunk (java.base@21)"
+                String[] columns = line.trim().split("\\s+");
+                if (columns.length >= 4 && columns[3].equals(STACK_CHUNK_CLASS)) {
+                    return new long[]{Long.parseLong(columns[1]), Long.parseLong(columns[2])};
+                }
+            }
+            return new long[]{0, 0};
+        } catch (Exception e) {
+            return new long[]{-1, -1};
+        }
+    }
+
+    /**
+     * @return resident set size in bytes read from <code>/proc/self/status</code> , <code>-1</code> if not available
+     */
+    private static long residentSetSize() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not on Linux
+        }
+        return -1;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    private record Sample(long heapUsed, long stackChunkCount, long stackChunkBytes, long rss) {
+    }
+}
@@ -0,0 +1,124 @@
+package virtual_threads.part2.benchmarks;
+
+import benchmark.BenchMarkHarness;
+import virtual_threads.part2.utils.CompressionStage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ *   <b> ** Compression level benchmark ** </b>
+ * </p>
+ * <p>
+ *   Compresses a corpus of generated JSON payloads , shaped like the ones posted to the part2 servers , once per deflate
+ *   level and reports per level :
+ *   <ul>
+ *       <li><b>bytes written</b> and the compression ratio</li>
+ *       <li><b>inline throughput</b> and <b>CPU cost</b> : compressing on a single thread , CPU time taken from
+ *           {@link com.sun.management.ThreadMXBean#getCurrentThreadCpuTime()}</li>
+ *       <li><b>stage throughput</b> : the same corpus submitted from virtual threads to a {@link CompressionStage}</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -cp out virtual_threads.part2.benchmarks.CompressionBenchMark levels=1,6 payloadBytes=16384</code>
+ */
+
+public class CompressionBenchMark {
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("levels", "0,1,3,6,9");
+        defaults.put("payloads", "2000");
+        defaults.put("payloadBytes", "4096");
+        defaults.put("blockBytes", "65536");
+        defaults.put("workers", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<Integer> levels = BenchMarkHarness.csvInts(params.get("levels"));
+        int blockSize = Integer.parseInt(params.get("blockBytes"));
+        int workers = Integer.parseInt(params.get("workers"));
+        List<byte[]> corpus = corpus(Integer.parseInt(params.get("payloads")), Integer.parseInt(params.get("payloadBytes")));
+        long rawBytes = corpus.stream().mapToLong(payload -> payload.length).sum();
+
+        for (int level : levels) {
+            Deflater deflater = new Deflater(level, true);
+            // warmup , also checks the round trip
+            for (byte[] payload : corpus) {
+                byte[] compressed = CompressionStage.compressBlocks(payload, blockSize, deflater);
+                if (!Arrays.equals(payload, CompressionStage.decompress(compressed))) {
+                    throw new IllegalStateException("Round trip failed at level " + level);
+                }
+            }
+
+            long compressedBytes = 0;
+            long cpuBefore = BenchMarkHarness.cpuTimeNanos();
+            long wallBefore = System.nanoTime();
+            for (byte[] payload : corpus) {
+                compressedBytes += CompressionStage.compressBlocks(payload, blockSize, deflater).length;
+            }
+            long inlineNanos = System.nanoTime() - wallBefore;
+            long cpuNanos = BenchMarkHarness.cpuTimeNanos() - cpuBefore;
+            deflater.end();
+
+            long stageNanos;
+            try (CompressionStage stage = new CompressionStage(level, blockSize, workers, 1_000);
+                 ExecutorService requestThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                long stageBefore = System.nanoTime();
+                List<CompletableFuture<byte[]>> results = new ArrayList<>(corpus.size());
+                for (byte[] payload : corpus) {
+                    CompletableFuture<byte[]> result = new CompletableFuture<>();
+                    requestThreads.execute(() -> {
+                        try {
+                            result.complete(stage.compress(payload).join());
+                        } catch (Exception e) {
+                            result.completeExceptionally(e);
+                        }
+                    });
+                    results.add(result);
+                }
+                CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+                stageNanos = System.nanoTime() - stageBefore;
+            }
+
+            double rawMegabytes = rawBytes / 1e6;
+            System.out.printf("level=%d raw=%d B written=%d B ratio=%5.2f inline=%8.1f MB/s cpu=%7.2f ms/MB stage=%8.1f MB/s (%d workers)%n",
+                    level, rawBytes, compressedBytes, (double) rawBytes / compressedBytes,
+                    rawMegabytes / (inlineNanos / 1e9), cpuNanos / 1e6 / rawMegabytes,
+                    rawMegabytes / (stageNanos / 1e9), workers);
+        }
+    }
+
+    /**
+     * Generates JSON payloads of roughly <code>payloadBytes</code> bytes with repeating keys and varying values.
+     */
+    private static List<byte[]> corpus(int payloads, int payloadBytes) {
+        Random random = new Random(42);
+        String[] statuses = {"ACTIVE", "PENDING", "SUSPENDED", "CLOSED"};
+        List<byte[]> corpus = new ArrayList<>(payloads);
+        for (int i = 0; i < payloads; i++) {
+            StringBuilder json = new StringBuilder("{\"requestId\": \"").append(i).append("\", \"events\": [");
+            while (json.length() < payloadBytes) {
+                json.append("{\"deviceId\": ").append(random.nextInt(100_000))
+                        .append(", \"timestamp\": ").append(1_700_000_000_000L + random.nextInt(1_000_000))
+                        .append(", \"status\": \"").append(statuses[random.nextInt(statuses.length)])
+                        .append("\", \"temperature\": ").append(random.nextInt(400) / 10.0)
+                        .append(", \"key\": \"value\"},");
+            }
+            json.setLength(json.length() - 1);
+            json.append("]}\n");
+            corpus.add(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,130 @@
+package virtual_threads.part2.benchmarks;
+
+import benchmark.BenchMarkHarness;
+import benchmark.LatencyHistogram;
+import virtual_threads.part2.utils.DataUploader;
+import virtual_threads.part2.utils.GroupCommitWriter;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ *   <b> ** Append throughput : per request FileWriter vs Group Commit ** </b>
+ * </p>
+ * <p>
+ *   Runs <code>requests</code> appends of the same small JSON payload from virtual threads , at most <code>concurrency</code>
+ *   at a time , like the parallel curl loop of the part2 Readme does. The simulated latency of {@link DataUploader} is left out
+ *   so only the cost of getting the bytes into the file is measured.
+ * </p>
+ * <p>
+ *   Modes :
+ *   <ul>
+ *       <li><code>lines</code>          : {@link DataUploader#appendLines(java.io.InputStream, String)} , the current path</li>
+ *       <li><code>group-none</code>     : {@link GroupCommitWriter} without fsync</li>
+ *       <li><code>group-batch</code>    : {@link GroupCommitWriter} with an fsync per batch</li>
+ *       <li><code>group-interval</code> : {@link GroupCommitWriter} with an fsync every 10 ms</li>
+ *   </ul>
+ * </p>
+ *
+ * Example : <code>java -cp out virtual_threads.part2.benchmarks.DataUploaderBenchMark modes=lines,group-none requests=100000</code>
+ */
+
+public class DataUploaderBenchMark {
+
+    private static final byte[] PAYLOAD = "{\"key\": \"value\"}\n".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("modes", "lines,group-none,group-batch,group-interval");
+        defaults.put("requests", "20000");
+        defaults.put("concurrency", "700");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> modes = BenchMarkHarness.csv(params.get("modes"));
+        int requests = Integer.parseInt(params.get("requests"));
+        int concurrency = Integer.parseInt(params.get("concurrency"));
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String mode : modes) {
+                Map<String, String> childParams = new LinkedHashMap<>(params);
+                childParams.put("modes", mode);
+                BenchMarkHarness.fork(DataUploaderBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+            }
+            return;
+        }
+
+        for (String mode : modes) {
+            Path file = Files.createTempFile("data-uploader-" + mode, ".txt");
+            try {
+                // warmup with a tenth of the requests , then measure
+                run(mode, file, requests / 10, concurrency);
+                Files.write(file, new byte[0]);
+                LatencyHistogram latency = new LatencyHistogram();
+                long nanos = run(mode, file, requests, concurrency, latency);
+                System.out.printf("mode=%-15s requests=%-8d concurrency=%-6d throughput=%10.1f req/s p50=%8.1f us p99=%9.1f us max=%9.1f us file=%d B%n",
+                        mode, requests, concurrency, requests / (nanos / 1e9),
+                        latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.max() / 1e3, Files.size(file));
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void run(String mode, Path file, int requests, int concurrency) throws Exception {
+        run(mode, file, requests, concurrency, new LatencyHistogram());
+    }
+
+    /**
+     * @return wall time of the run in nanos
+     */
+    private static long run(String mode, Path file, int requests, int concurrency, LatencyHistogram latency) throws Exception {
+
+        GroupCommitWriter writer = switch (mode) {
+            case "lines" -> null;
+            case "group-none" -> new GroupCommitWriter(file, 10_000, 1_000, GroupCommitWriter.FsyncPolicy.NONE, Duration.ZERO);
+            case "group-batch" -> new GroupCommitWriter(file, 10_000, 1_000, GroupCommitWriter.FsyncPolicy.PER_BATCH, Duration.ZERO);
+            case "group-interval" -> new GroupCommitWriter(file, 10_000, 1_000, GroupCommitWriter.FsyncPolicy.INTERVAL, Duration.ofMillis(10));
+            default -> throw new IllegalArgumentException("Unknown mode : " + mode);
+        };
+        Semaphore inFlight = new Semaphore(concurrency);
+        long begin = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests; i++) {
+                inFlight.acquire();
+                executor.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        if (writer == null) {
+                            DataUploader.appendLines(new ByteArrayInputStream(PAYLOAD), file.toString());
+                        } else {
+                            writer.submit(PAYLOAD).get();
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        latency.record(System.nanoTime() - start);
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        if (writer != null) {
+            writer.close();
+        }
+        return nanos;
+    }
+}
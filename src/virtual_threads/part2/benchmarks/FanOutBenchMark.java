@@ -0,0 +1,132 @@
+package virtual_threads.part2.benchmarks;
+
+import benchmark.BenchMarkHarness;
+import benchmark.LatencyHistogram;
+import virtual_threads.part2.downstream.SimulatedDownstream;
+import virtual_threads.part2.downstream.StructuredFanOut;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ *   <b> ** Fan-out tail latency : with and without hedging ** </b>
+ * </p>
+ * <p>
+ *   Runs <code>requests</code> requests through a {@link StructuredFanOut} from virtual threads , at most <code>concurrency</code>
+ *   at a time , each calling <code>calls</code> simulated downstreams. A request waiting on all of them is as slow as its
+ *   slowest call , with 5 calls and 2% slow calls about one request in ten hits the tail of a downstream , which is
+ *   what hedging cuts off.
+ * </p>
+ * <p>
+ *   Every hedge percentile runs in its own JVM , 0 runs without hedging. The warmup also fills the latency histograms the
+ *   hedge delays are taken from.
+ * </p>
+ *
+ * Example : <code>java --enable-preview -cp out virtual_threads.part2.benchmarks.FanOutBenchMark hedgePercentiles=0,90,95,99 calls=5</code>
+ */
+
+public class FanOutBenchMark {
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("hedgePercentiles", "0,95");
+        defaults.put("requests", "20000");
+        defaults.put("concurrency", "100");
+        defaults.put("calls", "5");
+        defaults.put("mode", "all");
+        defaults.put("deadlineMillis", "1000");
+        defaults.put("medianMillis", "10");
+        defaults.put("sigma", "0.25");
+        defaults.put("tailProbability", "0.02");
+        defaults.put("tailMultiplier", "20");
+        defaults.put("failureRate", "0");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> hedgePercentiles = BenchMarkHarness.csv(params.get("hedgePercentiles"));
+        int requests = Integer.parseInt(params.get("requests"));
+        int concurrency = Integer.parseInt(params.get("concurrency"));
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String hedgePercentile : hedgePercentiles) {
+                Map<String, String> childParams = new LinkedHashMap<>(params);
+                childParams.put("hedgePercentiles", hedgePercentile);
+                BenchMarkHarness.fork(FanOutBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+            }
+            return;
+        }
+
+        for (String hedgePercentile : hedgePercentiles) {
+            StructuredFanOut fanOut = fanOut(params, Double.parseDouble(hedgePercentile));
+            // warmup with a tenth of the requests , then measure
+            run(fanOut, requests / 10, concurrency, new LatencyHistogram());
+            long callsBefore = fanOut.calls();
+            long hedgesBefore = fanOut.hedges();
+            long hedgeWinsBefore = fanOut.hedgeWins();
+            long timeoutsBefore = fanOut.timeouts();
+            long failuresBefore = fanOut.failures();
+
+            LatencyHistogram latency = new LatencyHistogram();
+            long nanos = run(fanOut, requests, concurrency, latency);
+            long calls = fanOut.calls() - callsBefore;
+            long hedges = fanOut.hedges() - hedgesBefore;
+            System.out.printf("hedge=%-5s requests=%-7d throughput=%9.1f req/s p50=%7.1f ms p90=%7.1f ms p99=%7.1f ms p99.9=%7.1f ms max=%7.1f ms timeouts=%-5d failures=%-5d hedges=%5.2f%% of calls (won %d) calls/request=%.2f%n",
+                    Double.parseDouble(hedgePercentile) <= 0 ? "off" : "p" + hedgePercentile, requests, requests / (nanos / 1e9),
+                    latency.percentile(50) / 1e6, latency.percentile(90) / 1e6, latency.percentile(99) / 1e6,
+                    latency.percentile(99.9) / 1e6, latency.max() / 1e6,
+                    fanOut.timeouts() - timeoutsBefore, fanOut.failures() - failuresBefore,
+                    calls == 0 ? 0 : 100.0 * hedges / (calls - hedges), fanOut.hedgeWins() - hedgeWinsBefore,
+                    (double) calls / requests);
+        }
+    }
+
+    private static StructuredFanOut fanOut(Map<String, String> params, double hedgePercentile) {
+        List<SimulatedDownstream> downstreams = new ArrayList<>();
+        for (int i = 0; i < Integer.parseInt(params.get("calls")); i++) {
+            downstreams.add(new SimulatedDownstream("downstream-" + i,
+                    Duration.ofMillis(Long.parseLong(params.get("medianMillis"))),
+                    Double.parseDouble(params.get("sigma")),
+                    Double.parseDouble(params.get("tailProbability")),
+                    Double.parseDouble(params.get("tailMultiplier")),
+                    Double.parseDouble(params.get("failureRate"))));
+        }
+        return new StructuredFanOut(downstreams,
+                StructuredFanOut.Mode.valueOf(params.get("mode").toUpperCase(Locale.ROOT)),
+                Duration.ofMillis(Long.parseLong(params.get("deadlineMillis"))), hedgePercentile, 100);
+    }
+
+    /**
+     * @return wall time of the run in nanos
+     */
+    private static long run(StructuredFanOut fanOut, int requests, int concurrency, LatencyHistogram latency) throws Exception {
+        Semaphore inFlight = new Semaphore(concurrency);
+        long begin = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests; i++) {
+                inFlight.acquire();
+                executor.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        fanOut.fanOut();
+                    } catch (Exception e) {
+                        // timeouts and failures are counted by the fan-out
+                    } finally {
+                        latency.record(System.nanoTime() - start);
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+}
@@ -0,0 +1,226 @@
+package virtual_threads.part2.benchmarks;
+
+import benchmark.BenchMarkHarness;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import virtual_threads.part2.metrics.ServerMetrics;
+import virtual_threads.part2.servers.ConfigurableHttpServer;
+import virtual_threads.part2.servers.ServerConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *   <b> ** Bytes allocated per request : UploadHandler vs LowAllocationUploadHandler ** </b>
+ * </p>
+ * <p>
+ *   Calls a handler of {@link ConfigurableHttpServer#HANDLERS} directly on the benchmark thread with a reused stub
+ *   {@link HttpExchange} , so the bytes counted by {@link BenchMarkHarness#allocatedBytes()} are the ones of the handler ,
+ *   the upload and the access log , not of the HTTP server around them. The simulated latency of the upload is disabled ,
+ *   every handler writes into a temporary directory.
+ * </p>
+ * <p>
+ *   Per handler it prints the bytes allocated per request , the throughput of the single benchmark thread and how much
+ *   garbage that would be at 100k requests per second.
+ * </p>
+ *
+ * Example : <code>java -cp out virtual_threads.part2.benchmarks.HandlerAllocationBenchMark handlers=upload,upload-lowalloc payloadBytes=1024</code>
+ */
+
+public class HandlerAllocationBenchMark {
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("handlers", "upload,upload-lowalloc");
+        defaults.put("requests", "200000");
+        defaults.put("payloadBytes", "256");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> handlers = BenchMarkHarness.csv(params.get("handlers"));
+        int requests = Integer.parseInt(params.get("requests"));
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String handler : handlers) {
+                Map<String, String> childParams = new LinkedHashMap<>(params);
+                childParams.put("handlers", handler);
+                BenchMarkHarness.fork(HandlerAllocationBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+            }
+            return;
+        }
+
+        Path directory = Files.createTempDirectory("handler-allocation");
+        // must be set before the upload and access log classes read them
+        System.setProperty("dataUploader.latencyMillis", "0");
+        System.setProperty("accessLog.file", directory.resolve("access.log").toString());
+        byte[] payload = payload(Integer.parseInt(params.get("payloadBytes")));
+
+        for (String name : handlers) {
+            ConfigurableHttpServer.HandlerFactory factory = ConfigurableHttpServer.HANDLERS.get(name);
+            if (factory == null) {
+                throw new IllegalArgumentException("Unknown handler : " + name + " , expected one of " + ConfigurableHttpServer.HANDLERS.keySet());
+            }
+            ServerConfig config = new ServerConfig(0, 0, "/execute", ConfigurableHttpServer.DEFAULTS.executor(), 1, 1,
+                    name, directory.resolve(name).toString());
+            HttpHandler handler = factory.create(config, new ServerMetrics(1));
+            StubExchange exchange = new StubExchange(payload);
+
+            // warmup with a tenth of the requests , then measure
+            run(handler, exchange, requests / 10);
+            BenchMarkHarness.settle();
+            long allocatedBefore = BenchMarkHarness.allocatedBytes();
+            long before = System.nanoTime();
+            run(handler, exchange, requests);
+            long nanos = System.nanoTime() - before;
+            double bytesPerRequest = (double) (BenchMarkHarness.allocatedBytes() - allocatedBefore) / requests;
+
+            System.out.printf("handler=%-16s payload=%-6d B allocated=%10.1f B/request throughput=%10.1f req/s garbage@100k req/s=%8.1f MB/s%n",
+                    name, payload.length, bytesPerRequest, requests / (nanos / 1e9), bytesPerRequest * 100_000 / 1e6);
+        }
+    }
+
+    private static void run(HttpHandler handler, StubExchange exchange, int requests) throws Exception {
+        for (int i = 0; i < requests; i++) {
+            exchange.reset();
+            handler.handle(exchange);
+        }
+    }
+
+    private static byte[] payload(int payloadBytes) {
+        StringBuilder json = new StringBuilder("{\"key\": \"value\"");
+        while (json.length() < payloadBytes - 1) {
+            json.append(", \"key\": \"value\"");
+        }
+        json.setLength(Math.max(payloadBytes - 1, 15));
+        return json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A reusable exchange , the request body is rewound and the response body discarded on every {@link #reset()}.
+     */
+    private static final class StubExchange extends HttpExchange {
+
+        private final ByteArrayInputStream requestBody;
+        private final Headers requestHeaders = new Headers();
+        private final Headers responseHeaders = new Headers();
+        private final URI uri = URI.create("/execute");
+        private final InetSocketAddress address = new InetSocketAddress("localhost", 0);
+        private final OutputStream responseBody = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        private int responseCode = -1;
+
+        StubExchange(byte[] payload) {
+            this.requestBody = new ByteArrayInputStream(payload);
+            requestHeaders.set("Content-Length", String.valueOf(payload.length));
+        }
+
+        void reset() {
+            requestBody.reset();
+            responseCode = -1;
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return uri;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "POST";
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return requestBody;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return responseBody;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) {
+            responseCode = rCode;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return address;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return address;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package virtual_threads.part2.benchmarks;
+
+import benchmark.BenchMarkHarness;
+import virtual_threads.part2.context.RequestContext;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *   <b> ** Request context : ScopedValue vs ThreadLocal ** </b>
+ * </p>
+ * <p>
+ *   Starts <code>requests</code> virtual threads , one per concurrent request , each binding a {@link RequestContext} ,
+ *   looking it up <code>lookups</code> times and then parking with the context still bound , the way a request waits on
+ *   I/O. Once all of them are parked the heap used after a full GC is compared with the baseline taken before , which gives
+ *   the bytes each request keeps alive. Modes :
+ *   <ul>
+ *       <li><code>none</code>        : no context , the footprint of the parked virtual thread alone</li>
+ *       <li><code>threadlocal</code> : {@link ThreadLocal#set(Object)} , {@link ThreadLocal#get()} and {@link ThreadLocal#remove()}</li>
+ *       <li><code>scoped</code>      : a {@link ScopedValue} binding and {@link ScopedValue#get()}</li>
+ *   </ul>
+ *   The cost of a context is the difference to <code>none</code>.
+ * </p>
+ * <p>
+ *   Every mode also runs 1000 requests on a pool of 4 platform threads where every other request "forgets" to clean up ,
+ *   as code that returns early or throws does , and counts the requests that found the context of an earlier request
+ *   on their thread. A scoped binding ends with its frame , so it can not leak.
+ * </p>
+ *
+ * Example : <code>java --enable-preview -Xmx4g -cp out virtual_threads.part2.benchmarks.RequestContextBenchMark requests=10000,100000,1000000</code>
+ */
+
+public class RequestContextBenchMark {
+
+    private static final ThreadLocal<RequestContext> THREAD_LOCAL_CONTEXT = new ThreadLocal<>();
+    private static final ScopedValue<RequestContext> SCOPED_CONTEXT = ScopedValue.newInstance();
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("modes", "none,threadlocal,scoped");
+        defaults.put("requests", "10000,100000,1000000");
+        defaults.put("lookups", "100");
+        defaults.put("forks", "1");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        List<String> modes = BenchMarkHarness.csv(params.get("modes"));
+        List<Integer> requestCounts = BenchMarkHarness.csvInts(params.get("requests"));
+        int lookups = Integer.parseInt(params.get("lookups"));
+        int forks = Integer.parseInt(params.get("forks"));
+
+        if (forks > 0 && !BenchMarkHarness.isForkedChild()) {
+            for (String mode : modes) {
+                Map<String, String> childParams = new LinkedHashMap<>(params);
+                childParams.put("modes", mode);
+                int exitCode = BenchMarkHarness.fork(RequestContextBenchMark.class, List.of(), BenchMarkHarness.toArgs(childParams));
+                if (exitCode != 0) {
+                    System.out.println("mode=" + mode + " failed with exit code " + exitCode);
+                }
+            }
+            return;
+        }
+
+        for (String mode : modes) {
+            // warmup , compiles the lookup paths before anything is measured
+            run(mode, 10_000, lookups);
+            for (int requests : requestCounts) {
+                Result result = run(mode, requests, lookups);
+                System.out.printf("mode=%-12s requests=%-9d heap/request=%8.1f B lookup=%7.2f ns/op%n",
+                        mode, requests, result.heapPerRequest(), result.nanosPerLookup());
+            }
+            System.out.printf("mode=%-12s pooled platform threads : %d of 1000 requests saw the context of an earlier request%n",
+                    mode, leaks(mode));
+        }
+    }
+
+    private static Result run(String mode, int requests, int lookups) throws Exception {
+        CountDownLatch parked = new CountDownLatch(requests);
+        CountDownLatch release = new CountDownLatch(1);
+        LongAdder lookupNanos = new LongAdder();
+        List<Thread> threads = new ArrayList<>(requests);
+
+        BenchMarkHarness.settle();
+        long baseline = heapUsed();
+        for (int i = 0; i < requests; i++) {
+            RequestContext context = new RequestContext(i, System.nanoTime(), 0);
+            Runnable request = () -> {
+                lookupNanos.add(lookups(mode, lookups));
+                parked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            threads.add(Thread.ofVirtual().start(switch (mode) {
+                case "none" -> request;
+                case "threadlocal" -> () -> {
+                    THREAD_LOCAL_CONTEXT.set(context);
+                    try {
+                        request.run();
+                    } finally {
+                        THREAD_LOCAL_CONTEXT.remove();
+                    }
+                };
+                case "scoped" -> () -> ScopedValue.runWhere(SCOPED_CONTEXT, context, request);
+                default -> throw new IllegalArgumentException("Unknown mode : " + mode);
+            }));
+        }
+        parked.await();
+        // give the last threads time to actually park before sampling
+        Thread.sleep(200);
+        BenchMarkHarness.settle();
+        double heapPerRequest = (double) (heapUsed() - baseline) / requests;
+
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Result(heapPerRequest, mode.equals("none") ? Double.NaN : (double) lookupNanos.sum() / ((long) requests * lookups));
+    }
+
+    /**
+     * @return nanos spent looking the context up <code>lookups</code> times
+     */
+    private static long lookups(String mode, int lookups) {
+        if (mode.equals("none")) {
+            return 0;
+        }
+        boolean scoped = mode.equals("scoped");
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            sink += scoped ? SCOPED_CONTEXT.get().requestId() : THREAD_LOCAL_CONTEXT.get().requestId();
+        }
+        long nanos = System.nanoTime() - start;
+        // keeps the lookups from being optimized away
+        return sink == Long.MIN_VALUE ? nanos + 1 : nanos;
+    }
+
+    /**
+     * @return requests of a pooled thread that found a context they did not bind
+     */
+    private static int leaks(String mode) throws Exception {
+        AtomicInteger leaks = new AtomicInteger();
+        try (ExecutorService pool = Executors.newFixedThreadPool(4)) {
+            for (int i = 0; i < 1000; i++) {
+                RequestContext context = new RequestContext(i, System.nanoTime(), 0);
+                boolean forgetsCleanup = i % 2 == 0;
+                pool.execute(() -> {
+                    switch (mode) {
+                        case "threadlocal" -> {
+                            if (THREAD_LOCAL_CONTEXT.get() != null) {
+                                leaks.incrementAndGet();
+                            }
+                            THREAD_LOCAL_CONTEXT.set(context);
+                            if (!forgetsCleanup) {
+                                THREAD_LOCAL_CONTEXT.remove();
+                            }
+                        }
+                        case "scoped" -> {
+                            if (SCOPED_CONTEXT.isBound()) {
+                                leaks.incrementAndGet();
+                            }
+                            // there is nothing to forget , the binding ends with runWhere
+                            ScopedValue.runWhere(SCOPED_CONTEXT, context, () -> SCOPED_CONTEXT.get().requestId());
+                        }
+                        default -> {
+                        }
+                    }
+                });
+            }
+        }
+        return leaks.get();
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private record Result(double heapPerRequest, double nanosPerLookup) {
+    }
+}
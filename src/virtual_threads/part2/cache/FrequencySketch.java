@@ -0,0 +1,90 @@
+package virtual_threads.part2.cache;
+
+/**
+ * <p>
+ *   A count-min sketch of 4 bit counters estimating how often a key was seen recently , the frequency filter of a
+ *   {@link TinyLfuCache}.
+ * </p>
+ * <p>
+ *   Every key maps to 4 counters , its frequency is the smallest of them , so collisions can only over-estimate it.
+ *   Counters saturate at 15. After <code>10 * capacity</code> increments every counter is halved , so keys that were
+ *   popular a while ago fade out and new popular keys can win.
+ * </p>
+ * <p>
+ *   Not thread safe , guarded by the lock of the cache.
+ * </p>
+ */
+
+final class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param capacity number of keys the cache holds , sizes the sketch
+     */
+    FrequencySketch(int capacity) {
+        int words = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+        this.table = new long[words];
+        // 16 counters per word
+        this.counterMask = words * 16 - 1;
+        this.sampleSize = 10 * Math.max(1, capacity);
+    }
+
+    /**
+     * @return estimated number of recent occurrences of the key , at most 15
+     */
+    int frequency(Object key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (long seed : SEEDS) {
+            frequency = Math.min(frequency, count(counterIndex(hash, seed)));
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an occurrence of the key.
+     */
+    void increment(Object key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (long seed : SEEDS) {
+            int index = counterIndex(hash, seed);
+            if (count(index) < MAX_COUNT) {
+                table[index >>> 4] += 1L << shift(index);
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private int count(int index) {
+        return (int) (table[index >>> 4] >>> shift(index)) & MAX_COUNT;
+    }
+
+    private static int shift(int index) {
+        return (index & 15) << 2;
+    }
+
+    private int counterIndex(int hash, long seed) {
+        long h = (hash + seed) * seed;
+        h ^= h >>> 32;
+        return (int) h & counterMask;
+    }
+}
@@ -0,0 +1,150 @@
+package virtual_threads.part2.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *   <b> ** Request de-duplication by payload hash ** </b>
+ * </p>
+ * <p>
+ *   Retrying clients send the same payload again and again , every copy paying the full upload and writing a duplicate
+ *   record. Bodies up to <code>maxBodyBytes</code> are keyed by their SHA-256 :
+ *   <ul>
+ *       <li>a response still in the {@link TinyLfuCache} is returned right away (hit)</li>
+ *       <li>a payload being uploaded right now is waited for and shares its response , see {@link SingleFlight} (coalesced)</li>
+ *       <li>otherwise the payload is uploaded and its response cached (miss)</li>
+ *   </ul>
+ *   Larger bodies are uploaded as they are (bypassed). <code>dedup_bytes_saved_total</code> counts the body bytes that
+ *   were not written thanks to hits and coalescing.
+ * </p>
+ */
+
+public final class RequestDeduplicator {
+
+    @FunctionalInterface
+    public interface Upload {
+        String upload(InputStream requestBody) throws IOException;
+    }
+
+    private final int maxBodyBytes;
+    private final TinyLfuCache<PayloadKey, String> cache;
+    private final SingleFlight<PayloadKey, String> singleFlight = new SingleFlight<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * @param maxEntries   responses held by the cache
+     * @param ttl          how long a response is served from the cache
+     * @param maxBodyBytes larger bodies are not de-duplicated
+     */
+    public RequestDeduplicator(int maxEntries, Duration ttl, int maxBodyBytes) {
+        this.cache = new TinyLfuCache<>(maxEntries, ttl);
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Creates a de-duplicator if <code>dedup.enabled=true</code> , configured by the system properties
+     * <code>dedup.maxEntries</code> (default 10000) , <code>dedup.ttlMillis</code> (60000) and <code>dedup.maxBodyBytes</code> (65536).
+     *
+     * @return the de-duplicator , or <code>null</code> if disabled
+     */
+    public static RequestDeduplicator fromSystemProperties() {
+        if (!Boolean.getBoolean("dedup.enabled")) {
+            return null;
+        }
+        return new RequestDeduplicator(
+                Integer.getInteger("dedup.maxEntries", 10_000),
+                Duration.ofMillis(Long.getLong("dedup.ttlMillis", 60_000)),
+                Integer.getInteger("dedup.maxBodyBytes", 64 * 1024));
+    }
+
+    /**
+     * Runs <code>upload</code> for the request body unless the same payload was or is being uploaded.
+     *
+     * @return the response of the upload of the payload
+     */
+    public String upload(InputStream requestBody, Upload upload) throws IOException {
+        byte[] body = requestBody.readNBytes(maxBodyBytes + 1);
+        if (body.length > maxBodyBytes) {
+            bypassed.increment();
+            return upload.upload(new SequenceInputStream(new ByteArrayInputStream(body), requestBody));
+        }
+        PayloadKey key = PayloadKey.of(body);
+        String cached = cache.get(key);
+        if (cached != null) {
+            hits.increment();
+            bytesSaved.add(body.length);
+            return cached;
+        }
+        boolean[] uploaded = new boolean[1];
+        String response = singleFlight.execute(key, () -> {
+            // a flight that finished between the get above and this one becoming the leader already cached the response
+            String completed = cache.get(key);
+            if (completed != null) {
+                hits.increment();
+                return completed;
+            }
+            uploaded[0] = true;
+            misses.increment();
+            String uploadResponse = upload.upload(new ByteArrayInputStream(body));
+            cache.put(key, uploadResponse);
+            return uploadResponse;
+        });
+        if (!uploaded[0]) {
+            bytesSaved.add(body.length);
+        }
+        return response;
+    }
+
+    public void writeMetrics(StringBuilder out) {
+        out.append("dedup_cache_hits_total ").append(hits.sum()).append('\n');
+        out.append("dedup_misses_total ").append(misses.sum()).append('\n');
+        out.append("dedup_coalesced_total ").append(singleFlight.coalesced()).append('\n');
+        out.append("dedup_bypassed_total ").append(bypassed.sum()).append('\n');
+        out.append("dedup_bytes_saved_total ").append(bytesSaved.sum()).append('\n');
+        out.append("dedup_in_flight ").append(singleFlight.inFlight()).append('\n');
+        out.append("dedup_cache_entries ").append(cache.size()).append('\n');
+        out.append("dedup_cache_evictions_total ").append(cache.evictions()).append('\n');
+        out.append("dedup_cache_rejections_total ").append(cache.rejections()).append('\n');
+        out.append("dedup_cache_expirations_total ").append(cache.expirations()).append('\n');
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long coalesced() {
+        return singleFlight.coalesced();
+    }
+
+    /**
+     * SHA-256 of a payload , compared as four longs.
+     */
+    private record PayloadKey(long a, long b, long c, long d) {
+
+        static PayloadKey of(byte[] payload) {
+            try {
+                ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(payload));
+                return new PayloadKey(digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong());
+            } catch (NoSuchAlgorithmException e) {
+                // every JDK ships SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package virtual_threads.part2.cache;
+
+import virtual_threads.part2.context.DeadlineExceededException;
+import virtual_threads.part2.context.RequestContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *   Coalesces concurrent computations of the same key : the first caller of {@link #execute(Object, Loader)} for a key runs
+ *   the loader , every caller arriving while it runs waits for that result instead of running the loader again , and
+ *   shares its failure too. Once the loader finished the key is forgotten , caching the result is up to the caller.
+ * </p>
+ * <p>
+ *   Deadlines are not shared : a caller waits at most until the deadline of its own {@link RequestContext} , and when
+ *   the loader failed because the deadline of the caller running it passed , the waiting callers try again , running the
+ *   loader themselves or waiting for whoever does.
+ * </p>
+ * <p>
+ *   Waiting is a {@link CompletableFuture#get(long, TimeUnit)} , which unmounts a virtual thread.
+ * </p>
+ */
+
+public final class SingleFlight<K, V> {
+
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @throws DeadlineExceededException if the deadline of the current request passed while waiting
+     */
+    public V execute(K key, Loader<V> loader) throws IOException {
+        RequestContext context = RequestContext.current();
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing;
+        while ((existing = inFlight.putIfAbsent(key, flight)) != null) {
+            coalesced.increment();
+            try {
+                return await(existing, context);
+            } catch (LeaderDeadlineExceeded e) {
+                // the leader ran out of its own time , not ours , take over or wait for the next leader
+                if (context != null) {
+                    context.checkDeadline();
+                }
+            }
+        }
+        try {
+            V value = loader.load();
+            flight.complete(value);
+            return value;
+        } catch (Throwable failure) {
+            flight.completeExceptionally(failure);
+            throw failure;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private V await(CompletableFuture<V> flight, RequestContext context) throws IOException {
+        try {
+            long remainingNanos = context == null ? Long.MAX_VALUE : context.remainingNanos();
+            if (remainingNanos == Long.MAX_VALUE) {
+                return flight.get();
+            }
+            if (remainingNanos <= 0) {
+                throw new DeadlineExceededException(context);
+            }
+            return flight.get(remainingNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(context);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DeadlineExceededException) {
+                throw new LeaderDeadlineExceeded();
+            }
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The loader failed with the deadline of the caller running it , never thrown out of {@link #execute(Object, Loader)}.
+     */
+    private static final class LeaderDeadlineExceeded extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        LeaderDeadlineExceeded() {
+            super("Deadline of the leading request exceeded");
+        }
+    }
+
+    /**
+     * @return callers that waited for another caller's result
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return keys being computed right now
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+}
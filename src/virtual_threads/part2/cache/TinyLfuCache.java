@@ -0,0 +1,130 @@
+package virtual_threads.part2.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ *   <b> ** Bounded cache with TinyLFU admission and TTL ** </b>
+ * </p>
+ * <p>
+ *   Holds at most <code>maxEntries</code> entries in least recently used order. When the cache is full a new entry does
+ *   not simply push out the least recently used one : it is only admitted if the {@link FrequencySketch} saw its key more
+ *   often than the key of that victim. A burst of one-off keys therefore can not flush the keys that keep coming back.
+ * </p>
+ * <p>
+ *   Entries expire <code>ttl</code> after they were put , an expired entry is dropped when it is read and is always the
+ *   first to go when the cache is full.
+ * </p>
+ * <p>
+ *   All operations take a {@link ReentrantLock} , never <code>synchronized</code> , so virtual threads are not pinned.
+ *   They are short and never block on I/O.
+ * </p>
+ */
+
+public final class TinyLfuCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final FrequencySketch sketch;
+
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public TinyLfuCache(int maxEntries, Duration ttl) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive : " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(Math.min(maxEntries, 1 << 16), 0.75f, true);
+        this.sketch = new FrequencySketch(maxEntries);
+    }
+
+    /**
+     * Looks a key up , counting the lookup towards the frequency of the key.
+     *
+     * @return the value , or <code>null</code> if absent or expired
+     */
+    public V get(K key) {
+        lock.lock();
+        try {
+            sketch.increment(key);
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtNanos() - System.nanoTime() <= 0) {
+                entries.remove(key);
+                expirations.increment();
+                return null;
+            }
+            return entry.value();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts an entry , evicting the least recently used one if the cache is full and the new key is the more frequent one.
+     *
+     * @return <code>false</code> if the entry was not admitted
+     */
+    public boolean put(K key, V value) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+                Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+                Map.Entry<K, Entry<V>> victim = eldest.next();
+                if (victim.getValue().expiresAtNanos() - now <= 0) {
+                    expirations.increment();
+                } else if (sketch.frequency(key) > sketch.frequency(victim.getKey())) {
+                    evictions.increment();
+                } else {
+                    rejections.increment();
+                    return false;
+                }
+                eldest.remove();
+            }
+            entries.put(key, new Entry<>(value, now + ttlNanos));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return entries not admitted because their key was less frequent than the victim's
+     */
+    public long rejections() {
+        return rejections.sum();
+    }
+
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    private record Entry<V>(V value, long expiresAtNanos) {
+    }
+}
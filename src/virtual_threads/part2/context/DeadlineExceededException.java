@@ -0,0 +1,16 @@
+package virtual_threads.part2.context;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the deadline of a {@link RequestContext} passed before the work of the request was done , handlers answer
+ * it with <code>504 Gateway Timeout</code>.
+ */
+public class DeadlineExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(RequestContext context) {
+        super("Deadline of request " + context.requestId() + " exceeded");
+    }
+}
@@ -0,0 +1,80 @@
+package virtual_threads.part2.context;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *   <b> ** Request Context ** </b>
+ * </p>
+ * <p>
+ *   The id and deadline of the request being handled , available anywhere down the call stack with {@link #current()}
+ *   instead of being passed through every method. Enabled with <code>-DrequestContext.enabled=true</code> , a deadline
+ *   is given to every request with <code>-DrequestContext.deadlineMillis=&lt;n&gt;</code>.
+ * </p>
+ * <p>
+ *   The context is bound with a {@link ScopedValue} , not a {@link ThreadLocal} : the binding lives in the frame of
+ *   {@link #call(RequestContext, Action)} and is gone when it returns , so a pooled thread can not hand the context of one
+ *   request to the next one , and a thread that never looks the context up pays nothing for it. Subtasks forked into a
+ *   {@link java.util.concurrent.StructuredTaskScope} see the context of their parent , tasks handed to any other executor do not.
+ * </p>
+ * <p>
+ *   {@link ScopedValue} is a preview API of JDK 21 , it is only touched through {@link ScopedRequestContext} when the
+ *   context is enabled , so the servers still start without <code>--enable-preview</code> when it is not.
+ * </p>
+ *
+ * @param requestId   id of the request , unique within the JVM
+ * @param startNanos  {@link System#nanoTime()} when the request was received
+ * @param timeoutNanos time budget of the request , <code>0</code> for none
+ */
+public record RequestContext(long requestId, long startNanos, long timeoutNanos) {
+
+    public static final boolean ENABLED = Boolean.getBoolean("requestContext.enabled");
+
+    private static final long DEFAULT_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("requestContext.deadlineMillis", 0));
+    private static final AtomicLong REQUEST_IDS = new AtomicLong();
+
+    @FunctionalInterface
+    public interface Action<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * @return a context for a request received now , with the default deadline
+     */
+    public static RequestContext next() {
+        return new RequestContext(REQUEST_IDS.incrementAndGet(), System.nanoTime(), DEFAULT_TIMEOUT_NANOS);
+    }
+
+    /**
+     * @return the context of the request handled by the current thread , or <code>null</code> if none is bound
+     */
+    public static RequestContext current() {
+        return ENABLED ? ScopedRequestContext.current() : null;
+    }
+
+    /**
+     * Runs the action with <code>context</code> bound as the {@link #current()} context , or simply runs it if the
+     * request context is not enabled.
+     */
+    public static <T> T call(RequestContext context, Action<T> action) throws IOException {
+        return ENABLED ? ScopedRequestContext.call(context, action) : action.run();
+    }
+
+    /**
+     * @return nanos left until the deadline , negative once it passed , {@link Long#MAX_VALUE} without a deadline
+     */
+    public long remainingNanos() {
+        return timeoutNanos == 0 ? Long.MAX_VALUE : startNanos + timeoutNanos - System.nanoTime();
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline passed
+     */
+    public void checkDeadline() throws DeadlineExceededException {
+        if (remainingNanos() <= 0) {
+            throw new DeadlineExceededException(this);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package virtual_threads.part2.context;
+
+import java.io.IOException;
+
+/**
+ * The {@link ScopedValue} behind {@link RequestContext} , kept in its own class so it is only loaded when the request
+ * context is enabled.
+ */
+final class ScopedRequestContext {
+
+    private static final ScopedValue<RequestContext> CURRENT = ScopedValue.newInstance();
+
+    private ScopedRequestContext() {
+    }
+
+    static RequestContext current() {
+        return CURRENT.orElse(null);
+    }
+
+    static <T> T call(RequestContext context, RequestContext.Action<T> action) throws IOException {
+        try {
+            return ScopedValue.callWhere(CURRENT, context, action::run);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Action only throws IOException
+            throw new IOException(e);
+        }
+    }
+}
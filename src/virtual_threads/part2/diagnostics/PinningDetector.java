@@ -0,0 +1,251 @@
+package virtual_threads.part2.diagnostics;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *   <b> ** Virtual Thread Pinning Detector ** </b>
+ * </p>
+ * <p>
+ *   A virtual thread that blocks while it holds a monitor , e.g. inside a <code>synchronized</code> block around blocking
+ *   I/O , cannot unmount and keeps its carrier thread blocked with it. With only as many carriers as cores a handful of
+ *   such code paths is enough to make throughput collapse , without any error.
+ * </p>
+ * <p>
+ *   This detector streams two JFR events in process with a {@link RecordingStream} :
+ *   <ul>
+ *       <li><code>jdk.VirtualThreadPinned</code> : a virtual thread parked while pinned for longer than the threshold</li>
+ *       <li><code>jdk.VirtualThreadSubmitFailed</code> : starting or unparking a virtual thread failed</li>
+ *   </ul>
+ *   and aggregates them by stack trace into {@link Site sites} with an event count , the total and the maximum pinned time.
+ * </p>
+ * <p>
+ *   <b>Overhead :</b> only these two events are enabled , and pinned events are only emitted above the threshold
+ *   (20 ms by default , like the JDK default) , so a healthy server produces no events at all. Stack traces are cut to
+ *   <code>stackDepth</code> frames starting at the first frame outside the JDK , the parking code above it is the same
+ *   for every site , and at most <code>maxSites</code> distinct sites are kept , anything beyond is counted under a
+ *   single overflow site.
+ * </p>
+ */
+
+public final class PinningDetector implements Closeable {
+
+    static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    static final String SUBMIT_FAILED_EVENT = "jdk.VirtualThreadSubmitFailed";
+    private static final String OVERFLOW_KEY = "<other sites>";
+
+    private final RecordingStream stream;
+    private final int stackDepth;
+    private final int maxSites;
+    private final Map<String, Site> sites = new ConcurrentHashMap<>();
+    private final LongAdder pinnedEvents = new LongAdder();
+    private final LongAdder pinnedNanos = new LongAdder();
+    private final LongAdder submitFailedEvents = new LongAdder();
+
+    /**
+     * Starts streaming the events right away.
+     *
+     * @param threshold  minimum pinned time for an event to be recorded
+     * @param stackDepth number of frames from the first one outside the JDK that identify a site
+     * @param maxSites   maximum number of distinct sites kept
+     */
+    public PinningDetector(Duration threshold, int stackDepth, int maxSites) {
+        this.stackDepth = stackDepth;
+        this.maxSites = maxSites;
+        this.stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        stream.enable(SUBMIT_FAILED_EVENT).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+        stream.onEvent(SUBMIT_FAILED_EVENT, this::onSubmitFailed);
+        stream.startAsync();
+    }
+
+    /**
+     * Creates a detector configured by the system properties , or returns <code>null</code> with <code>-Dpinning.enabled=false</code> :
+     * <ul>
+     *     <li><code>pinning.thresholdMillis</code> (default 20)</li>
+     *     <li><code>pinning.stackDepth</code> (default 12)</li>
+     *     <li><code>pinning.maxSites</code> (default 1000)</li>
+     * </ul>
+     */
+    public static PinningDetector fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("pinning.enabled", "true"))) {
+            return null;
+        }
+        return new PinningDetector(
+                Duration.ofMillis(Long.getLong("pinning.thresholdMillis", 20)),
+                Integer.getInteger("pinning.stackDepth", 12),
+                Integer.getInteger("pinning.maxSites", 1_000));
+    }
+
+    private void onPinned(RecordedEvent event) {
+        long nanos = event.getDuration().toNanos();
+        pinnedEvents.increment();
+        pinnedNanos.add(nanos);
+        site(PINNED_EVENT, event.getStackTrace()).record(nanos);
+    }
+
+    private void onSubmitFailed(RecordedEvent event) {
+        submitFailedEvents.increment();
+        site(SUBMIT_FAILED_EVENT, event.getStackTrace()).record(0);
+    }
+
+    private Site site(String eventType, RecordedStackTrace stackTrace) {
+        List<RecordedFrame> frames = stackTrace == null ? List.of() : stackTrace.getFrames();
+        int first = firstApplicationFrame(frames);
+        String stack = format(frames, first);
+        String key = eventType + '\n' + stack;
+        Site site = sites.get(key);
+        if (site == null) {
+            if (sites.size() >= maxSites) {
+                return sites.computeIfAbsent(OVERFLOW_KEY, k -> new Site("all events", OVERFLOW_KEY, OVERFLOW_KEY));
+            }
+            String name = frames.isEmpty() ? "<unknown>" : frame(frames.get(first));
+            site = sites.computeIfAbsent(key, k -> new Site(eventType, name, stack));
+        }
+        return site;
+    }
+
+    /**
+     * Formats <code>stackDepth</code> frames from <code>first</code> , the frame the site is named after.
+     */
+    private String format(List<RecordedFrame> frames, int first) {
+        if (frames.isEmpty()) {
+            return "<no stack trace>";
+        }
+        StringBuilder stack = new StringBuilder();
+        int end = Math.min(first + stackDepth, frames.size());
+        for (int i = first; i < end; i++) {
+            stack.append("    at ").append(frame(frames.get(i))).append('\n');
+        }
+        if (frames.size() > end) {
+            stack.append("    ...\n");
+        }
+        return stack.toString();
+    }
+
+    /**
+     * The top frames of a pinned event are the JDK parking code , the same for every site , a site starts at the first
+     * frame outside the JDK.
+     *
+     * @return the index of that frame , <code>0</code> if every frame is in the JDK
+     */
+    private static int firstApplicationFrame(List<RecordedFrame> frames) {
+        for (int i = 0; i < frames.size(); i++) {
+            String className = frames.get(i).getMethod().getType().getName();
+            if (!className.startsWith("java.") && !className.startsWith("jdk.") && !className.startsWith("sun.")) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static String frame(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+
+    /**
+     * @return the sites sorted by total pinned time , then by event count
+     */
+    public List<Site> topSites(int limit) {
+        return sites.values().stream()
+                .sorted(Comparator.comparingLong(Site::totalNanos).thenComparingLong(Site::count).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Appends the totals in the Prometheus text format.
+     */
+    public void writeMetrics(StringBuilder out) {
+        out.append("virtual_thread_pinned_events_total ").append(pinnedEvents.sum()).append('\n');
+        out.append("virtual_thread_pinned_seconds_total ").append(pinnedNanos.sum() / 1e9).append('\n');
+        out.append("virtual_thread_submit_failed_events_total ").append(submitFailedEvents.sum()).append('\n');
+        out.append("virtual_thread_pinning_sites ").append(sites.size()).append('\n');
+    }
+
+    /**
+     * Appends a human readable report of the top <code>limit</code> sites with their stack traces.
+     */
+    public void writeReport(StringBuilder out, int limit) {
+        out.append("pinned events : ").append(pinnedEvents.sum())
+                .append(" , pinned time : ").append(pinnedNanos.sum() / 1_000_000).append(" ms")
+                .append(" , submit failures : ").append(submitFailedEvents.sum())
+                .append(" , sites : ").append(sites.size()).append("\n\n");
+        int rank = 1;
+        for (Site site : topSites(limit)) {
+            out.append('#').append(rank++).append(' ').append(site.eventType()).append(" at ").append(site.name()).append('\n')
+                    .append("  events : ").append(site.count())
+                    .append(" , total : ").append(site.totalNanos() / 1_000_000).append(" ms")
+                    .append(" , max : ").append(site.maxNanos() / 1_000_000).append(" ms\n")
+                    .append(site.stack()).append('\n');
+        }
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    /**
+     * Events aggregated by event type and stack trace.
+     */
+    public static final class Site {
+
+        private final String eventType;
+        private final String name;
+        private final String stack;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Site(String eventType, String name, String stack) {
+            this.eventType = eventType;
+            this.name = name;
+            this.stack = stack;
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public String eventType() {
+            return eventType;
+        }
+
+        /** The first frame outside the JDK. */
+        public String name() {
+            return name;
+        }
+
+        public String stack() {
+            return stack;
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long totalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long maxNanos() {
+            return maxNanos.get();
+        }
+    }
+}
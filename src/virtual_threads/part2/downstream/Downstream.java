@@ -0,0 +1,34 @@
+package virtual_threads.part2.downstream;
+
+import java.io.IOException;
+
+/**
+ * A service called while handling a request , either a {@link SimulatedDownstream} in process or a {@link DownstreamClient}
+ * calling a {@link DownstreamServer} over a socket.
+ */
+public interface Downstream {
+
+    String name();
+
+    /**
+     * Performs a call , blocking the calling thread until it completed.
+     *
+     * @return the reply
+     * @throws IOException          if the call failed
+     * @throws InterruptedException if the call was cancelled
+     */
+    String call() throws IOException, InterruptedException;
+
+    /**
+     * A cancelled call , e.g. the loser of a hedge , is recorded with the time it ran , a lower bound of its latency. Left
+     * out , the slow calls that get cancelled would vanish from the tail and pull the percentiles down.
+     *
+     * @return the latency of completed and cancelled calls at <code>percentile</code> , in the range [0 , 100]
+     */
+    long percentileNanos(double percentile);
+
+    /**
+     * @return number of calls recorded into {@link #percentileNanos(double)}
+     */
+    long recordedCalls();
+}
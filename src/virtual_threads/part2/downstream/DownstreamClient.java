@@ -0,0 +1,297 @@
+package virtual_threads.part2.downstream;
+
+import benchmark.LatencyHistogram;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *   <b> ** Downstream Client ** </b>
+ * </p>
+ * <p>
+ *   Calls a {@link DownstreamServer} over plain blocking {@link Socket}s , HTTP/1.1 with keep-alive. The calling thread
+ *   writes the request and blocks in {@link InputStream#read()} until the reply arrives , which parks a virtual thread on
+ *   the socket , not on a timer like {@link Thread#sleep(java.time.Duration)} does , and releases its carrier. Interrupting the
+ *   thread closes the socket , so cancelled calls stop right away.
+ * </p>
+ * <p>
+ *   Idle connections are kept in a lock-free pool of at most <code>maxIdle</code>. A kept-alive connection that turns out
+ *   to be closed by the server before it replied is retried once on a new connection. A reply other than 200 , a reset or a
+ *   read taking longer than <code>timeoutMillis</code> fails the call with a {@link DownstreamException}.
+ * </p>
+ * <p>
+ *   The latency of every successful call is recorded , see {@link #percentileNanos(double)} , and so is the time a call ran
+ *   until it was cancelled.
+ * </p>
+ */
+
+public final class DownstreamClient implements Downstream {
+
+    private static final int MAX_HEAD_BYTES = 8 * 1024;
+
+    private final String name;
+    private final InetSocketAddress address;
+    private final int timeoutMillis;
+    private final int maxIdle;
+    private final byte[] requestHead;
+
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final LatencyHistogram observed = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+
+    /**
+     * @param name          name of the downstream
+     * @param address       address of the {@link DownstreamServer}
+     * @param timeoutMillis connect and read timeout of a call
+     * @param maxIdle       idle connections kept open
+     */
+    public DownstreamClient(String name, InetSocketAddress address, int timeoutMillis, int maxIdle) {
+        this.name = name;
+        this.address = address;
+        this.timeoutMillis = timeoutMillis;
+        this.maxIdle = maxIdle;
+        this.requestHead = ("POST " + DownstreamServer.CALL_PATH + " HTTP/1.1\r\n"
+                + "Host: " + address.getHostString() + ":" + address.getPort() + "\r\n"
+                + "Content-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Creates a client for <code>downstream.address=host:port</code> , with the system properties
+     * <code>downstream.timeoutMillis</code> (default 5000) and <code>downstream.maxIdle</code> (1000).
+     *
+     * @return the client , or <code>null</code> if no address is set
+     */
+    public static DownstreamClient fromSystemProperties(String name) {
+        String address = System.getProperty("downstream.address");
+        if (address == null) {
+            return null;
+        }
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Expected downstream.address=host:port but got : " + address);
+        }
+        return new DownstreamClient(name,
+                new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))),
+                Integer.getInteger("downstream.timeoutMillis", 5_000), Integer.getInteger("downstream.maxIdle", 1_000));
+    }
+
+    /**
+     * @return the reply of the server
+     * @throws DownstreamException if the call failed
+     */
+    @Override
+    public String call() throws DownstreamException {
+        long start = System.nanoTime();
+        Connection connection = idle.poll();
+        boolean reused = connection != null;
+        if (reused) {
+            idleCount.decrementAndGet();
+        } else {
+            try {
+                connection = open();
+            } catch (IOException e) {
+                recordIfCancelled(start);
+                failures.increment();
+                throw new DownstreamException("Can not connect to " + name + " at " + address, e);
+            }
+        }
+        try {
+            String reply;
+            try {
+                reply = connection.exchange();
+            } catch (StaleConnectionException e) {
+                if (!reused) {
+                    throw e;
+                }
+                connection.close();
+                connection = open();
+                reply = connection.exchange();
+            }
+            observed.record(System.nanoTime() - start);
+            release(connection);
+            return reply;
+        } catch (DownstreamException | RuntimeException e) {
+            failures.increment();
+            connection.close();
+            throw e;
+        } catch (IOException e) {
+            recordIfCancelled(start);
+            failures.increment();
+            connection.close();
+            throw new DownstreamException("Call to " + name + " failed : " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Interrupting a virtual thread blocked on a socket closes the socket , the call then fails with the interrupt status set.
+     */
+    private void recordIfCancelled(long start) {
+        if (Thread.currentThread().isInterrupted()) {
+            observed.record(System.nanoTime() - start);
+        }
+    }
+
+    private Connection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        connectionsOpened.increment();
+        return new Connection(socket);
+    }
+
+    private void release(Connection connection) {
+        if (connection.keepAlive && idleCount.incrementAndGet() <= maxIdle) {
+            idle.add(connection);
+        } else {
+            if (connection.keepAlive) {
+                idleCount.decrementAndGet();
+            }
+            connection.close();
+        }
+    }
+
+    @Override
+    public long percentileNanos(double percentile) {
+        return observed.percentile(percentile);
+    }
+
+    @Override
+    public long recordedCalls() {
+        return observed.count();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    public long connectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    /**
+     * Closes the idle connections.
+     */
+    public void close() {
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            idleCount.decrementAndGet();
+            connection.close();
+        }
+    }
+
+    /**
+     * Thrown when a connection was closed before any byte of the reply arrived.
+     */
+    private static final class StaleConnectionException extends EOFException {
+
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException() {
+            super("Connection closed before the reply");
+        }
+    }
+
+    private final class Connection {
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] head = new byte[MAX_HEAD_BYTES];
+        private boolean keepAlive = true;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = socket.getOutputStream();
+        }
+
+        /**
+         * Sends a call and reads the reply.
+         */
+        String exchange() throws IOException {
+            out.write(requestHead);
+            out.flush();
+
+            int headLength = readHead();
+            String headText = new String(head, 0, headLength, StandardCharsets.US_ASCII);
+            int status = Integer.parseInt(headText.substring(9, 12));
+            int contentLength = 0;
+            for (String line : headText.split("\r\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    String header = line.substring(0, colon).trim();
+                    String value = line.substring(colon + 1).trim();
+                    if (header.equalsIgnoreCase("Content-Length")) {
+                        contentLength = Integer.parseInt(value);
+                    } else if (header.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) {
+                        keepAlive = false;
+                    }
+                }
+            }
+            byte[] body = in.readNBytes(contentLength);
+            if (body.length < contentLength) {
+                throw new EOFException("Connection closed after " + body.length + " of " + contentLength + " bytes of the reply");
+            }
+            if (status != 200) {
+                throw new DownstreamException("Call to " + name + " failed with status " + status);
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads the status line and headers into {@link #head}.
+         *
+         * @return length of the head , the final empty line excluded
+         */
+        private int readHead() throws IOException {
+            int length = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    if (length == 0) {
+                        throw new StaleConnectionException();
+                    }
+                    throw new EOFException("Connection closed in the reply head");
+                }
+                if (length == MAX_HEAD_BYTES) {
+                    throw new IOException("Reply head larger than " + MAX_HEAD_BYTES + " bytes");
+                }
+                head[length++] = (byte) b;
+                if (length >= 4 && head[length - 1] == '\n' && head[length - 2] == '\r' && head[length - 3] == '\n' && head[length - 4] == '\r') {
+                    return length - 4;
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to do with a broken connection
+            }
+        }
+    }
+}
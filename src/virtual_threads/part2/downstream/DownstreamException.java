@@ -0,0 +1,20 @@
+package virtual_threads.part2.downstream;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a call to a {@link Downstream} failed , with an error status , a reset or a timeout , handlers answer it
+ * with <code>502 Bad Gateway</code>.
+ */
+public class DownstreamException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DownstreamException(String message) {
+        super(message);
+    }
+
+    public DownstreamException(String message, IOException cause) {
+        super(message, cause);
+    }
+}
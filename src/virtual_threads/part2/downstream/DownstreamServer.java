@@ -0,0 +1,169 @@
+package virtual_threads.part2.downstream;
+
+import benchmark.BenchMarkHarness;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *   <b> ** Stand-in Downstream Server ** </b>
+ * </p>
+ * <p>
+ *   A local HTTP service playing the downstream of the part2 servers , so their handlers block on real socket reads
+ *   through a {@link DownstreamClient} instead of a {@link Thread#sleep(Duration)}. Every <code>POST /call</code> is answered
+ *   after a latency drawn from a {@link LatencyDistribution} , on a virtual thread per request. Errors are injected :
+ *   <ul>
+ *       <li><code>errorRate</code> : probability of answering with <code>errorStatus</code> (503) after the latency</li>
+ *       <li><code>resetRate</code> : probability of closing the connection after the latency without answering</li>
+ *   </ul>
+ *   <code>GET /metrics</code> serves the request , error and reset counts.
+ * </p>
+ *
+ * Example : <code>java -cp out virtual_threads.part2.downstream.DownstreamServer port=9000 latency=bimodal:10:200:0.02 errorRate=0.01</code>
+ */
+
+public final class DownstreamServer implements AutoCloseable {
+
+    public static final String CALL_PATH = "/call";
+
+    private static final byte[] REPLY = "ok".getBytes(StandardCharsets.UTF_8);
+
+    static {
+        // the head and the body of a reply are written separately , with Nagle on the body waits for the delayed ACK of the
+        // client , adding 40 ms to every other call
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer httpServer;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LatencyDistribution latency;
+    private final double errorRate;
+    private final double resetRate;
+    private final int errorStatus;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+
+    /**
+     * @param address     address to listen on , port 0 picks a free port , see {@link #port()}
+     * @param backlog     length of the accept queue
+     * @param latency     latency of every call
+     * @param errorRate   probability of answering a call with <code>errorStatus</code>
+     * @param resetRate   probability of closing the connection instead of answering a call
+     * @param errorStatus status of injected errors
+     */
+    public DownstreamServer(InetSocketAddress address, int backlog, LatencyDistribution latency, double errorRate,
+                            double resetRate, int errorStatus) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.resetRate = resetRate;
+        this.errorStatus = errorStatus;
+        this.httpServer = HttpServer.create(address, backlog);
+        httpServer.createContext(CALL_PATH, this::call);
+        httpServer.createContext("/metrics", this::metrics);
+        httpServer.setExecutor(executor);
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("port", "9000");
+        defaults.put("backlog", "1024");
+        defaults.put("latency", "lognormal:20:0.25");
+        defaults.put("errorRate", "0");
+        defaults.put("resetRate", "0");
+        defaults.put("errorStatus", "503");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        DownstreamServer server = new DownstreamServer(new InetSocketAddress(Integer.parseInt(params.get("port"))),
+                Integer.parseInt(params.get("backlog")), LatencyDistribution.parse(params.get("latency")),
+                Double.parseDouble(params.get("errorRate")), Double.parseDouble(params.get("resetRate")),
+                Integer.parseInt(params.get("errorStatus")));
+        server.start();
+        System.out.println("Downstream server has been Started on port : " + server.port() + " with " + params);
+    }
+
+    public DownstreamServer start() {
+        httpServer.start();
+        return this;
+    }
+
+    public int port() {
+        return httpServer.getAddress().getPort();
+    }
+
+    private void call(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            requestBody.transferTo(OutputStream.nullOutputStream());
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            Thread.sleep(Duration.ofNanos(latency.sampleNanos(random)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+            return;
+        }
+        double dice = random.nextDouble();
+        if (dice < resetRate) {
+            resets.increment();
+            // closing without a response drops the connection , the client sees it reset mid call
+            exchange.close();
+            return;
+        }
+        boolean error = dice < resetRate + errorRate;
+        if (error) {
+            errors.increment();
+        }
+        exchange.sendResponseHeaders(error ? errorStatus : 200, REPLY.length);
+        try (OutputStream outStream = exchange.getResponseBody()) {
+            outStream.write(REPLY);
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        byte[] body = ("downstream_requests_total " + requests.sum() + "\n"
+                + "downstream_errors_total " + errors.sum() + "\n"
+                + "downstream_resets_total " + resets.sum() + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outStream = exchange.getResponseBody()) {
+            outStream.write(body);
+        }
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    public long resets() {
+        return resets.sum();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executor.close();
+    }
+}
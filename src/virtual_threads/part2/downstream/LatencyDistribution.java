@@ -0,0 +1,91 @@
+package virtual_threads.part2.downstream;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * <p>
+ *   A distribution of downstream latencies , used by the {@link SimulatedDownstream} and the {@link DownstreamServer}.
+ * </p>
+ * <p>
+ *   Distributions are given as a spec , see {@link #parse(String)} :
+ *   <ul>
+ *       <li><code>fixed:&lt;ms&gt;</code> : always the same latency</li>
+ *       <li><code>lognormal:&lt;medianMs&gt;:&lt;sigma&gt;</code> : log-normal around the median , sigma is the standard
+ *           deviation of the log of the latency</li>
+ *       <li><code>bimodal:&lt;fastMedianMs&gt;:&lt;slowMedianMs&gt;:&lt;slowProbability&gt;[:&lt;sigma&gt;]</code> : two
+ *           log-normal modes (sigma 0.25 by default) , e.g. cache hits and misses , or a healthy and a GC pausing replica</li>
+ *       <li><code>replay:&lt;file&gt;</code> : latencies recorded from a real service , one in milliseconds per line ,
+ *           sampled at random , empty lines and lines starting with <code>#</code> are skipped</li>
+ *   </ul>
+ * </p>
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    /**
+     * @return a latency in nanos
+     */
+    long sampleNanos(RandomGenerator random);
+
+    static LatencyDistribution fixed(Duration latency) {
+        long nanos = latency.toNanos();
+        return random -> nanos;
+    }
+
+    static LatencyDistribution logNormal(Duration median, double sigma) {
+        long medianNanos = median.toNanos();
+        return random -> (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    static LatencyDistribution bimodal(LatencyDistribution fast, LatencyDistribution slow, double slowProbability) {
+        return random -> slowProbability > 0 && random.nextDouble() < slowProbability
+                ? slow.sampleNanos(random) : fast.sampleNanos(random);
+    }
+
+    static LatencyDistribution replay(Path file) throws IOException {
+        long[] latencies = Files.readAllLines(file).stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .mapToLong(line -> (long) (Double.parseDouble(line) * 1_000_000))
+                .toArray();
+        if (latencies.length == 0) {
+            throw new IOException("No latencies in " + file);
+        }
+        return random -> latencies[random.nextInt(latencies.length)];
+    }
+
+    /**
+     * Parses a distribution spec , see the class comment.
+     *
+     * @throws IllegalArgumentException if the spec is malformed
+     */
+    static LatencyDistribution parse(String spec) {
+        List<String> parts = List.of(spec.split(":", -1));
+        try {
+            return switch (parts.get(0)) {
+                case "fixed" -> fixed(millis(parts.get(1)));
+                case "lognormal" -> logNormal(millis(parts.get(1)), Double.parseDouble(parts.get(2)));
+                case "bimodal" -> {
+                    double sigma = parts.size() > 4 ? Double.parseDouble(parts.get(4)) : 0.25;
+                    yield bimodal(logNormal(millis(parts.get(1)), sigma), logNormal(millis(parts.get(2)), sigma),
+                            Double.parseDouble(parts.get(3)));
+                }
+                case "replay" -> replay(Path.of(spec.substring("replay:".length())));
+                default -> throw new IllegalArgumentException("Unknown latency distribution : " + spec);
+            };
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed latency distribution : " + spec, e);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can not read latency distribution : " + spec, e);
+        }
+    }
+
+    private static Duration millis(String value) {
+        return Duration.ofNanos((long) (Double.parseDouble(value) * 1_000_000));
+    }
+}
@@ -0,0 +1,127 @@
+package virtual_threads.part2.downstream;
+
+import benchmark.LatencyHistogram;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * <p>
+ *   <b> ** Simulated Downstream ** </b>
+ * </p>
+ * <p>
+ *   Stands in for a remote service called by a request : {@link #call()} blocks the calling thread for a random latency and
+ *   then replies with the name of the downstream , or fails with an {@link IOException}.
+ * </p>
+ * <p>
+ *   Latencies are drawn from a {@link LatencyDistribution} , by default log-normal around <code>median</code> with the
+ *   spread <code>sigma</code> , and with probability <code>tailProbability</code> a call is <code>tailMultiplier</code> times
+ *   slower , the GC pause or the overloaded replica that makes the tail of a real service. The blocking is a
+ *   {@link Thread#sleep(Duration)} , which unmounts a virtual thread and is interruptible , so a cancelled call stops right
+ *   away. To block on a real socket read instead use a {@link DownstreamClient}.
+ * </p>
+ * <p>
+ *   The latency of every completed call is recorded , see {@link #percentileNanos(double)}. A cancelled call is recorded
+ *   with the time it slept until it was interrupted.
+ * </p>
+ */
+
+public final class SimulatedDownstream implements Downstream {
+
+    private final String name;
+    private final LatencyDistribution latency;
+    private final double failureRate;
+    private final LatencyHistogram observed = new LatencyHistogram();
+
+    /**
+     * @param name            name of the downstream , also its reply
+     * @param median          median latency of a call
+     * @param sigma           standard deviation of the log of the latency , 0 for a constant latency
+     * @param tailProbability probability of a call being slow
+     * @param tailMultiplier  how much slower a slow call is
+     * @param failureRate     probability of a call failing , after its latency
+     */
+    public SimulatedDownstream(String name, Duration median, double sigma, double tailProbability, double tailMultiplier,
+                               double failureRate) {
+        this(name, LatencyDistribution.bimodal(LatencyDistribution.logNormal(median, sigma),
+                LatencyDistribution.logNormal(Duration.ofNanos((long) (median.toNanos() * tailMultiplier)), sigma), tailProbability),
+                failureRate);
+    }
+
+    /**
+     * @param name        name of the downstream , also its reply
+     * @param latency     latency of a call
+     * @param failureRate probability of a call failing , after its latency
+     */
+    public SimulatedDownstream(String name, LatencyDistribution latency, double failureRate) {
+        this.name = name;
+        this.latency = latency;
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Creates a downstream configured by the system properties <code>downstream.medianMillis</code> (default 20) ,
+     * <code>downstream.sigma</code> (0.25) , <code>downstream.tailProbability</code> (0.01) ,
+     * <code>downstream.tailMultiplier</code> (10) and <code>downstream.failureRate</code> (0) , or by a
+     * <code>downstream.latency</code> spec , see {@link LatencyDistribution#parse(String)}.
+     */
+    public static SimulatedDownstream fromSystemProperties(String name) {
+        String latency = System.getProperty("downstream.latency");
+        if (latency != null) {
+            return new SimulatedDownstream(name, LatencyDistribution.parse(latency),
+                    Double.parseDouble(System.getProperty("downstream.failureRate", "0")));
+        }
+        return new SimulatedDownstream(name,
+                Duration.ofMillis(Long.getLong("downstream.medianMillis", 20)),
+                Double.parseDouble(System.getProperty("downstream.sigma", "0.25")),
+                Double.parseDouble(System.getProperty("downstream.tailProbability", "0.01")),
+                Double.parseDouble(System.getProperty("downstream.tailMultiplier", "10")),
+                Double.parseDouble(System.getProperty("downstream.failureRate", "0")));
+    }
+
+    /**
+     * Performs a call , blocking for its latency.
+     *
+     * @return the name of the downstream
+     */
+    @Override
+    public String call() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            Thread.sleep(Duration.ofNanos(sampleLatencyNanos(random)));
+        } catch (InterruptedException e) {
+            observed.record(System.nanoTime() - start);
+            throw e;
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            throw new IOException("Call to " + name + " failed");
+        }
+        observed.record(System.nanoTime() - start);
+        return name;
+    }
+
+    /**
+     * Draws a latency from the distribution of this downstream.
+     */
+    public long sampleLatencyNanos(RandomGenerator random) {
+        return latency.sampleNanos(random);
+    }
+
+    @Override
+    public long percentileNanos(double percentile) {
+        return observed.percentile(percentile);
+    }
+
+    @Override
+    public long recordedCalls() {
+        return observed.count();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+}
@@ -0,0 +1,240 @@
+package virtual_threads.part2.downstream;
+
+import virtual_threads.part2.context.RequestContext;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.StructuredTaskScope.Subtask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *   <b> ** Structured Fan-Out ** </b>
+ * </p>
+ * <p>
+ *   Calls every {@link Downstream} of a request concurrently , each on its own virtual thread forked into a
+ *   {@link StructuredTaskScope} (a preview API of JDK 21 , compile and run with <code>--enable-preview</code>) :
+ *   <ul>
+ *       <li>{@link Mode#ALL} needs every reply , a {@link StructuredTaskScope.ShutdownOnFailure} cancels the other calls as
+ *           soon as one fails.</li>
+ *       <li>{@link Mode#ANY} needs a single reply , as from replicas , a {@link StructuredTaskScope.ShutdownOnSuccess}
+ *           cancels the other calls as soon as one succeeds.</li>
+ *   </ul>
+ *   Either way the request has a deadline , once it passes the scope is shut down , which interrupts every call still
+ *   running , and {@link #fanOut()} throws a {@link TimeoutException}. No call outlives the request that made it. A
+ *   {@link RequestContext} with an earlier deadline shortens it , and is seen by every call since subtasks inherit the
+ *   scoped values of the thread that forked them.
+ * </p>
+ * <p>
+ *   <b>Hedging :</b> with a <code>hedgePercentile</code> above 0 , a call that is still running after the latency that
+ *   percentile of the downstream's calls completed within gets a second , identical call. The first reply wins and the
+ *   other call is cancelled , again by a nested {@link StructuredTaskScope.ShutdownOnSuccess}. Hedging at p95 costs about
+ *   5% extra calls and cuts the slow tail of a single call down to roughly p95 plus a median. The delay is only known once a
+ *   downstream recorded <code>hedgeMinSamples</code> calls , before that nothing is hedged. Primaries cancelled by their
+ *   hedge are recorded with the time they ran , see {@link Downstream#percentileNanos(double)} , otherwise the percentile
+ *   would shrink with every hedge won and the hedges would fire earlier and earlier.
+ * </p>
+ */
+
+public final class StructuredFanOut {
+
+    public enum Mode {
+        ALL, ANY
+    }
+
+    private final List<Downstream> downstreams;
+    private final Mode mode;
+    private final Duration deadline;
+    private final double hedgePercentile;
+    private final long hedgeMinSamples;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * @param downstreams     downstreams called by every request
+     * @param mode            whether a request needs all replies or any one
+     * @param deadline        time budget of a request
+     * @param hedgePercentile percentile of a downstream's latency after which a call is hedged , 0 disables hedging
+     * @param hedgeMinSamples recorded calls of a downstream before its calls are hedged
+     */
+    public StructuredFanOut(List<? extends Downstream> downstreams, Mode mode, Duration deadline, double hedgePercentile,
+                            long hedgeMinSamples) {
+        if (downstreams.isEmpty()) {
+            throw new IllegalArgumentException("At least one downstream is required");
+        }
+        this.downstreams = List.copyOf(downstreams);
+        this.mode = mode;
+        this.deadline = deadline;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinSamples = hedgeMinSamples;
+    }
+
+    /**
+     * Creates a fan-out configured by the system properties <code>fanOut.calls</code> (default 3) , <code>fanOut.mode</code>
+     * (all) , <code>fanOut.deadlineMillis</code> (500) , <code>fanOut.hedgePercentile</code> (0 , no hedging) and
+     * <code>fanOut.hedgeMinSamples</code> (100). The downstreams are configured by the <code>downstream.*</code> properties ,
+     * they call a {@link DownstreamServer} if <code>downstream.address</code> is set , see
+     * {@link DownstreamClient#fromSystemProperties(String)} , and are simulated otherwise , see
+     * {@link SimulatedDownstream#fromSystemProperties(String)}.
+     */
+    public static StructuredFanOut fromSystemProperties() {
+        int calls = Integer.getInteger("fanOut.calls", 3);
+        List<Downstream> downstreams = new ArrayList<>(calls);
+        for (int i = 0; i < calls; i++) {
+            DownstreamClient client = DownstreamClient.fromSystemProperties("downstream-" + i);
+            downstreams.add(client != null ? client : SimulatedDownstream.fromSystemProperties("downstream-" + i));
+        }
+        return new StructuredFanOut(downstreams,
+                Mode.valueOf(System.getProperty("fanOut.mode", "all").toUpperCase(Locale.ROOT)),
+                Duration.ofMillis(Long.getLong("fanOut.deadlineMillis", 500)),
+                Double.parseDouble(System.getProperty("fanOut.hedgePercentile", "0")),
+                Long.getLong("fanOut.hedgeMinSamples", 100));
+    }
+
+    /**
+     * Calls the downstreams of a request.
+     *
+     * @return the replies , one per downstream in {@link Mode#ALL} , a single one in {@link Mode#ANY}
+     * @throws IOException      if a downstream failed in {@link Mode#ALL} , or all of them in {@link Mode#ANY}
+     * @throws TimeoutException if the deadline passed first
+     */
+    public List<String> fanOut() throws IOException, TimeoutException, InterruptedException {
+        requests.increment();
+        Instant requestDeadline = Instant.now().plus(deadline);
+        RequestContext context = RequestContext.current();
+        if (context != null && context.remainingNanos() < deadline.toNanos()) {
+            requestDeadline = Instant.now().plusNanos(context.remainingNanos());
+        }
+        try {
+            return mode == Mode.ALL ? all(requestDeadline) : List.of(any(requestDeadline));
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw e;
+        } catch (IOException e) {
+            failures.increment();
+            throw e;
+        }
+    }
+
+    private List<String> all(Instant requestDeadline) throws IOException, TimeoutException, InterruptedException {
+        try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+            List<Subtask<String>> subtasks = new ArrayList<>(downstreams.size());
+            for (Downstream downstream : downstreams) {
+                subtasks.add(scope.fork(() -> call(downstream)));
+            }
+            joinUntil(scope, requestDeadline);
+            scope.throwIfFailed(StructuredFanOut::asIOException);
+            List<String> replies = new ArrayList<>(subtasks.size());
+            for (Subtask<String> subtask : subtasks) {
+                replies.add(subtask.get());
+            }
+            return replies;
+        }
+    }
+
+    private String any(Instant requestDeadline) throws IOException, TimeoutException, InterruptedException {
+        try (var scope = new StructuredTaskScope.ShutdownOnSuccess<String>()) {
+            for (Downstream downstream : downstreams) {
+                scope.fork(() -> call(downstream));
+            }
+            joinUntil(scope, requestDeadline);
+            return scope.result(StructuredFanOut::asIOException);
+        }
+    }
+
+    /**
+     * Calls a downstream , hedging the call if it takes longer than the hedge percentile. Runs in a subtask , cancelling
+     * the request interrupts it and the nested scope cancels both calls.
+     */
+    private String call(Downstream downstream) throws Exception {
+        calls.increment();
+        long hedgeDelayNanos = hedgeDelayNanos(downstream);
+        if (hedgeDelayNanos < 0) {
+            return downstream.call();
+        }
+        try (var scope = new StructuredTaskScope.ShutdownOnSuccess<Reply>()) {
+            scope.fork(() -> new Reply(downstream.call(), false));
+            scope.fork(() -> {
+                Thread.sleep(Duration.ofNanos(hedgeDelayNanos));
+                hedges.increment();
+                calls.increment();
+                return new Reply(downstream.call(), true);
+            });
+            scope.join();
+            Reply reply = scope.result(StructuredFanOut::asIOException);
+            if (reply.hedged()) {
+                hedgeWins.increment();
+            }
+            return reply.body();
+        }
+    }
+
+    private long hedgeDelayNanos(Downstream downstream) {
+        if (hedgePercentile <= 0 || downstream.recordedCalls() < hedgeMinSamples) {
+            return -1;
+        }
+        return downstream.percentileNanos(hedgePercentile);
+    }
+
+    /**
+     * Joins the scope , shutting it down if the deadline passes first so the calls still running are cancelled.
+     */
+    private static void joinUntil(StructuredTaskScope<?> scope, Instant requestDeadline) throws InterruptedException, TimeoutException {
+        try {
+            scope.joinUntil(requestDeadline);
+        } catch (TimeoutException e) {
+            scope.shutdown();
+            throw e;
+        }
+    }
+
+    private static IOException asIOException(Throwable failure) {
+        return failure instanceof IOException ioException ? ioException : new IOException(failure);
+    }
+
+    public void writeMetrics(StringBuilder out) {
+        out.append("fan_out_requests_total ").append(requests.sum()).append('\n');
+        out.append("fan_out_timeouts_total ").append(timeouts.sum()).append('\n');
+        out.append("fan_out_failures_total ").append(failures.sum()).append('\n');
+        out.append("fan_out_calls_total ").append(calls.sum()).append('\n');
+        out.append("fan_out_hedges_total ").append(hedges.sum()).append('\n');
+        out.append("fan_out_hedge_wins_total ").append(hedgeWins.sum()).append('\n');
+    }
+
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return calls made , hedges included
+     */
+    public long calls() {
+        return calls.sum();
+    }
+
+    public long hedges() {
+        return hedges.sum();
+    }
+
+    public long hedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    private record Reply(String body, boolean hedged) {
+    }
+}
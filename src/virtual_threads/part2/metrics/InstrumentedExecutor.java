@@ -0,0 +1,62 @@
+package virtual_threads.part2.metrics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *   Wraps the executor of a server to record how long every request waits before a thread picks it up , into
+ *   {@link ServerMetrics#queueLatency()} , and how many requests are running at the moment , in total and on virtual threads.
+ * </p>
+ * <p>
+ *   The JDK has no public count of live virtual threads , with a virtual thread per request the number of running tasks
+ *   on virtual threads is that count. For a {@link ThreadPoolExecutor} or a {@link ForkJoinPool} delegate the pool's own
+ *   active thread and queued task counts are exported as well.
+ * </p>
+ */
+
+public final class InstrumentedExecutor implements Executor, MetricsContributor {
+
+    private final Executor delegate;
+    private final ServerMetrics metrics;
+    private final LongAdder running = new LongAdder();
+    private final LongAdder runningVirtual = new LongAdder();
+
+    public InstrumentedExecutor(Executor delegate, ServerMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long submitted = System.nanoTime();
+        delegate.execute(() -> {
+            metrics.queueLatency().record(System.nanoTime() - submitted);
+            LongAdder counter = Thread.currentThread().isVirtual() ? runningVirtual : running;
+            counter.increment();
+            try {
+                task.run();
+            } finally {
+                counter.decrement();
+            }
+        });
+    }
+
+    @Override
+    public void writeTo(StringBuilder out) {
+        long virtual = runningVirtual.sum();
+        out.append("server_executor_running_tasks ").append(running.sum() + virtual).append('\n');
+        out.append("server_executor_virtual_threads ").append(virtual).append('\n');
+        if (delegate instanceof ThreadPoolExecutor pool) {
+            out.append("server_executor_active_threads ").append(pool.getActiveCount()).append('\n');
+            out.append("server_executor_pool_threads ").append(pool.getPoolSize()).append('\n');
+            out.append("server_executor_queued_tasks ").append(pool.getQueue().size()).append('\n');
+        } else if (delegate instanceof ForkJoinPool pool) {
+            out.append("server_executor_active_threads ").append(pool.getActiveThreadCount()).append('\n');
+            out.append("server_executor_pool_threads ").append(pool.getPoolSize()).append('\n');
+            out.append("server_executor_queued_tasks ").append(pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package virtual_threads.part2.metrics;
+
+/**
+ * Adds component specific lines , e.g. the state of an admission limiter , to the output of {@link ServerMetrics}.
+ */
+
+@FunctionalInterface
+public interface MetricsContributor {
+
+    /**
+     * Appends metrics in the Prometheus text format , one <code>name value</code> pair per line.
+     */
+    void writeTo(StringBuilder out);
+}
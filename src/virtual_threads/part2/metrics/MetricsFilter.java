@@ -0,0 +1,100 @@
+package virtual_threads.part2.metrics;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ *   Records every request passing through a context into {@link ServerMetrics} : in flight count , total latency ,
+ *   status and the bytes read from the request body and written to the response body.
+ * </p>
+ * <p>
+ *   Added as the first filter of a context , so requests shed by an admission filter behind it are counted too.
+ * </p>
+ */
+
+public class MetricsFilter extends Filter {
+
+    private final ServerMetrics metrics;
+
+    public MetricsFilter(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long start = System.nanoTime();
+        metrics.requestStarted();
+        exchange.setStreams(new CountingInputStream(exchange.getRequestBody(), metrics),
+                new CountingOutputStream(exchange.getResponseBody(), metrics));
+        int statusCode = -1;
+        try {
+            chain.doFilter(exchange);
+            statusCode = exchange.getResponseCode();
+        } finally {
+            metrics.requestFinished(System.nanoTime() - start, statusCode);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Request metrics";
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final ServerMetrics metrics;
+
+        CountingInputStream(InputStream in, ServerMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                metrics.bytesReceived(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (count > 0) {
+                metrics.bytesReceived(count);
+            }
+            return count;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private final ServerMetrics metrics;
+
+        CountingOutputStream(OutputStream out, ServerMetrics metrics) {
+            super(out);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            metrics.bytesSent(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // FilterOutputStream would write byte by byte
+            out.write(b, off, len);
+            metrics.bytesSent(len);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package virtual_threads.part2.metrics;
+
+import benchmark.LatencyHistogram;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ *   <b> ** Server Metrics ** </b>
+ * </p>
+ * <p>
+ *   Telemetry of a part2 server , rendered in the Prometheus text format by {@link #writeTo(StringBuilder)} :
+ *   <ul>
+ *       <li><b>requests and errors</b> : totals , plus the request rate since the previous scrape</li>
+ *       <li><b>phase latencies</b> : histograms of the time a request spends queued for a thread , uploading its body and
+ *           writing its response , and of the whole request</li>
+ *       <li><b>concurrency</b> : requests in flight and the peak since startup</li>
+ *       <li><b>bytes</b> received and sent</li>
+ *       <li><b>executor</b> : running tasks , virtual threads , and for thread pools active threads and queued tasks ,
+ *           see {@link InstrumentedExecutor}</li>
+ *   </ul>
+ * </p>
+ * <p>
+ *   Counters are {@link LongAdder}s and histograms are {@link StripedLatencyHistogram}s , recording is allocation free and
+ *   spreads concurrent updates over several cells. Only the in flight gauge is a single atomic , the peak needs an exact
+ *   current value. The state of the previous scrape is guarded by a {@link ReentrantLock} rather than
+ *   <code>synchronized</code> , a virtual thread scraping while another one does never pins its carrier.
+ * </p>
+ */
+
+public final class ServerMetrics {
+
+    /** Upper bounds of the exported histogram buckets , in seconds. */
+    private static final String[] BUCKET_BOUNDS = {
+            "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5",
+            "1", "2.5", "5", "10", "30", "60", "300"};
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    private final StripedLatencyHistogram queueLatency;
+    private final StripedLatencyHistogram uploadLatency;
+    private final StripedLatencyHistogram responseLatency;
+    private final StripedLatencyHistogram requestLatency;
+
+    private final List<MetricsContributor> contributors = new CopyOnWriteArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private final ReentrantLock scrapeLock = new ReentrantLock();
+    private long lastScrapeNanos = startNanos;
+    private long lastScrapeRequests;
+
+    public ServerMetrics() {
+        this(Math.min(64, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param stripes number of stripes per latency histogram
+     */
+    public ServerMetrics(int stripes) {
+        this.queueLatency = new StripedLatencyHistogram(stripes);
+        this.uploadLatency = new StripedLatencyHistogram(stripes);
+        this.responseLatency = new StripedLatencyHistogram(stripes);
+        this.requestLatency = new StripedLatencyHistogram(stripes);
+    }
+
+    public void requestStarted() {
+        int current = inFlight.incrementAndGet();
+        int peak = peakInFlight.get();
+        while (current > peak && !peakInFlight.compareAndSet(peak, current)) {
+            peak = peakInFlight.get();
+        }
+    }
+
+    /**
+     * @param statusCode response code , 5xx responses and <code>-1</code> for a request that failed before responding count as errors
+     */
+    public void requestFinished(long latencyNanos, int statusCode) {
+        inFlight.decrementAndGet();
+        requests.increment();
+        if (statusCode >= 500 || statusCode < 0) {
+            errors.increment();
+        }
+        requestLatency.record(latencyNanos);
+    }
+
+    public void bytesReceived(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void bytesSent(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /** Time between handing a request to the executor and a thread starting to run it. */
+    public StripedLatencyHistogram queueLatency() {
+        return queueLatency;
+    }
+
+    /** Time spent reading the request body and writing it to storage. */
+    public StripedLatencyHistogram uploadLatency() {
+        return uploadLatency;
+    }
+
+    /** Time spent sending the response. */
+    public StripedLatencyHistogram responseLatency() {
+        return responseLatency;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public int peakInFlight() {
+        return peakInFlight.get();
+    }
+
+    public void register(MetricsContributor contributor) {
+        contributors.add(contributor);
+    }
+
+    /**
+     * Appends all metrics in the Prometheus text format.
+     */
+    public void writeTo(StringBuilder out) {
+        long requestCount = requests.sum();
+        long now = System.nanoTime();
+        double rate;
+        scrapeLock.lock();
+        try {
+            long elapsedNanos = now - lastScrapeNanos;
+            rate = elapsedNanos == 0 ? 0 : (requestCount - lastScrapeRequests) * 1e9 / elapsedNanos;
+            lastScrapeNanos = now;
+            lastScrapeRequests = requestCount;
+        } finally {
+            scrapeLock.unlock();
+        }
+
+        out.append("server_uptime_seconds ").append((now - startNanos) / 1e9).append('\n');
+        out.append("server_requests_total ").append(requestCount).append('\n');
+        out.append("server_request_errors_total ").append(errors.sum()).append('\n');
+        out.append("server_requests_per_second ").append(rate).append('\n');
+        out.append("server_in_flight_requests ").append(inFlight.get()).append('\n');
+        out.append("server_in_flight_requests_peak ").append(peakInFlight.get()).append('\n');
+        out.append("server_received_bytes_total ").append(bytesIn.sum()).append('\n');
+        out.append("server_sent_bytes_total ").append(bytesOut.sum()).append('\n');
+
+        String[] phases = {"queue", "upload", "response", "total"};
+        LatencyHistogram[] histograms = {queueLatency.snapshot(), uploadLatency.snapshot(),
+                responseLatency.snapshot(), requestLatency.snapshot()};
+        out.append("# TYPE server_request_phase_seconds histogram\n");
+        for (int i = 0; i < phases.length; i++) {
+            writeHistogram(out, phases[i], histograms[i]);
+        }
+        // precomputed for a quick look with curl , Prometheus itself derives quantiles from the buckets
+        for (int i = 0; i < phases.length; i++) {
+            out.append("server_request_phase_p99_seconds{phase=\"").append(phases[i]).append("\"} ")
+                    .append(histograms[i].percentile(99) / 1e9).append('\n');
+        }
+
+        for (MetricsContributor contributor : contributors) {
+            contributor.writeTo(out);
+        }
+    }
+
+    private static void writeHistogram(StringBuilder out, String phase, LatencyHistogram histogram) {
+        for (String bound : BUCKET_BOUNDS) {
+            long boundNanos = (long) (Double.parseDouble(bound) * TimeUnit.SECONDS.toNanos(1));
+            out.append("server_request_phase_seconds_bucket{phase=\"").append(phase).append("\",le=\"").append(bound).append("\"} ")
+                    .append(histogram.countAtOrBelow(boundNanos)).append('\n');
+        }
+        out.append("server_request_phase_seconds_bucket{phase=\"").append(phase).append("\",le=\"+Inf\"} ")
+                .append(histogram.count()).append('\n');
+        out.append("server_request_phase_seconds_sum{phase=\"").append(phase).append("\"} ")
+                .append(histogram.sum() / 1e9).append('\n');
+        out.append("server_request_phase_seconds_count{phase=\"").append(phase).append("\"} ")
+                .append(histogram.count()).append('\n');
+    }
+}
@@ -0,0 +1,49 @@
+package virtual_threads.part2.metrics;
+
+import benchmark.LatencyHistogram;
+
+/**
+ * <p>
+ *   A {@link LatencyHistogram} split into a power of two number of stripes. A value is recorded into the stripe picked by
+ *   the id of the recording thread , so concurrent request threads mostly update different counters instead of all
+ *   contending on the same few cache lines.
+ * </p>
+ * <p>
+ *   Recording allocates nothing , reading merges the stripes into a new histogram with {@link #snapshot()}.
+ * </p>
+ */
+
+public final class StripedLatencyHistogram {
+
+    private final LatencyHistogram[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripes number of stripes , rounded up to a power of two
+     */
+    public StripedLatencyHistogram(int stripes) {
+        int count = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new LatencyHistogram[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(long nanos) {
+        // thread ids are handed out sequentially , virtual thread ids included , mixing spreads neighbours over the stripes
+        long id = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        stripes[(int) (id >>> 32) & mask].record(nanos);
+    }
+
+    /**
+     * @return a new histogram holding the values of all stripes
+     */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram stripe : stripes) {
+            merged.add(stripe);
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,149 @@
+package virtual_threads.part2.servers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ *   <b> ** Adaptive Concurrency Limiter ** </b>
+ * </p>
+ * <p>
+ *   Caps the number of requests in flight with a limit that follows the observed latency , AIMD style :
+ *   <ul>
+ *       <li>The lowest latency seen during the last window is taken as the no-load latency of the server.</li>
+ *       <li>While requests complete within <code>tolerance</code> times that latency and the limit is actually used ,
+ *           the limit grows by about one per limit-worth of completed requests (additive increase).</li>
+ *       <li>A request slower than that , or a failed one , multiplies the limit by <code>backoffRatio</code> , at most
+ *           once per no-load latency so a single burst of slow requests only counts once (multiplicative decrease).</li>
+ *   </ul>
+ *   When a slow disk makes every request slower the limit shrinks until the queueing stops , instead of letting
+ *   millions of virtual threads pile up behind it.
+ * </p>
+ * <p>
+ *   {@link #tryAcquire()} never blocks , callers are expected to reject the request when it returns <code>false</code>.
+ *   The limit is adjusted under a {@link ReentrantLock} , never <code>synchronized</code> , so virtual threads are not pinned.
+ * </p>
+ */
+
+public final class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final long windowNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile double limit;
+    private volatile long noLoadLatencyNanos = Long.MAX_VALUE;
+    private long windowMinLatencyNanos = Long.MAX_VALUE;
+    private long windowStart = System.nanoTime();
+    private long lastDecrease;
+
+    /**
+     * @param initialLimit limit to start with
+     * @param minLimit     the limit never drops below this
+     * @param maxLimit     the limit never grows above this
+     * @param tolerance    how many times the no-load latency a request may take before it counts as congestion
+     * @param backoffRatio factor applied to the limit on congestion , between 0 and 1
+     * @param window       how long the lowest latency is tracked before it becomes the new no-load latency
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoffRatio, long window, TimeUnit unit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * Creates a limiter configured by the system properties <code>admission.initialLimit</code> (default 100) ,
+     * <code>admission.minLimit</code> (10) , <code>admission.maxLimit</code> (10000) , <code>admission.tolerance</code> (2.0) ,
+     * <code>admission.backoffRatio</code> (0.9) and <code>admission.windowMillis</code> (10000).
+     */
+    public static AdaptiveConcurrencyLimiter fromSystemProperties() {
+        return new AdaptiveConcurrencyLimiter(
+                Integer.getInteger("admission.initialLimit", 100),
+                Integer.getInteger("admission.minLimit", 10),
+                Integer.getInteger("admission.maxLimit", 10_000),
+                Double.parseDouble(System.getProperty("admission.tolerance", "2.0")),
+                Double.parseDouble(System.getProperty("admission.backoffRatio", "0.9")),
+                Long.getLong("admission.windowMillis", 10_000), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return <code>true</code> if the request may proceed , it must then call {@link #release(long, boolean)} once done
+     */
+    public boolean tryAcquire() {
+        int current = inFlight.get();
+        while (current < (int) limit) {
+            if (inFlight.compareAndSet(current, current + 1)) {
+                accepted.increment();
+                return true;
+            }
+            current = inFlight.get();
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * @param latencyNanos how long the admitted request took
+     * @param failed       whether the request failed , which always counts as congestion
+     */
+    public void release(long latencyNanos, boolean failed) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latencyNanos);
+            if (noLoadLatencyNanos == Long.MAX_VALUE || now - windowStart >= windowNanos) {
+                noLoadLatencyNanos = windowMinLatencyNanos;
+                windowMinLatencyNanos = Long.MAX_VALUE;
+                windowStart = now;
+            }
+            double current = limit;
+            if (failed || latencyNanos > noLoadLatencyNanos * tolerance) {
+                if (now - lastDecrease >= noLoadLatencyNanos) {
+                    limit = Math.max(minLimit, current * backoffRatio);
+                    lastDecrease = now;
+                }
+            } else if (inFlightBefore * 2 >= current) {
+                // only grow while the limit is actually the bottleneck
+                limit = Math.min(maxLimit, current + 1.0 / current);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int limit() {
+        return (int) limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long accepted() {
+        return accepted.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the current no-load latency estimate in nanos , <code>0</code> before the first request completed
+     */
+    public long noLoadLatencyNanos() {
+        long latency = noLoadLatencyNanos;
+        return latency == Long.MAX_VALUE ? 0 : latency;
+    }
+}
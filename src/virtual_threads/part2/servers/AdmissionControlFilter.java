@@ -0,0 +1,49 @@
+package virtual_threads.part2.servers;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ *   Load shedding in front of the request handlers : a request that the {@link AdaptiveConcurrencyLimiter} does not admit
+ *   is answered right away with <code>503 Service Unavailable</code> and a <code>Retry-After</code> header , without ever
+ *   reaching the handler. Admitted requests report their latency back to the limiter , a thrown exception or a 5xx
+ *   response counts as failed.
+ * </p>
+ */
+
+public class AdmissionControlFilter extends Filter {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final String retryAfterSeconds;
+
+    public AdmissionControlFilter(AdaptiveConcurrencyLimiter limiter, int retryAfterSeconds) {
+        this.limiter = limiter;
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (!limiter.tryAcquire()) {
+            exchange.getResponseHeaders().set("Retry-After", retryAfterSeconds);
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(exchange);
+            failed = exchange.getResponseCode() >= 500;
+        } finally {
+            limiter.release(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Adaptive admission control";
+    }
+}
@@ -1,16 +1,75 @@
 package virtual_threads.part2.servers;
 
+import benchmark.BenchMarkHarness;
+import benchmark.LatencyHistogram;
+
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ *   <b> ** Open loop load generator ** </b>
+ * </p>
+ * <p>
+ *   Sends requests at a constant target rate , no matter how many earlier requests are still waiting for a response.
+ *   A closed loop client , a fixed number of threads each sending the next request once the previous one returned , slows
+ *   down together with the server and silently stops measuring the very stalls it should report (coordinated omission).
+ * </p>
+ * <p>
+ *   Request <code>i</code> is scheduled for <code>start + i / rate</code> and its latency is measured from that intended
+ *   send time , not from the moment it was actually sent. If the generator itself falls behind , the delay is charged to
+ *   the request. The uncorrected service time , measured from the actual send , is reported next to it.
+ * </p>
+ * <p>
+ *   Client modes :
+ *   <ul>
+ *       <li><code>shared</code> : <code>clients</code> shared {@link HttpClient}s , used round robin , send with
+ *           {@link HttpClient#sendAsync} and discard the response body. Connections are kept alive and reused like our real
+ *           callers do. At most <code>maxOutstanding</code> requests are in flight , beyond that the generator waits ,
+ *           and the wait is charged to the latency of the delayed requests.</li>
+ *       <li><code>per-request</code> : every request is sent from its own virtual thread with a new {@link HttpClient} ,
+ *           paying for a new connection and a new selector thread every time.</li>
+ *   </ul>
+ * </p>
+ * <p>
+ *   The run prints the target , sent and completed requests per second of the run , both latency histograms and the number
+ *   of connections opened. The JDK client does not expose its connections , on Linux they are counted by sampling the
+ *   sockets in <code>/proc/self/fd</code> every few milliseconds , which can miss connections shorter than the interval.
+ * </p>
+ *
+ * Parameters (<code>key=value</code>) :
+ * <ul>
+ *     <li><code>uri</code> : target , default the {@link VirtualThreaded_HttpServer} , <code>platform</code> and <code>virtual</code>
+ *         select the preset servers</li>
+ *     <li><code>rate</code> : target requests per second</li>
+ *     <li><code>durationSeconds</code> : how long requests are sent</li>
+ *     <li><code>payloadBytes</code> : size of the posted JSON body</li>
+ *     <li><code>timeoutSeconds</code> : request timeout , and how long to wait for outstanding requests at the end</li>
+ *     <li><code>client</code> : <code>shared</code> or <code>per-request</code></li>
+ *     <li><code>clients</code> : number of shared clients</li>
+ *     <li><code>maxOutstanding</code> : maximum requests in flight with shared clients</li>
+ * </ul>
+ *
+ * Example : <code>java -cp out virtual_threads.part2.servers.AsyncClientServer uri=platform rate=500 durationSeconds=60 payloadBytes=4096</code>
+ */
 
 public class AsyncClientServer {
 
@@ -18,52 +77,270 @@ public class AsyncClientServer {
     private static final String PLATFORM_THREAD_URI = "http://localhost:9000/platformthread/execute";
     private static final String VIRTUAL_THREAD_URI = "http://localhost:8000/virtualthread/execute";
 
-    /********** Request parameters and executor  *************/
-    private static final int NUM_REQUESTS = 10_000; // adjust this to simulate the desired load
-    private static final int CONCURRENCY_LEVEL = Runtime.getRuntime().availableProcessors() ; // adjust this to simulate the desired concurrency
-    static ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY_LEVEL);
+    public static void main(String[] args) throws InterruptedException {
 
-    /**
-     * Method will be executing the <code>{@link #sendRequest() }</code> method in parallel for <code>{@link #NUM_REQUESTS}</code> times.
-     * @param args
-     * @throws IOException
-     * @throws InterruptedException
-     */
-    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("uri", VIRTUAL_THREAD_URI);
+        defaults.put("rate", "100");
+        defaults.put("durationSeconds", "30");
+        defaults.put("payloadBytes", "16");
+        defaults.put("timeoutSeconds", "300");
+        defaults.put("client", "shared");
+        defaults.put("clients", "1");
+        defaults.put("maxOutstanding", "10000");
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
 
-        Instant now = Instant.now();
-        for (int i = 0; i < NUM_REQUESTS; i++) {
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                try {
+        URI uri = URI.create(switch (params.get("uri")) {
+            case "platform" -> PLATFORM_THREAD_URI;
+            case "virtual" -> VIRTUAL_THREAD_URI;
+            default -> params.get("uri");
+        });
+        double rate = Double.parseDouble(params.get("rate"));
+        int durationSeconds = Integer.parseInt(params.get("durationSeconds"));
+        String payload = payload(Integer.parseInt(params.get("payloadBytes")));
+        Duration timeout = Duration.ofSeconds(Long.parseLong(params.get("timeoutSeconds")));
+        boolean shared = switch (params.get("client")) {
+            case "shared" -> true;
+            case "per-request" -> false;
+            default -> throw new IllegalArgumentException("Unknown client mode : " + params.get("client") + " , expected shared or per-request");
+        };
+        HttpClient[] clients = new HttpClient[shared ? Integer.parseInt(params.get("clients")) : 0];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = newClient();
+        }
+        Semaphore outstandingPermits = new Semaphore(Integer.parseInt(params.get("maxOutstanding")));
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(timeout)
+                .POST(HttpRequest.BodyPublishers.ofString(payload))
+                .build();
+
+        long totalRequests = (long) (rate * durationSeconds);
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        SocketSampler sockets = SocketSampler.start();
+
+        System.out.println("Sending " + totalRequests + " requests at " + rate + " req/s to " + uri
+                + " with a " + payload.length() + " byte payload , client mode " + params.get("client"));
+        Instant start = Instant.now();
+        Results results = new Results(System.nanoTime(), durationSeconds, totalRequests);
+        for (long i = 0; i < totalRequests; i++) {
+            long intendedNanos = results.startNanos + i * periodNanos;
+            long delay;
+            while ((delay = intendedNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            if (shared) {
+                outstandingPermits.acquire();
+                long sendNanos = results.markSent();
+                clients[(int) (i % clients.length)].sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((response, failure) -> {
+                            outstandingPermits.release();
+                            results.markCompleted(intendedNanos, sendNanos, failure != null || response.statusCode() >= 400);
+                        });
+            } else {
+                Thread.ofVirtual().start(() -> {
+                    long sendNanos = results.markSent();
+                    boolean failed = true;
                     try {
-                        sendRequest();
+                        failed = sendRequest(request) >= 400;
+                    } catch (IOException e) {
+                        // counted as failed
                     } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        results.markCompleted(intendedNanos, sendNanos, failed);
                     }
-                } catch (IOException e) {
-                    System.err.println("Error sending request: " + e.getMessage());
-                }
-            }, executor);
+                });
+            }
+        }
+        long sendingNanos = System.nanoTime() - results.startNanos;
+        if (!results.outstanding.await(timeout.toSeconds(), TimeUnit.SECONDS)) {
+            System.out.println(results.outstanding.getCount() + " requests still outstanding after " + timeout.toSeconds() + " seconds");
+        }
+        sockets.stop();
+        for (HttpClient client : clients) {
+            client.shutdownNow();
+        }
+
+        System.out.println();
+        System.out.printf("%6s %10s %10s %10s%n", "second", "target", "sent", "completed");
+        for (int second = 0; second < durationSeconds; second++) {
+            System.out.printf("%6d %10.0f %10d %10d%n", second, rate, results.sent.get(second), results.completed.get(second));
+        }
+        System.out.printf("%6s %10s %10d %10d%n", "later", "", results.sent.get(durationSeconds), results.completed.get(durationSeconds));
+        System.out.println();
+        System.out.printf("achieved send rate : %.1f req/s (target %.1f) , errors : %d%n",
+                totalRequests / (sendingNanos / 1e9), rate, results.errors.sum());
+        if (sockets.supported()) {
+            System.out.printf("connections opened : %d for %d requests (peak %d open at once , sampled)%n",
+                    sockets.opened(), totalRequests, sockets.peakOpen());
+        } else {
+            System.out.println("connections opened : not available on this platform");
         }
-        executor.shutdown();
-        executor.awaitTermination(1, TimeUnit.MINUTES);
-        System.out.println("Load test completed in " + Duration.between(Instant.now() , now).getSeconds() + " seconds");
+        printHistogram("latency from intended send time", results.latency);
+        printHistogram("service time (uncorrected)", results.serviceTime);
+        System.out.println("Load test completed in " + Duration.between(start, Instant.now()).toSeconds() + " seconds");
+    }
+
+    private static HttpClient newClient() {
+        // the part2 servers speak HTTP/1.1 only , skip the h2c upgrade attempt on every new connection
+        return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
     }
 
     /**
-     * Method will send a request to the provided URI.
+     * Method will send a request with a new client , which is closed again once the response arrived , otherwise its
+     * selector thread and connection pool would live on until the client is garbage collected.
+     *
+     * @return status code of the response
      * @throws IOException
      * @throws InterruptedException
      */
-    private static void sendRequest() throws IOException, InterruptedException {
+    private static int sendRequest(HttpRequest request) throws IOException, InterruptedException {
 
-        HttpClient client = HttpClient.newHttpClient();
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(VIRTUAL_THREAD_URI))
-                .POST(HttpRequest.BodyPublishers.ofString("{\"key\": \"value\"}"))
-                .build();
+        try (HttpClient client = newClient()) {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode();
+        }
+    }
+
+    /**
+     * @return a JSON body of at least <code>payloadBytes</code> bytes , the original <code>{"key": "value"}</code> when small
+     */
+    private static String payload(int payloadBytes) {
+        String payload = "{\"key\": \"value\"}";
+        if (payloadBytes <= payload.length()) {
+            return payload;
+        }
+        String prefix = "{\"key\": \"value\", \"padding\": \"";
+        int padding = Math.max(0, payloadBytes - prefix.length() - 2);
+        return prefix + "x".repeat(padding) + "\"}";
+    }
+
+    private static void printHistogram(String title, LatencyHistogram histogram) {
+        System.out.printf("%-32s : count=%d p50=%.2f ms p90=%.2f ms p99=%.2f ms p99.9=%.2f ms p99.99=%.2f ms max=%.2f ms%n",
+                title, histogram.count(),
+                histogram.percentile(50) / 1e6, histogram.percentile(90) / 1e6, histogram.percentile(99) / 1e6,
+                histogram.percentile(99.9) / 1e6, histogram.percentile(99.99) / 1e6, histogram.max() / 1e6);
+    }
+
+    /**
+     * Latencies and per second counts of a run , the last per second slot counts whatever happened after the run.
+     */
+    private static final class Results {
+
+        final long startNanos;
+        final int durationSeconds;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final AtomicLongArray sent;
+        final AtomicLongArray completed;
+        final LongAdder errors = new LongAdder();
+        final CountDownLatch outstanding;
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        System.out.println("Received response: " + response.body());
+        Results(long startNanos, int durationSeconds, long totalRequests) {
+            this.startNanos = startNanos;
+            this.durationSeconds = durationSeconds;
+            this.sent = new AtomicLongArray(durationSeconds + 1);
+            this.completed = new AtomicLongArray(durationSeconds + 1);
+            this.outstanding = new CountDownLatch((int) totalRequests);
+        }
+
+        /**
+         * @return the send time
+         */
+        long markSent() {
+            long sendNanos = System.nanoTime();
+            sent.incrementAndGet(second(sendNanos));
+            return sendNanos;
+        }
+
+        void markCompleted(long intendedNanos, long sendNanos, boolean failed) {
+            long endNanos = System.nanoTime();
+            if (failed) {
+                errors.increment();
+            }
+            latency.record(endNanos - intendedNanos);
+            serviceTime.record(endNanos - sendNanos);
+            completed.incrementAndGet(second(endNanos));
+            outstanding.countDown();
+        }
+
+        private int second(long nanos) {
+            return (int) Math.min(durationSeconds, (nanos - startNanos) / TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Counts the distinct sockets of this process by sampling <code>/proc/self/fd</code> , socket links look like
+     * <code>socket:[inode]</code> and inodes are not reused while the run lasts.
+     */
+    private static final class SocketSampler {
+
+        private static final Path FD_DIRECTORY = Path.of("/proc/self/fd");
+
+        private final Set<String> seen = new HashSet<>();
+        private final Set<String> atStart;
+        private final Thread sampler;
+        private volatile boolean running = true;
+        private int peakOpen;
+
+        private SocketSampler() {
+            this.atStart = Files.isDirectory(FD_DIRECTORY) ? sample() : null;
+            this.sampler = atStart == null ? null : Thread.ofPlatform().name("socket-sampler").daemon().start(this::run);
+        }
+
+        static SocketSampler start() {
+            return new SocketSampler();
+        }
+
+        private void run() {
+            while (running) {
+                Set<String> open = sample();
+                open.removeAll(atStart);
+                synchronized (this) {
+                    seen.addAll(open);
+                    peakOpen = Math.max(peakOpen, open.size());
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+            }
+        }
+
+        private static Set<String> sample() {
+            Set<String> sockets = new HashSet<>();
+            try (DirectoryStream<Path> descriptors = Files.newDirectoryStream(FD_DIRECTORY)) {
+                for (Path descriptor : descriptors) {
+                    try {
+                        String target = Files.readSymbolicLink(descriptor).toString();
+                        if (target.startsWith("socket:")) {
+                            sockets.add(target);
+                        }
+                    } catch (IOException e) {
+                        // closed while listing
+                    }
+                }
+            } catch (IOException e) {
+                // leave the sample empty
+            }
+            return sockets;
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            if (sampler != null) {
+                sampler.join();
+            }
+        }
+
+        boolean supported() {
+            return atStart != null;
+        }
+
+        synchronized int opened() {
+            return seen.size();
+        }
+
+        synchronized int peakOpen() {
+            return peakOpen;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package virtual_threads.part2.servers;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ *   Runs tasks on the delegate executor but never more than <code>maxConcurrency</code> of them at once.
+ * </p>
+ * <p>
+ *   The permit is taken in {@link #execute(Runnable)} , i.e. on the dispatcher thread of the HTTP server. Once the cap is
+ *   reached the dispatcher stops accepting new connections , so excess load waits in the listen backlog of the socket
+ *   instead of piling up as parked virtual threads.
+ * </p>
+ */
+
+public final class ConcurrencyLimitedExecutor implements Executor {
+
+    private final Executor delegate;
+    private final Semaphore permits;
+
+    public ConcurrencyLimitedExecutor(Executor delegate, int maxConcurrency) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        permits.acquireUninterruptibly();
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+}
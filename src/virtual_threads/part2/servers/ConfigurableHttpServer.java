@@ -0,0 +1,151 @@
+package virtual_threads.part2.servers;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import virtual_threads.part2.context.RequestContext;
+import virtual_threads.part2.diagnostics.PinningDetector;
+import virtual_threads.part2.metrics.InstrumentedExecutor;
+import virtual_threads.part2.metrics.MetricsContributor;
+import virtual_threads.part2.metrics.MetricsFilter;
+import virtual_threads.part2.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ *  <p>
+ *    A single HTTP server whose thread executor , port , backlog , context path and handler are all picked at startup ,
+ *    so the same binary can be A/B tested under identical load with nothing but different arguments.
+ *  </p>
+ *  <p>
+ *    {@link PlatformThreaded_HttpServer} and {@link VirtualThreaded_HttpServer} are just presets of this server.
+ *  </p>
+ *  <p>
+ *    Arguments (<code>key=value</code>) , see {@link ServerConfig} :
+ *    <ul>
+ *        <li><code>executor</code> : <code>fixed</code> , <code>virtual</code> , <code>virtual-bounded</code> or <code>work-stealing</code> , see {@link ExecutorStrategy}</li>
+ *        <li><code>port</code> , <code>backlog</code> , <code>contextPath</code> , <code>threads</code> , <code>maxConcurrency</code> , <code>handler</code> , <code>dataPrefix</code></li>
+ *    </ul>
+ *  </p>
+ *  <p>
+ *    Every server serves its {@link ServerMetrics} on <code>/metrics</code> in the Prometheus text format.
+ *  </p>
+ *  <p>
+ *    Started with <code>-Dadmission.enabled=true</code> the handler is guarded by an {@link AdmissionControlFilter} , requests
+ *    beyond the adaptive limit get a <code>503</code> right away. The limiter state is served on <code>/admission</code>
+ *    and included in <code>/metrics</code>.
+ *  </p>
+ *  <p>
+ *    Unless started with <code>-Dpinning.enabled=false</code> a {@link PinningDetector} watches for virtual threads pinning
+ *    their carrier , its totals are part of <code>/metrics</code> and the top pinning sites with their stack traces are
+ *    served on <code>/pinning?top=&lt;n&gt;</code>.
+ *  </p>
+ *  <p>
+ *    Started with <code>-DrequestContext.enabled=true</code> every request gets a {@link virtual_threads.part2.context.RequestContext}
+ *    bound by a {@link RequestContextFilter} , with an optional deadline (<code>-DrequestContext.deadlineMillis</code>).
+ *  </p>
+ *
+ *  Example : <code>java -cp out virtual_threads.part2.servers.ConfigurableHttpServer executor=virtual-bounded maxConcurrency=2000 backlog=1024</code>
+ */
+
+public class ConfigurableHttpServer {
+
+    public static final ServerConfig DEFAULTS = new ServerConfig(8080, 1024, "/execute",
+            ExecutorStrategy.VIRTUAL_PER_TASK, 500, 10_000, "upload", "Configurable-Server");
+
+    /**
+     * Request handlers selectable with <code>handler=&lt;name&gt;</code> : <code>upload</code> ({@link UploadHandler}) ,
+     * <code>upload-lowalloc</code> ({@link LowAllocationUploadHandler}) and <code>fan-out</code> ({@link FanOutHandler}).
+     */
+    public static final Map<String, HandlerFactory> HANDLERS = Map.of(
+            "upload", (config, metrics) -> new UploadHandler(config.dataPrefix(), metrics),
+            "upload-lowalloc", (config, metrics) -> new LowAllocationUploadHandler(config.dataPrefix(), metrics),
+            "fan-out", (config, metrics) -> new FanOutHandler(metrics));
+
+    public static void main(String[] args) throws IOException {
+        start(ServerConfig.parse(args, DEFAULTS));
+    }
+
+    /**
+     * Creates and starts a server for the configuration.
+     */
+    public static HttpServer start(ServerConfig config) throws IOException {
+
+        HandlerFactory handlerFactory = HANDLERS.get(config.handler());
+        if (handlerFactory == null) {
+            throw new IllegalArgumentException("Unknown handler : " + config.handler() + " , expected one of " + HANDLERS.keySet());
+        }
+        ServerMetrics metrics = new ServerMetrics();
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(config.port()), config.backlog());
+        HttpContext context = httpServer.createContext(config.contextPath(), handlerFactory.create(config, metrics));
+        context.getFilters().add(new MetricsFilter(metrics));
+        if (RequestContext.ENABLED) {
+            context.getFilters().add(new RequestContextFilter());
+        }
+        if (Boolean.getBoolean("admission.enabled")) {
+            AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.fromSystemProperties();
+            context.getFilters().add(new AdmissionControlFilter(limiter, Integer.getInteger("admission.retryAfterSeconds", 1)));
+            MetricsContributor admissionStatus = out -> admissionStatus(out, limiter);
+            metrics.register(admissionStatus);
+            httpServer.createContext("/admission", exchange -> respond(exchange, admissionStatus));
+        }
+        PinningDetector pinningDetector = PinningDetector.fromSystemProperties();
+        if (pinningDetector != null) {
+            metrics.register(pinningDetector::writeMetrics);
+            httpServer.createContext("/pinning", exchange ->
+                    respond(exchange, out -> pinningDetector.writeReport(out, topParameter(exchange, 10))));
+        }
+        InstrumentedExecutor executor = new InstrumentedExecutor(config.executor().create(config), metrics);
+        metrics.register(executor);
+        httpServer.createContext("/metrics", exchange -> respond(exchange, metrics::writeTo));
+        httpServer.setExecutor(executor);
+        httpServer.start();
+        System.out.println("Server has been Started on port : " + config.port() + " with " + config);
+        return httpServer;
+    }
+
+    private static void admissionStatus(StringBuilder out, AdaptiveConcurrencyLimiter limiter) {
+        out.append("admission_limit ").append(limiter.limit()).append('\n');
+        out.append("admission_in_flight ").append(limiter.inFlight()).append('\n');
+        out.append("admission_accepted_total ").append(limiter.accepted()).append('\n');
+        out.append("admission_rejected_total ").append(limiter.rejected()).append('\n');
+        out.append("admission_no_load_latency_seconds ").append(limiter.noLoadLatencyNanos() / 1e9).append('\n');
+    }
+
+    private static int topParameter(HttpExchange exchange, int defaultValue) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("top=")) {
+                    try {
+                        return Integer.parseInt(parameter.substring(4));
+                    } catch (NumberFormatException e) {
+                        return defaultValue;
+                    }
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    private static void respond(HttpExchange exchange, MetricsContributor content) throws IOException {
+        StringBuilder text = new StringBuilder(4096);
+        content.writeTo(text);
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outStream = exchange.getResponseBody()) {
+            outStream.write(body);
+        }
+    }
+
+    @FunctionalInterface
+    public interface HandlerFactory {
+        HttpHandler create(ServerConfig config, ServerMetrics metrics) throws IOException;
+    }
+}
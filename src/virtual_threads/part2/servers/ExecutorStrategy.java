@@ -0,0 +1,54 @@
+package virtual_threads.part2.servers;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ *   The thread executors {@link ConfigurableHttpServer} can run its handlers on , selected at startup with
+ *   <code>executor=&lt;name&gt;</code>.
+ * </p>
+ */
+
+public enum ExecutorStrategy {
+
+    /** A fixed pool of <code>threads</code> platform threads , {@link Executors#newFixedThreadPool(int)}. */
+    FIXED_PLATFORM_POOL("fixed"),
+
+    /** A new virtual thread for every request , {@link Executors#newVirtualThreadPerTaskExecutor()}. */
+    VIRTUAL_PER_TASK("virtual"),
+
+    /** A new virtual thread for every request , but at most <code>maxConcurrency</code> requests at once , see {@link ConcurrencyLimitedExecutor}. */
+    VIRTUAL_BOUNDED("virtual-bounded"),
+
+    /** A work stealing ForkJoinPool with a parallelism of <code>threads</code> , {@link Executors#newWorkStealingPool(int)}. */
+    WORK_STEALING("work-stealing");
+
+    private final String argumentName;
+
+    ExecutorStrategy(String argumentName) {
+        this.argumentName = argumentName;
+    }
+
+    public Executor create(ServerConfig config) {
+        return switch (this) {
+            case FIXED_PLATFORM_POOL -> Executors.newFixedThreadPool(config.threads());
+            case VIRTUAL_PER_TASK -> Executors.newVirtualThreadPerTaskExecutor();
+            case VIRTUAL_BOUNDED -> new ConcurrencyLimitedExecutor(Executors.newVirtualThreadPerTaskExecutor(), config.maxConcurrency());
+            case WORK_STEALING -> Executors.newWorkStealingPool(config.threads());
+        };
+    }
+
+    public String argumentName() {
+        return argumentName;
+    }
+
+    public static ExecutorStrategy fromArgument(String argumentName) {
+        for (ExecutorStrategy strategy : values()) {
+            if (strategy.argumentName.equals(argumentName)) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown executor : " + argumentName + " , expected one of fixed , virtual , virtual-bounded , work-stealing");
+    }
+}
@@ -0,0 +1,83 @@
+package virtual_threads.part2.servers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import virtual_threads.part2.context.RequestContext;
+import virtual_threads.part2.downstream.StructuredFanOut;
+import virtual_threads.part2.metrics.ServerMetrics;
+import virtual_threads.part2.utils.AsyncAccessLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ *   A handler calling several simulated downstreams per request with a {@link StructuredFanOut} , selected with
+ *   <code>handler=fan-out</code> and configured with the <code>fanOut.*</code> and <code>downstream.*</code> system properties.
+ * </p>
+ * <p>
+ *   Responds with 200 and the replies , 504 when the deadline of the request passed and 502 when a downstream failed.
+ *   The fan-out counters , hedges included , are part of <code>/metrics</code>.
+ * </p>
+ */
+
+public class FanOutHandler implements HttpHandler {
+
+    private final StructuredFanOut fanOut;
+    private final ServerMetrics metrics;
+    private final AsyncAccessLog accessLog;
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    /**
+     * @param metrics metrics of the server the handler is registered on
+     */
+    public FanOutHandler(ServerMetrics metrics) throws IOException {
+        this.fanOut = StructuredFanOut.fromSystemProperties();
+        this.metrics = metrics;
+        this.accessLog = AsyncAccessLog.fromSystemProperties();
+        metrics.register(fanOut::writeMetrics);
+    }
+
+    @Override
+    public void handle(HttpExchange httpExchange) throws IOException {
+
+        long start = System.nanoTime();
+        try (InputStream requestBody = httpExchange.getRequestBody()) {
+            requestBody.transferTo(OutputStream.nullOutputStream());
+        }
+        int status;
+        String response;
+        try {
+            List<String> replies = fanOut.fanOut();
+            status = 200;
+            response = "Message : replies " + replies + " , executed by thread : " + Thread.currentThread();
+        } catch (TimeoutException e) {
+            status = 504;
+            response = "Deadline exceeded";
+        } catch (IOException e) {
+            status = 502;
+            response = e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling downstreams", e);
+        }
+
+        long responseStart = System.nanoTime();
+        byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+        httpExchange.sendResponseHeaders(status , responseBytes.length);
+        OutputStream outStream = httpExchange.getResponseBody();
+        outStream.write(responseBytes);
+        outStream.close();
+        long responseEnd = System.nanoTime();
+        metrics.responseLatency().record(responseEnd - responseStart);
+        if (accessLog != null) {
+            RequestContext context = RequestContext.current();
+            accessLog.log(context != null ? context.requestId() : counter.incrementAndGet() , status , responseBytes.length , responseEnd - start);
+        }
+    }
+}
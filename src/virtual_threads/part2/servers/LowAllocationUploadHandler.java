@@ -0,0 +1,111 @@
+package virtual_threads.part2.servers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import virtual_threads.part2.context.DeadlineExceededException;
+import virtual_threads.part2.downstream.DownstreamException;
+import virtual_threads.part2.metrics.ServerMetrics;
+import virtual_threads.part2.storage.RecordTooLargeException;
+import virtual_threads.part2.utils.AsyncAccessLog;
+import virtual_threads.part2.utils.DataUploader;
+import virtual_threads.part2.utils.PositionalAppender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *   A low allocation variant of {@link UploadHandler} , selected with <code>handler=upload-lowalloc</code>.
+ * </p>
+ * <p>
+ *   {@link UploadHandler} builds a response String from <code>Thread.currentThread()</code> , encodes it for every request and
+ *   appends the body through a reader , a writer and a String per line. Here :
+ *   <ul>
+ *       <li>the response is a constant , encoded once , its byte length is the Content-Length</li>
+ *       <li>the body is appended with {@link DataUploader#uploadData(java.io.InputStream, long, PositionalAppender)} through
+ *           pooled direct buffers into <code>&lt;prefix&gt;-Data.txt</code> , which stays open</li>
+ *       <li>metrics and the access log record primitives only</li>
+ *   </ul>
+ *   What is left per request is allocated by the HTTP server itself. Failures are answered like {@link UploadHandler}
+ *   does , 504 past the deadline , 502 for a failed downstream call and 413 for a body too large to store , only these
+ *   error responses allocate.
+ * </p>
+ * <p>
+ *   Compare both handlers with {@link virtual_threads.part2.benchmarks.HandlerAllocationBenchMark}.
+ * </p>
+ */
+
+public class LowAllocationUploadHandler implements HttpHandler {
+
+    private static final byte[] RESPONSE = "Message : has been recieved and was executed".getBytes(StandardCharsets.UTF_8);
+
+    private final PositionalAppender appender;
+    private final ServerMetrics metrics;
+    private final AsyncAccessLog accessLog;
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * @param dataPrefix prefix of the file data is appended to , e.g. <code>Virtual-Thread</code>
+     * @param metrics    metrics of the server the handler is registered on
+     */
+    public LowAllocationUploadHandler(String dataPrefix, ServerMetrics metrics) throws IOException {
+        this.appender = new PositionalAppender(Path.of(dataPrefix + "-Data.txt"), 64 * 1024, 1_024);
+        this.metrics = metrics;
+        this.accessLog = AsyncAccessLog.fromSystemProperties();
+        if (accessLog != null) {
+            metrics.register(out -> out
+                    .append("access_log_written_total ").append(accessLog.written()).append('\n')
+                    .append("access_log_dropped_total ").append(accessLog.dropped()).append('\n'));
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange httpExchange) throws IOException {
+
+        long uploadStart = System.nanoTime();
+        int status = 200;
+        byte[] response = RESPONSE;
+        try {
+            DataUploader.uploadData(httpExchange.getRequestBody() , contentLength(httpExchange) , appender);
+        } catch (DeadlineExceededException e) {
+            status = 504;
+            response = e.getMessage().getBytes(StandardCharsets.UTF_8);
+        } catch (DownstreamException e) {
+            status = 502;
+            response = e.getMessage().getBytes(StandardCharsets.UTF_8);
+        } catch (RecordTooLargeException e) {
+            status = 413;
+            response = e.getMessage().getBytes(StandardCharsets.UTF_8);
+        }
+        long responseStart = System.nanoTime();
+        metrics.uploadLatency().record(responseStart - uploadStart);
+
+        httpExchange.sendResponseHeaders(status , response.length);
+        OutputStream outStream = httpExchange.getResponseBody();
+        outStream.write(response);
+        outStream.close();
+        long responseEnd = System.nanoTime();
+        metrics.responseLatency().record(responseEnd - responseStart);
+        if (accessLog != null) {
+            accessLog.log(counter.incrementAndGet() , status , response.length , responseEnd - uploadStart);
+        }
+    }
+
+    /**
+     * @return the Content-Length of the request , or <code>-1</code> for a chunked body
+     */
+    private static long contentLength(HttpExchange httpExchange) {
+        String contentLength = httpExchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package virtual_threads.part2.servers;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import virtual_threads.part2.context.RequestContext;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ *   Binds a new {@link RequestContext} for every request , for the filters after it and the handler , and adds its id
+ *   to the response as <code>X-Request-Id</code>.
+ * </p>
+ */
+
+public class RequestContextFilter extends Filter {
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        RequestContext context = RequestContext.next();
+        exchange.getResponseHeaders().set("X-Request-Id", Long.toString(context.requestId()));
+        RequestContext.call(context, () -> {
+            chain.doFilter(exchange);
+            return null;
+        });
+    }
+
+    @Override
+    public String description() {
+        return "Request context";
+    }
+}
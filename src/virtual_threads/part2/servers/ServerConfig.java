@@ -0,0 +1,68 @@
+package virtual_threads.part2.servers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ *   Startup configuration of {@link ConfigurableHttpServer}.
+ * </p>
+ * <p>
+ *   Every component can be overridden with a <code>key=value</code> program argument of the same name , see {@link #parse(String[], ServerConfig)}.
+ * </p>
+ *
+ * @param port           port the server listens on
+ * @param backlog        maximum number of queued incoming connections , connections beyond it are refused
+ * @param contextPath    context path URI requests are posted to
+ * @param executor       thread executor requests are handled on
+ * @param threads        number of threads for the {@link ExecutorStrategy#FIXED_PLATFORM_POOL} and {@link ExecutorStrategy#WORK_STEALING} executors
+ * @param maxConcurrency maximum number of requests handled at once with {@link ExecutorStrategy#VIRTUAL_BOUNDED}
+ * @param handler        name of the request handler , see {@link ConfigurableHttpServer#HANDLERS}
+ * @param dataPrefix     prefix of the files and directories uploaded data is written to
+ */
+public record ServerConfig(int port, int backlog, String contextPath, ExecutorStrategy executor, int threads,
+                           int maxConcurrency, String handler, String dataPrefix) {
+
+    /**
+     * Applies <code>key=value</code> program arguments on top of <code>defaults</code>.
+     *
+     * @throws IllegalArgumentException if an argument is malformed or the key is unknown
+     */
+    public static ServerConfig parse(String[] args, ServerConfig defaults) {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("port", String.valueOf(defaults.port));
+        values.put("backlog", String.valueOf(defaults.backlog));
+        values.put("contextPath", defaults.contextPath);
+        values.put("executor", defaults.executor.argumentName());
+        values.put("threads", String.valueOf(defaults.threads));
+        values.put("maxConcurrency", String.valueOf(defaults.maxConcurrency));
+        values.put("handler", defaults.handler);
+        values.put("dataPrefix", defaults.dataPrefix);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got : " + arg);
+            }
+            String key = arg.substring(0, separator);
+            if (!values.containsKey(key)) {
+                throw new IllegalArgumentException("Unknown parameter : " + key + " , supported : " + values.keySet());
+            }
+            values.put(key, arg.substring(separator + 1));
+        }
+        return new ServerConfig(
+                Integer.parseInt(values.get("port")),
+                Integer.parseInt(values.get("backlog")),
+                values.get("contextPath"),
+                ExecutorStrategy.fromArgument(values.get("executor")),
+                Integer.parseInt(values.get("threads")),
+                Integer.parseInt(values.get("maxConcurrency")),
+                values.get("handler"),
+                values.get("dataPrefix"));
+    }
+
+    @Override
+    public String toString() {
+        return "port=" + port + " backlog=" + backlog + " contextPath=" + contextPath + " executor=" + executor.argumentName()
+                + " threads=" + threads + " maxConcurrency=" + maxConcurrency + " handler=" + handler + " dataPrefix=" + dataPrefix;
+    }
+}
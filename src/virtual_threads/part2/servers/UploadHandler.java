@@ -0,0 +1,198 @@
+package virtual_threads.part2.servers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import virtual_threads.part2.cache.RequestDeduplicator;
+import virtual_threads.part2.context.DeadlineExceededException;
+import virtual_threads.part2.context.RequestContext;
+import virtual_threads.part2.downstream.DownstreamException;
+import virtual_threads.part2.metrics.ServerMetrics;
+import virtual_threads.part2.storage.RecordTooLargeException;
+import virtual_threads.part2.storage.SegmentedLogStore;
+import virtual_threads.part2.utils.AsyncAccessLog;
+import virtual_threads.part2.utils.CompressionStage;
+import virtual_threads.part2.utils.DataUploader;
+import virtual_threads.part2.utils.GroupCommitWriter;
+import virtual_threads.part2.utils.UploadReceipt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ *   The <code>/execute</code> handler shared by all the part2 servers : uploads the request body to disk using {@link DataUploader}
+ *   and responds with the thread that executed the request.
+ * </p>
+ * <p>
+ *   How the body is written is selected with system properties :
+ *   <ul>
+ *       <li><code>-DdataUploader.streaming=true</code> : {@link DataUploader#streamData(java.io.InputStream, Path)} into <code>&lt;prefix&gt;-Uploads</code></li>
+ *       <li><code>-DdataUploader.logStore=true</code> : a {@link SegmentedLogStore} in <code>&lt;prefix&gt;-Log</code></li>
+ *       <li><code>-DdataUploader.groupCommit=true</code> : a {@link GroupCommitWriter} appending to <code>&lt;prefix&gt;-Data.txt</code></li>
+ *       <li>otherwise every request appends its lines to <code>&lt;prefix&gt;-Data.txt</code> itself</li>
+ *   </ul>
+ *   <code>-Dcompression.level=&lt;0-9&gt;</code> adds a {@link CompressionStage} to the log store and group commit paths.
+ * </p>
+ * <p>
+ *   With <code>-Ddedup.enabled=true</code> identical payloads are uploaded once , see {@link RequestDeduplicator}.
+ * </p>
+ * <p>
+ *   The time spent uploading and responding is recorded into the upload and response phases of the {@link ServerMetrics}.
+ *   Every request is logged to an {@link AsyncAccessLog} , configured with the <code>accessLog.*</code> system properties ,
+ *   under the id of its {@link RequestContext} if one is bound. An upload past the deadline of the context gets a 504 , one
+ *   whose downstream call failed a 502 and a body larger than a segment of the log store a 413. When the body goes to the
+ *   log store uncompressed , its Content-Length is checked before the simulated latency and before the body is read , see
+ *   {@link #checkBodySize(long)}.
+ * </p>
+ */
+
+public class UploadHandler implements HttpHandler {
+
+    private static final boolean STREAMING_UPLOADS = Boolean.getBoolean("dataUploader.streaming");
+
+    private final String fileName;
+    private final Path uploadDirectory;
+    private final AtomicInteger counter = new AtomicInteger(0);
+    private final GroupCommitWriter groupCommitWriter;
+    private final SegmentedLogStore logStore;
+    private final CompressionStage compressionStage;
+    private final ServerMetrics metrics;
+    private final AsyncAccessLog accessLog;
+    private final RequestDeduplicator deduplicator;
+
+    /**
+     * @param dataPrefix prefix of the files and directories data is written to , e.g. <code>Virtual-Thread</code>
+     * @param metrics    metrics of the server the handler is registered on
+     */
+    public UploadHandler(String dataPrefix, ServerMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.fileName = dataPrefix + "-Data.txt";
+        this.uploadDirectory = Path.of(dataPrefix + "-Uploads");
+        if (STREAMING_UPLOADS) {
+            Files.createDirectories(uploadDirectory);
+        }
+        this.groupCommitWriter = Boolean.getBoolean("dataUploader.groupCommit")
+                ? GroupCommitWriter.fromSystemProperties(Path.of(fileName)) : null;
+        this.logStore = Boolean.getBoolean("dataUploader.logStore")
+                ? SegmentedLogStore.fromSystemProperties(Path.of(dataPrefix + "-Log")) : null;
+        this.compressionStage = System.getProperty("compression.level") != null
+                ? CompressionStage.fromSystemProperties() : null;
+        this.accessLog = AsyncAccessLog.fromSystemProperties();
+        if (accessLog != null) {
+            metrics.register(out -> out
+                    .append("access_log_written_total ").append(accessLog.written()).append('\n')
+                    .append("access_log_dropped_total ").append(accessLog.dropped()).append('\n'));
+        }
+        this.deduplicator = RequestDeduplicator.fromSystemProperties();
+        if (deduplicator != null) {
+            metrics.register(deduplicator::writeMetrics);
+        }
+    }
+
+    /**
+     *  Method will be invoked whenever the server recieves a new request for the <code>contextPathURI</code> it is registered on.
+     *
+     * @param httpExchange
+     * @throws IOException
+     */
+    @Override
+    public void handle(HttpExchange httpExchange) throws IOException {
+
+        long uploadStart = System.nanoTime();
+        int status = 200;
+        String response;
+        try {
+            checkBodySize(contentLength(httpExchange));
+            response = upload(httpExchange.getRequestBody());
+        } catch (DeadlineExceededException e) {
+            status = 504;
+            response = e.getMessage();
+        } catch (DownstreamException e) {
+            status = 502;
+            response = e.getMessage();
+        } catch (RecordTooLargeException e) {
+            status = 413;
+            response = e.getMessage();
+        }
+        long responseStart = System.nanoTime();
+        // prepare response
+        byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+        httpExchange.sendResponseHeaders(status , responseBytes.length);
+        OutputStream outStream = httpExchange.getResponseBody();
+        outStream.write(responseBytes);
+        outStream.close();
+        long responseEnd = System.nanoTime();
+        metrics.responseLatency().record(responseEnd - responseStart);
+        if (accessLog != null) {
+            RequestContext context = RequestContext.current();
+            accessLog.log(context != null ? context.requestId() : counter.incrementAndGet() , status , responseBytes.length , responseEnd - uploadStart);
+        }
+    }
+
+    /**
+     * Turns down a body that can not be stored before anything is read or uploaded. A body is only known to be too large
+     * when it goes to the log store uncompressed , a compressed body may still fit into a segment.
+     *
+     * @param bodyBytes length of the body , <code>-1</code> if unknown
+     * @throws RecordTooLargeException if the body does not fit into a segment of the log store
+     */
+    public void checkBodySize(long bodyBytes) {
+        if (logStore != null && !STREAMING_UPLOADS && compressionStage == null && bodyBytes >= 0) {
+            logStore.checkRecordSize(bodyBytes);
+        }
+    }
+
+    /**
+     * @return the Content-Length of the request , or <code>-1</code> if it has none or it is not a number
+     */
+    private static long contentLength(HttpExchange httpExchange) {
+        String contentLength = httpExchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Uploads a request body to disk and records the upload phase , used by {@link #handle(HttpExchange)} and by servers
+     * not built on {@link com.sun.net.httpserver.HttpServer}.
+     *
+     * @return the response message
+     */
+    public String upload(InputStream requestBody) throws IOException {
+
+        if (deduplicator != null) {
+            return deduplicator.upload(requestBody , this::store);
+        }
+        return store(requestBody);
+    }
+
+    private String store(InputStream requestBody) throws IOException {
+
+        String response = "Message : has been recieved and was executed by thread : " + Thread.currentThread();
+        // Upload Data to disk
+        long uploadStart = System.nanoTime();
+        if (STREAMING_UPLOADS) {
+            UploadReceipt receipt = DataUploader.streamData(requestBody , uploadDirectory);
+            response += " , bytes : " + receipt.bytes() + " , crc32c : " + receipt.crc32cHex();
+        } else if (logStore != null) {
+            long recordId = DataUploader.uploadData(requestBody , logStore , compressionStage);
+            response += " , record id : " + recordId;
+        } else if (groupCommitWriter != null) {
+            DataUploader.uploadData(requestBody , groupCommitWriter , compressionStage);
+        } else {
+            DataUploader.uploadData(requestBody , fileName);
+        }
+        metrics.uploadLatency().record(System.nanoTime() - uploadStart);
+        return response;
+    }
+}
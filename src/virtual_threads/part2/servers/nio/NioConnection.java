@@ -0,0 +1,253 @@
+package virtual_threads.part2.servers.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ *   State of a single keep-alive connection of a {@link NioHttpServer} : its read buffer , the head of the request being
+ *   handled and the response being written.
+ * </p>
+ * <p>
+ *   Requests are parsed in place. The head is scanned for the few headers that matter , Content-Length , Transfer-Encoding
+ *   and Connection , by comparing bytes , no strings are created. The body is handed to the handler as a stream over the
+ *   read buffer itself. A request that does not fit into the pooled read buffer gets a larger one for as long as it needs it.
+ * </p>
+ * <p>
+ *   Not thread safe , a connection is only touched by the selector thread , or by the handler thread while the selector
+ *   is not watching it.
+ * </p>
+ */
+
+final class NioConnection {
+
+    /** {@link #parse(int)} results besides a status code. */
+    static final int NEED_MORE = 0;
+    static final int READY = 1;
+
+    private static final int MAX_HEAD_BYTES = 8 * 1024;
+    private static final byte[] CONTENT_LENGTH = bytes("content-length");
+    private static final byte[] TRANSFER_ENCODING = bytes("transfer-encoding");
+    private static final byte[] CONNECTION = bytes("connection");
+    private static final byte[] CLOSE = bytes("close");
+    private static final byte[] KEEP_ALIVE = bytes("keep-alive");
+    private static final byte[] HTTP_1_0 = bytes("HTTP/1.0");
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    private final ByteBuffer pooledBuffer;
+    private ByteBuffer readBuffer;
+
+    // head of the current request , offsets into the read buffer
+    private int scannedUpTo;
+    private int pathStart;
+    private int pathEnd;
+    private int bodyStart;
+    private int contentLength;
+    private boolean keepAlive;
+
+    // response being written
+    final ByteBuffer responseHead = ByteBuffer.allocate(256);
+    final ByteBuffer[] response = new ByteBuffer[2];
+    final byte[] digits = new byte[10];
+    boolean closeAfterResponse;
+    int responseStatus;
+    long requestStartNanos;
+
+    NioConnection(SocketChannel channel, SelectionKey key, ByteBuffer pooledBuffer) {
+        this.channel = channel;
+        this.key = key;
+        this.pooledBuffer = pooledBuffer;
+        this.readBuffer = pooledBuffer;
+        this.response[0] = responseHead;
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    ByteBuffer pooledBuffer() {
+        return pooledBuffer;
+    }
+
+    /**
+     * Parses the request at the start of the read buffer.
+     *
+     * @return {@link #NEED_MORE} , {@link #READY} or the status code of an error response
+     */
+    int parse(int maxRequestBytes) {
+        byte[] data = readBuffer.array();
+        int base = readBuffer.arrayOffset();
+        int available = readBuffer.position();
+
+        if (bodyStart == 0) {
+            int headEnd = indexOfHeadEnd(data, base, available);
+            if (headEnd < 0) {
+                return available >= MAX_HEAD_BYTES ? 431 : NEED_MORE;
+            }
+            int status = parseHead(data, base, headEnd);
+            if (status != READY) {
+                return status;
+            }
+            bodyStart = headEnd;
+            if ((long) bodyStart + contentLength > maxRequestBytes) {
+                return 413;
+            }
+        }
+        int requestEnd = bodyStart + contentLength;
+        if (requestEnd > readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(requestEnd);
+            larger.put(readBuffer.flip());
+            readBuffer = larger;
+        }
+        return available >= requestEnd ? READY : NEED_MORE;
+    }
+
+    private int indexOfHeadEnd(byte[] data, int base, int available) {
+        for (int i = Math.max(3, scannedUpTo); i < Math.min(available, MAX_HEAD_BYTES); i++) {
+            if (data[base + i] == '\n' && data[base + i - 1] == '\r' && data[base + i - 2] == '\n' && data[base + i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        scannedUpTo = Math.min(available, MAX_HEAD_BYTES);
+        return -1;
+    }
+
+    /**
+     * Parses the request line and headers in <code>[0 , headEnd)</code>.
+     */
+    private int parseHead(byte[] data, int base, int headEnd) {
+        int lineEnd = indexOf(data, base, 0, headEnd, (byte) '\r');
+        int methodEnd = indexOf(data, base, 0, lineEnd, (byte) ' ');
+        if (methodEnd <= 0) {
+            return 400;
+        }
+        pathStart = methodEnd + 1;
+        int targetEnd = indexOf(data, base, pathStart, lineEnd, (byte) ' ');
+        if (targetEnd < 0) {
+            return 400;
+        }
+        int queryStart = indexOf(data, base, pathStart, targetEnd, (byte) '?');
+        pathEnd = queryStart < 0 ? targetEnd : queryStart;
+        keepAlive = !regionEquals(data, base + targetEnd + 1, lineEnd - targetEnd - 1, HTTP_1_0, false);
+        contentLength = 0;
+
+        int lineStart = lineEnd + 2;
+        while (lineStart < headEnd - 2) {
+            lineEnd = indexOf(data, base, lineStart, headEnd, (byte) '\r');
+            int colon = indexOf(data, base, lineStart, lineEnd, (byte) ':');
+            if (colon < 0) {
+                return 400;
+            }
+            int valueStart = colon + 1;
+            while (valueStart < lineEnd && data[base + valueStart] == ' ') {
+                valueStart++;
+            }
+            int nameLength = colon - lineStart;
+            if (regionEquals(data, base + lineStart, nameLength, CONTENT_LENGTH, true)) {
+                long length = 0;
+                for (int i = valueStart; i < lineEnd; i++) {
+                    byte digit = data[base + i];
+                    if (digit < '0' || digit > '9' || length > Integer.MAX_VALUE) {
+                        return 400;
+                    }
+                    length = length * 10 + (digit - '0');
+                }
+                if (length > Integer.MAX_VALUE - MAX_HEAD_BYTES) {
+                    return 413;
+                }
+                contentLength = (int) length;
+            } else if (regionEquals(data, base + lineStart, nameLength, TRANSFER_ENCODING, true)) {
+                // chunked bodies are not supported , callers send a Content-Length
+                return 501;
+            } else if (regionEquals(data, base + lineStart, nameLength, CONNECTION, true)) {
+                if (containsIgnoreCase(data, base + valueStart, lineEnd - valueStart, CLOSE)) {
+                    keepAlive = false;
+                } else if (containsIgnoreCase(data, base + valueStart, lineEnd - valueStart, KEEP_ALIVE)) {
+                    keepAlive = true;
+                }
+            }
+            lineStart = lineEnd + 2;
+        }
+        return READY;
+    }
+
+    boolean pathEquals(byte[] path) {
+        return regionEquals(readBuffer.array(), readBuffer.arrayOffset() + pathStart, pathEnd - pathStart, path, false);
+    }
+
+    boolean keepAlive() {
+        return keepAlive;
+    }
+
+    int requestBytes() {
+        return bodyStart + contentLength;
+    }
+
+    /**
+     * @return the body of the parsed request , backed by the read buffer
+     */
+    InputStream body() {
+        return new ByteArrayInputStream(readBuffer.array(), readBuffer.arrayOffset() + bodyStart, contentLength);
+    }
+
+    /**
+     * Drops the handled request from the read buffer , keeping any pipelined bytes after it , and switches back to the
+     * pooled buffer once the request no longer needs a larger one.
+     */
+    void consumeRequest() {
+        int requestEnd = bodyStart + contentLength;
+        readBuffer.flip().position(requestEnd);
+        if (readBuffer != pooledBuffer && readBuffer.remaining() <= pooledBuffer.capacity()) {
+            pooledBuffer.clear().put(readBuffer);
+            readBuffer = pooledBuffer;
+        } else {
+            readBuffer.compact();
+        }
+        scannedUpTo = 0;
+        bodyStart = 0;
+        contentLength = 0;
+    }
+
+    private static int indexOf(byte[] data, int base, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (data[base + i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] data, int offset, int length, byte[] expected, boolean ignoreCase) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = data[offset + i];
+            if (ignoreCase && b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] data, int offset, int length, byte[] expected) {
+        for (int start = offset; start <= offset + length - expected.length; start++) {
+            if (regionEquals(data, start, expected.length, expected, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
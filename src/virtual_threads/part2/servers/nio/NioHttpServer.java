@@ -0,0 +1,426 @@
+package virtual_threads.part2.servers.nio;
+
+import benchmark.BenchMarkHarness;
+import virtual_threads.part2.context.DeadlineExceededException;
+import virtual_threads.part2.downstream.DownstreamException;
+import virtual_threads.part2.context.RequestContext;
+import virtual_threads.part2.metrics.InstrumentedExecutor;
+import virtual_threads.part2.metrics.ServerMetrics;
+import virtual_threads.part2.servers.ExecutorStrategy;
+import virtual_threads.part2.servers.ServerConfig;
+import virtual_threads.part2.servers.UploadHandler;
+import virtual_threads.part2.storage.RecordTooLargeException;
+import virtual_threads.part2.utils.BufferPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ *  <p>
+ *    <b> ** NIO Selector HTTP Server ** </b>
+ *  </p>
+ *  <p>
+ *    A third server next to the {@link com.sun.net.httpserver.HttpServer} based ones , built directly on a {@link Selector}.
+ *    A single selector thread accepts connections , reads and parses requests and writes responses. There is no separate
+ *    dispatcher thread and no per exchange stream wrappers , requests are parsed in place in pooled read buffers , see
+ *    {@link NioConnection}.
+ *  </p>
+ *  <p>
+ *    A parsed request is handed off to the configured executor , a new virtual thread per request by default. While it is
+ *    being handled the selector stops reading from its connection. The handler thread queues the finished connection back
+ *    to the selector thread , which writes the response and goes on with the next request of the connection. With
+ *    <code>executor=inline</code> handlers run on the selector thread itself , the classic event loop : no handoff at all ,
+ *    but a handler that blocks stalls every connection.
+ *  </p>
+ *  <p>
+ *    The selector thread must never block. With <code>executor=virtual-bounded</code> the server does not wait for a free
+ *    slot like {@link virtual_threads.part2.servers.ConcurrencyLimitedExecutor} does , a request beyond
+ *    <code>maxConcurrency</code> handlers at once is answered right away with <code>503</code>. A request the executor
+ *    rejects gets a <code>503</code> too and its connection is closed.
+ *  </p>
+ *  <p>
+ *    Supported : HTTP/1.1 keep-alive (and HTTP/1.0 with <code>Connection: keep-alive</code>) , pipelined requests , bodies
+ *    with a Content-Length. Chunked request bodies are answered with <code>501</code>.
+ *  </p>
+ *  <p>
+ *    The <code>contextPath</code> serves the same upload as the other part2 servers through {@link UploadHandler#upload} ,
+ *    <code>/metrics</code> serves the {@link ServerMetrics}.
+ *  </p>
+ *
+ *  Arguments (<code>key=value</code>) : <code>port</code> , <code>backlog</code> , <code>contextPath</code> ,
+ *  <code>executor</code> (<code>inline</code> or any {@link ExecutorStrategy}) , <code>threads</code> , <code>maxConcurrency</code> ,
+ *  <code>dataPrefix</code> , <code>bufferBytes</code> , <code>maxRequestBytes</code>.
+ *  <br>
+ *  Example : <code>java -cp out virtual_threads.part2.servers.nio.NioHttpServer executor=virtual port=7000</code>
+ */
+
+public final class NioHttpServer implements Closeable {
+
+    private static final byte[] STATUS_200 = ascii("HTTP/1.1 200 OK\r\n");
+    private static final byte[] CONTENT_TYPE = ascii("Content-Type: text/plain; charset=utf-8\r\nContent-Length: ");
+    private static final byte[] CONNECTION_CLOSE = ascii("\r\nConnection: close");
+    private static final byte[] HEAD_END = ascii("\r\n\r\n");
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Executor handoff;
+    /** permits of the handlers running at once , <code>null</code> when unbounded */
+    private final Semaphore permits;
+    private final BufferPool buffers;
+    private final int maxRequestBytes;
+    private final ServerMetrics metrics;
+    private final List<Route> routes = new ArrayList<>();
+    private final Queue<NioConnection> handled = new ConcurrentLinkedQueue<>();
+    private Thread selectorThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param handoff         executor handlers run on , <code>null</code> to run them on the selector thread
+     * @param bufferBytes     size of the pooled read buffer of a connection , at least 8 KB for the request head
+     * @param maxRequestBytes requests larger than this are answered with <code>413</code>
+     */
+    public NioHttpServer(InetSocketAddress address, int backlog, Executor handoff, int bufferBytes, int maxRequestBytes,
+                         ServerMetrics metrics) throws IOException {
+        this(address, backlog, handoff, 0, bufferBytes, maxRequestBytes, metrics);
+    }
+
+    /**
+     * @param maxConcurrency handlers running at once on the handoff executor , requests beyond are answered with
+     *                       <code>503</code> , <code>0</code> for no limit
+     */
+    public NioHttpServer(InetSocketAddress address, int backlog, Executor handoff, int maxConcurrency, int bufferBytes,
+                         int maxRequestBytes, ServerMetrics metrics) throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, backlog);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.handoff = handoff;
+        this.permits = handoff != null && maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+        this.buffers = new BufferPool(Math.max(bufferBytes, 8 * 1024), 10_000);
+        this.maxRequestBytes = maxRequestBytes;
+        this.metrics = metrics;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("port", "7000");
+        defaults.put("backlog", "1024");
+        defaults.put("contextPath", "/niothread/execute");
+        defaults.put("executor", "virtual");
+        defaults.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        defaults.put("maxConcurrency", "10000");
+        defaults.put("dataPrefix", "Nio-Thread");
+        defaults.put("bufferBytes", String.valueOf(16 * 1024));
+        defaults.put("maxRequestBytes", String.valueOf(16 * 1024 * 1024));
+        Map<String, String> params = BenchMarkHarness.parseArgs(args, defaults);
+
+        boolean inline = params.get("executor").equals("inline");
+        ServerConfig config = new ServerConfig(Integer.parseInt(params.get("port")), Integer.parseInt(params.get("backlog")),
+                params.get("contextPath"), inline ? ExecutorStrategy.VIRTUAL_PER_TASK : ExecutorStrategy.fromArgument(params.get("executor")),
+                Integer.parseInt(params.get("threads")), Integer.parseInt(params.get("maxConcurrency")), "upload", params.get("dataPrefix"));
+        // the selector thread must not wait for a permit , the server bounds the handlers itself and answers 503 at the cap
+        boolean bounded = config.executor() == ExecutorStrategy.VIRTUAL_BOUNDED;
+        ExecutorStrategy strategy = bounded ? ExecutorStrategy.VIRTUAL_PER_TASK : config.executor();
+
+        ServerMetrics metrics = new ServerMetrics();
+        InstrumentedExecutor executor = inline ? null : new InstrumentedExecutor(strategy.create(config), metrics);
+        if (executor != null) {
+            metrics.register(executor);
+        }
+        NioHttpServer server = new NioHttpServer(new InetSocketAddress(config.port()), config.backlog(), executor,
+                bounded ? config.maxConcurrency() : 0, Integer.parseInt(params.get("bufferBytes")),
+                Integer.parseInt(params.get("maxRequestBytes")), metrics);
+        UploadHandler uploadHandler = new UploadHandler(config.dataPrefix(), metrics);
+        server.route(config.contextPath(), body -> {
+            // the body is fully received , its length is what is left to read
+            uploadHandler.checkBodySize(body.available());
+            return RequestContext.call(RequestContext.next(), () -> uploadHandler.upload(body)).getBytes(StandardCharsets.UTF_8);
+        });
+        server.route("/metrics", body -> {
+            StringBuilder text = new StringBuilder(4096);
+            metrics.writeTo(text);
+            return text.toString().getBytes(StandardCharsets.UTF_8);
+        });
+        server.start();
+        System.out.println("Server has been Started on port : " + config.port() + " with executor " + params.get("executor")
+                + " and context path " + config.contextPath());
+    }
+
+    /**
+     * Routes requests for exactly <code>path</code> , query string excluded , to the handler. Must be called before {@link #start()}.
+     */
+    public void route(String path, NioRequestHandler handler) {
+        routes.add(new Route(ascii(path), handler));
+    }
+
+    public void start() {
+        selectorThread = Thread.ofPlatform().name("nio-selector").start(this::selectLoop);
+    }
+
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select();
+                NioConnection connection;
+                while ((connection = handled.poll()) != null) {
+                    write(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read((NioConnection) key.attachment());
+                    } else if (key.isWritable()) {
+                        write((NioConnection) key.attachment());
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Selector loop failed : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new NioConnection(channel, key, buffers.acquire()));
+        }
+    }
+
+    private void read(NioConnection connection) {
+        try {
+            if (connection.channel.read(connection.readBuffer()) < 0) {
+                close(connection);
+                return;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        dispatch(connection);
+    }
+
+    /**
+     * Hands a fully received request to its handler , or answers right away when it is malformed or has no route.
+     */
+    private void dispatch(NioConnection connection) {
+        int result = connection.parse(maxRequestBytes);
+        if (result == NioConnection.NEED_MORE) {
+            return;
+        }
+        connection.requestStartNanos = System.nanoTime();
+        metrics.requestStarted();
+        if (result != NioConnection.READY) {
+            respond(connection, result, EMPTY, true);
+            write(connection);
+            return;
+        }
+        NioRequestHandler handler = null;
+        for (Route route : routes) {
+            if (connection.pathEquals(route.path())) {
+                handler = route.handler();
+                break;
+            }
+        }
+        if (handler == null) {
+            respond(connection, 404, EMPTY, !connection.keepAlive());
+            write(connection);
+        } else if (handoff == null) {
+            handle(connection, handler);
+            write(connection);
+        } else if (permits != null && !permits.tryAcquire()) {
+            respond(connection, 503, EMPTY, !connection.keepAlive());
+            write(connection);
+        } else {
+            connection.key.interestOps(0);
+            NioRequestHandler routed = handler;
+            try {
+                handoff.execute(() -> {
+                    try {
+                        handle(connection, routed);
+                    } finally {
+                        // even after an Error , the connection goes back to the selector , which sends the 500 and closes it
+                        if (permits != null) {
+                            permits.release();
+                        }
+                        handled.add(connection);
+                        selector.wakeup();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // e.g. a RejectedExecutionException , only this connection is given up , never the selector thread
+                if (permits != null) {
+                    permits.release();
+                }
+                respond(connection, 503, EMPTY, true);
+                write(connection);
+            }
+        }
+    }
+
+    private void handle(NioConnection connection, NioRequestHandler handler) {
+        try {
+            respond(connection, 200, ByteBuffer.wrap(handler.handle(connection.body())), !connection.keepAlive());
+        } catch (DeadlineExceededException e) {
+            respond(connection, 504, EMPTY, !connection.keepAlive());
+        } catch (DownstreamException e) {
+            respond(connection, 502, EMPTY, !connection.keepAlive());
+        } catch (RecordTooLargeException e) {
+            respond(connection, 413, EMPTY, !connection.keepAlive());
+        } catch (Exception e) {
+            respond(connection, 500, EMPTY, true);
+        } catch (Error e) {
+            // the connection still gets an answer , then the Error goes on to the thread that ran the handler
+            respond(connection, 500, EMPTY, true);
+            throw e;
+        }
+    }
+
+    /**
+     * Prepares the response head in the reused head buffer of the connection.
+     */
+    private void respond(NioConnection connection, int status, ByteBuffer body, boolean close) {
+        ByteBuffer head = connection.responseHead.clear();
+        if (status == 200) {
+            head.put(STATUS_200);
+        } else {
+            head.put(ascii("HTTP/1.1 " + status + " " + reason(status) + "\r\n"));
+        }
+        head.put(CONTENT_TYPE);
+        putNumber(head, body.remaining(), connection.digits);
+        if (close) {
+            head.put(CONNECTION_CLOSE);
+        }
+        head.put(HEAD_END).flip();
+        connection.response[1] = body;
+        connection.responseStatus = status;
+        connection.closeAfterResponse = close;
+    }
+
+    /**
+     * Writes as much of the pending response as the socket takes , once complete continues with the next request.
+     */
+    private void write(NioConnection connection) {
+        try {
+            long written;
+            do {
+                written = connection.channel.write(connection.response);
+            } while (written > 0 && (connection.response[0].hasRemaining() || connection.response[1].hasRemaining()));
+        } catch (IOException e) {
+            finishRequest(connection);
+            close(connection);
+            return;
+        }
+        if (connection.response[0].hasRemaining() || connection.response[1].hasRemaining()) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        finishRequest(connection);
+        if (connection.closeAfterResponse) {
+            close(connection);
+            return;
+        }
+        connection.consumeRequest();
+        connection.key.interestOps(SelectionKey.OP_READ);
+        // a pipelined request may already be in the buffer
+        dispatch(connection);
+    }
+
+    private void finishRequest(NioConnection connection) {
+        metrics.bytesReceived(connection.requestBytes());
+        metrics.bytesSent(connection.response[0].limit() + connection.response[1].limit());
+        metrics.requestFinished(System.nanoTime() - connection.requestStartNanos, connection.responseStatus);
+        connection.response[1] = null;
+    }
+
+    private void close(NioConnection connection) {
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+        buffers.release(connection.pooledBuffer());
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 413 -> "Content Too Large";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 501 -> "Not Implemented";
+            case 502 -> "Bad Gateway";
+            case 503 -> "Service Unavailable";
+            case 504 -> "Gateway Timeout";
+            default -> "Unknown";
+        };
+    }
+
+    private static void putNumber(ByteBuffer buffer, int value, byte[] digits) {
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            buffer.put(digits[--count]);
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (selectorThread != null) {
+            try {
+                selectorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private record Route(byte[] path, NioRequestHandler handler) {
+    }
+}
@@ -0,0 +1,19 @@
+package virtual_threads.part2.servers.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Handles a request routed to it by a {@link NioHttpServer} , the returned bytes are sent as a <code>200 OK</code> response ,
+ * an exception as a <code>500</code>.
+ */
+
+@FunctionalInterface
+public interface NioRequestHandler {
+
+    /**
+     * @param body the request body , fully received
+     * @return the response body
+     */
+    byte[] handle(InputStream body) throws IOException;
+}
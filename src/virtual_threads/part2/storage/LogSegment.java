@@ -0,0 +1,201 @@
+package virtual_threads.part2.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * <p>
+ *   A single fixed size , memory mapped segment of a {@link SegmentedLogStore}.
+ * </p>
+ * <p>
+ *   Records are laid out back to back :
+ *   <pre>
+ *     +----------------+--------------+-----------------+
+ *     | length + 1 (4) | crc32c (4)   | payload (length)|
+ *     +----------------+--------------+-----------------+
+ *   </pre>
+ *   The length is stored plus one so that a zero header always marks the end of the written data. The header is written
+ *   last , right after zeroing the header slot of the next record , a record torn by a crash is therefore either invisible
+ *   or fails its checksum.
+ * </p>
+ * <p>
+ *   Every {@link #indexInterval}th record has its position stored in a sparse index , a lookup jumps to the closest
+ *   indexed record and scans forward from there.
+ * </p>
+ * <p>
+ *   Only the segment being appended to stays mapped with its channel open. Once full it is {@link #seal() sealed} : its
+ *   mapping is dropped and its channel closed , so a store with many segments holds neither a file descriptor nor a mapping
+ *   per segment. A read of a sealed segment maps the file again , read only and from the indexed record on , for the
+ *   duration of the read.
+ * </p>
+ * <p>
+ *   Not thread safe , {@link SegmentedLogStore} guards every access.
+ * </p>
+ */
+
+final class LogSegment {
+
+    static final int HEADER_SIZE = 8;
+
+    private final Path file;
+    private final long baseId;
+    private final int indexInterval;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int[] indexPositions = new int[64];
+    private int recordCount;
+    private int writePosition;
+
+    private LogSegment(Path file, long baseId, int segmentSize, int indexInterval) throws IOException {
+        this.file = file;
+        this.baseId = baseId;
+        this.indexInterval = indexInterval;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    static LogSegment create(Path file, long baseId, int segmentSize, int indexInterval) throws IOException {
+        return new LogSegment(file, baseId, segmentSize, indexInterval);
+    }
+
+    /**
+     * Opens an existing segment , scanning its records to rebuild the index. Anything after the last valid record ,
+     * e.g. a record torn by a crash , is zeroed so the segment can be appended to again.
+     */
+    static LogSegment recover(Path file, long baseId, int segmentSize, int indexInterval) throws IOException {
+        LogSegment segment = new LogSegment(file, baseId, segmentSize, indexInterval);
+        CRC32C checksum = new CRC32C();
+        int position = 0;
+        while (position + HEADER_SIZE <= segmentSize) {
+            int storedLength = segment.buffer.getInt(position);
+            int length = storedLength - 1;
+            if (storedLength <= 0 || length > segmentSize - position - HEADER_SIZE) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(segment.buffer.slice(position + HEADER_SIZE, length));
+            if ((int) checksum.getValue() != segment.buffer.getInt(position + 4)) {
+                break;
+            }
+            segment.indexRecord(position);
+            position += HEADER_SIZE + length;
+        }
+        segment.writePosition = position;
+        if (position + 4 <= segmentSize) {
+            segment.buffer.putInt(position, 0);
+        }
+        return segment;
+    }
+
+    boolean hasRoomFor(int payloadLength) {
+        return buffer != null && (long) writePosition + HEADER_SIZE + payloadLength <= buffer.capacity();
+    }
+
+    /**
+     * @return id of the appended record
+     */
+    long append(byte[] payload, CRC32C checksum) {
+        int position = writePosition;
+        checksum.reset();
+        checksum.update(payload);
+        int next = position + HEADER_SIZE + payload.length;
+        buffer.put(position + HEADER_SIZE, payload);
+        buffer.putInt(position + 4, (int) checksum.getValue());
+        // terminate the data before publishing the record , leftovers of a torn record can never look like a header
+        if (next + 4 <= buffer.capacity()) {
+            buffer.putInt(next, 0);
+        }
+        buffer.putInt(position, payload.length + 1);
+        writePosition = next;
+        return baseId + indexRecord(position);
+    }
+
+    /**
+     * @return payload of the record or <code>null</code> if this segment does not hold it
+     */
+    byte[] read(long id) {
+        long offset = id - baseId;
+        if (offset < 0 || offset >= recordCount) {
+            return null;
+        }
+        int ordinal = (int) offset;
+        int indexed = indexPositions[ordinal / indexInterval];
+        if (buffer != null) {
+            return read(buffer, indexed, ordinal % indexInterval);
+        }
+        try (FileChannel sealed = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping outlives the channel , it is released once the buffer is no longer reachable
+            MappedByteBuffer mapped = sealed.map(FileChannel.MapMode.READ_ONLY, indexed, writePosition - indexed);
+            return read(mapped, 0, ordinal % indexInterval);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read sealed segment " + file, e);
+        }
+    }
+
+    /**
+     * @param position position of an indexed record in <code>records</code>
+     * @param skip     records to skip from there
+     */
+    private static byte[] read(ByteBuffer records, int position, int skip) {
+        for (; skip > 0; skip--) {
+            position += HEADER_SIZE + records.getInt(position) - 1;
+        }
+        byte[] payload = new byte[records.getInt(position) - 1];
+        records.get(position + HEADER_SIZE, payload);
+        return payload;
+    }
+
+    private int indexRecord(int position) {
+        int ordinal = recordCount++;
+        if (ordinal % indexInterval == 0) {
+            int slot = ordinal / indexInterval;
+            if (slot == indexPositions.length) {
+                indexPositions = Arrays.copyOf(indexPositions, slot * 2);
+            }
+            indexPositions[slot] = position;
+        }
+        return ordinal;
+    }
+
+    long baseId() {
+        return baseId;
+    }
+
+    long nextId() {
+        return baseId + recordCount;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    void flush() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Forces the records to disk , closes the channel and drops the mapping , no record can be appended afterwards.
+     */
+    void seal() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        buffer = null;
+        channel.close();
+        channel = null;
+    }
+
+    void close() throws IOException {
+        seal();
+    }
+}
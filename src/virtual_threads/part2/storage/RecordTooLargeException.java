@@ -0,0 +1,14 @@
+package virtual_threads.part2.storage;
+
+/**
+ * Thrown when a record does not fit into an empty segment of a {@link SegmentedLogStore} , handlers answer it with
+ * <code>413 Content Too Large</code>.
+ */
+public class RecordTooLargeException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RecordTooLargeException(long recordBytes, long segmentSize) {
+        super("Record of " + recordBytes + " bytes exceeds the segment size of " + segmentSize);
+    }
+}
@@ -0,0 +1,207 @@
+package virtual_threads.part2.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * <p>
+ *   <b> ** Segmented Log Store ** </b>
+ * </p>
+ * <p>
+ *   An append only store for uploaded payloads. Every payload becomes a length prefixed , checksummed record and gets a
+ *   record id , a sequence number starting at zero , which can be used to read it back with {@link #read(long)}.
+ * </p>
+ * <p>
+ *   Records are written into fixed size memory mapped {@link LogSegment segments} , so an append is a memory copy and
+ *   not a system call. Once a segment is full it is sealed , unmapped with its channel closed , and a new one is created ,
+ *   its file is named after the id of its first record.
+ *   Data reaches the disk when the OS writes back the mapped pages or when {@link #flush()} is called.
+ * </p>
+ * <p>
+ *   <b>Recovery :</b> opening a directory that already holds segments scans them to rebuild their sparse indexes. The
+ *   scan stops at the first record whose header or checksum is invalid , which after a crash is the torn tail of the
+ *   last segment , and appending continues from there. Only <code>.log</code> files named by a number are taken as
+ *   segments , anything else in the directory is left alone.
+ * </p>
+ * <p>
+ *   All operations are guarded by a {@link ReentrantLock} rather than <code>synchronized</code> , a virtual thread
+ *   waiting for the lock therefore never pins its carrier.
+ * </p>
+ */
+
+public final class SegmentedLogStore implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final List<LogSegment> segments = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CRC32C checksum = new CRC32C();
+    private LogSegment active;
+
+    /**
+     * Opens the store in <code>directory</code> , recovering any segments already there.
+     *
+     * @param segmentSize   size of a segment in bytes , also the upper bound for a single record
+     * @param indexInterval every how many records a position is kept in the sparse index of a segment
+     */
+    public SegmentedLogStore(Path directory, int segmentSize, int indexInterval) throws IOException {
+        if (segmentSize <= LogSegment.HEADER_SIZE || indexInterval <= 0) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize + " or index interval " + indexInterval);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> baseId(file) >= 0).sorted(Comparator.comparingLong(SegmentedLogStore::baseId)).toList();
+        }
+        for (Path file : files) {
+            if (!segments.isEmpty()) {
+                segments.get(segments.size() - 1).seal();
+            }
+            segments.add(LogSegment.recover(file, baseId(file), segmentSize, indexInterval));
+        }
+        if (segments.isEmpty()) {
+            segments.add(LogSegment.create(segmentFile(0), 0, segmentSize, indexInterval));
+        }
+        active = segments.get(segments.size() - 1);
+    }
+
+    /**
+     * @return id of the first record of the segment in <code>file</code> , or <code>-1</code> if it is not a segment
+     */
+    private static long baseId(Path file) {
+        String name = file.getFileName().toString();
+        int digits = name.length() - SEGMENT_SUFFIX.length();
+        if (!name.endsWith(SEGMENT_SUFFIX) || digits <= 0) {
+            return -1;
+        }
+        for (int i = 0; i < digits; i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(name, 0, digits, 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Creates a store configured by the system properties <code>logStore.segmentBytes</code> (default 64 MB) and
+     * <code>logStore.indexInterval</code> (default 64).
+     */
+    public static SegmentedLogStore fromSystemProperties(Path directory) throws IOException {
+        return new SegmentedLogStore(directory,
+                Integer.getInteger("logStore.segmentBytes", 64 * 1024 * 1024),
+                Integer.getInteger("logStore.indexInterval", 64));
+    }
+
+    /**
+     * Appends a record , rolling over to a new segment when the active one is full.
+     *
+     * @return id of the record
+     * @throws RecordTooLargeException if the payload does not fit into an empty segment
+     */
+    public long append(byte[] payload) throws IOException {
+        checkRecordSize(payload.length);
+        lock.lock();
+        try {
+            if (!active.hasRoomFor(payload.length)) {
+                active.seal();
+                long baseId = active.nextId();
+                active = LogSegment.create(segmentFile(baseId), baseId, segmentSize, indexInterval);
+                segments.add(active);
+            }
+            return active.append(payload, checksum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets a caller turn down a payload before receiving it , e.g. on the Content-Length of a request.
+     *
+     * @throws RecordTooLargeException if a payload of <code>payloadBytes</code> does not fit into an empty segment
+     */
+    public void checkRecordSize(long payloadBytes) {
+        if (payloadBytes + LogSegment.HEADER_SIZE > segmentSize) {
+            throw new RecordTooLargeException(payloadBytes, segmentSize);
+        }
+    }
+
+    /**
+     * @return payload of the record or <code>null</code> if no record with this id exists
+     */
+    public byte[] read(long id) {
+        lock.lock();
+        try {
+            // binary search for the last segment starting at or before the id
+            int low = 0, high = segments.size() - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (segments.get(mid).baseId() <= id) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return segments.get(low).read(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return id the next appended record will get
+     */
+    public long nextId() {
+        lock.lock();
+        try {
+            return active.nextId();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the written records of the active segment to disk , full segments were already forced when rolled over.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            active.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            for (LogSegment segment : segments) {
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path segmentFile(long baseId) {
+        return directory.resolve(String.format("%020d%s", baseId, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,330 @@
+package virtual_threads.part2.utils;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ *   <b> ** Asynchronous Access Log ** </b>
+ * </p>
+ * <p>
+ *   A <code>System.out.println</code> per request makes every request thread take the lock of the {@link java.io.PrintStream}
+ *   and wait for the console , under load the log becomes the bottleneck of the server. Here a request thread only copies
+ *   a few primitive fields into a slot of a bounded ring buffer , a single background thread formats the records and writes
+ *   them in batches.
+ * </p>
+ * <p>
+ *   <b>Ring buffer :</b> a lock-free multi producer , single consumer queue in the style of Dmitry Vyukov's bounded queue.
+ *   Every slot carries a sequence number telling whether it is free for the producer of a given position or holds a record
+ *   ready for the consumer , producers claim a position with a CAS on the tail. {@link #log(long, int, long, long)} never
+ *   blocks and never allocates.
+ * </p>
+ * <p>
+ *   <b>Drop on full :</b> when the flusher falls behind and the buffer is full the record is dropped and counted in
+ *   {@link #dropped()} instead of slowing down the request.
+ * </p>
+ * <p>
+ *   <b>Sampling :</b> only about one in <code>sampleEvery</code> successful requests is logged , failed requests (5xx) always are.
+ * </p>
+ * <p>
+ *   <b>Formats :</b>
+ *   <ul>
+ *       <li>{@link Format#TEXT} : one line per record ,
+ *           <code>ts=&lt;epoch millis&gt; req=&lt;n&gt; thread=&lt;name&gt; status=&lt;code&gt; bytes=&lt;response bytes&gt; latency_us=&lt;n&gt;</code></li>
+ *       <li>{@link Format#BINARY} : fixed 48 byte big endian records ,
+ *           <code>epoch millis , request number , thread id , latency nanos , bytes (8 each) , status , virtual flag (4 each)</code></li>
+ *   </ul>
+ * </p>
+ */
+
+public final class AsyncAccessLog implements Closeable {
+
+    public enum Format { TEXT, BINARY }
+
+    private static final int MAX_THREAD_NAME = 64;
+    private static final int MAX_TEXT_RECORD = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final WritableByteChannel channel;
+    private final boolean ownsChannel;
+    private final Format format;
+    private final int sampleEvery;
+
+    // ring buffer , a slot is free for position p when its sequence is p and holds the record of position p when it is p + 1
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final long[] timestamps;
+    private final long[] requestNumbers;
+    private final long[] threadIds;
+    private final long[] latencies;
+    private final long[] byteCounts;
+    private final int[] statuses;
+    private final boolean[] virtualThreads;
+    private final String[] threadNames;
+    private long head;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final ByteBuffer batch;
+    private final byte[] digits = new byte[20];
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    /**
+     * @param channel     destination of the records
+     * @param ownsChannel whether {@link #close()} closes the channel
+     * @param capacity    number of records the ring buffer holds , rounded up to a power of two
+     * @param sampleEvery log about one in this many successful requests , 1 logs all of them
+     * @param batchBytes  size of the buffer records are formatted into before a write
+     */
+    public AsyncAccessLog(WritableByteChannel channel, boolean ownsChannel, Format format, int capacity, int sampleEvery, int batchBytes) {
+        int slots = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.format = format;
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.mask = slots - 1;
+        this.sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            sequences.set(i, i);
+        }
+        this.timestamps = new long[slots];
+        this.requestNumbers = new long[slots];
+        this.threadIds = new long[slots];
+        this.latencies = new long[slots];
+        this.byteCounts = new long[slots];
+        this.statuses = new int[slots];
+        this.virtualThreads = new boolean[slots];
+        this.threadNames = new String[slots];
+        this.batch = ByteBuffer.allocateDirect(Math.max(batchBytes, 2 * MAX_TEXT_RECORD));
+        this.flusher = Thread.ofPlatform().name("access-log-flusher").daemon().start(this::flushLoop);
+    }
+
+    /**
+     * Creates a log configured by the system properties , or returns <code>null</code> with <code>-DaccessLog.enabled=false</code> :
+     * <ul>
+     *     <li><code>accessLog.file</code> : file to append to (default standard out)</li>
+     *     <li><code>accessLog.format</code> : <code>text</code> or <code>binary</code> (default text , binary needs a file)</li>
+     *     <li><code>accessLog.capacity</code> (default 8192)</li>
+     *     <li><code>accessLog.sampleEvery</code> (default 1)</li>
+     *     <li><code>accessLog.batchBytes</code> (default 64 KB)</li>
+     * </ul>
+     */
+    public static AsyncAccessLog fromSystemProperties() throws IOException {
+        if (!Boolean.parseBoolean(System.getProperty("accessLog.enabled", "true"))) {
+            return null;
+        }
+        Format format = Format.valueOf(System.getProperty("accessLog.format", "text").toUpperCase());
+        String file = System.getProperty("accessLog.file");
+        if (file == null && format == Format.BINARY) {
+            throw new IllegalArgumentException("accessLog.format=binary needs an accessLog.file");
+        }
+        WritableByteChannel channel = file == null
+                ? new FileOutputStream(FileDescriptor.out).getChannel()
+                : FileChannel.open(Path.of(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new AsyncAccessLog(channel, file != null, format,
+                Integer.getInteger("accessLog.capacity", 8_192),
+                Integer.getInteger("accessLog.sampleEvery", 1),
+                Integer.getInteger("accessLog.batchBytes", 64 * 1024));
+    }
+
+    /**
+     * Logs a request executed by the current thread , unless it is not sampled or the buffer is full.
+     *
+     * @return <code>true</code> if the record was queued
+     */
+    public boolean log(long requestNumber, int status, long bytes, long latencyNanos) {
+        if (status < 500 && sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0) {
+            return false;
+        }
+        long position = tail.get();
+        while (true) {
+            int slot = (int) (position & mask);
+            long difference = sequences.getAcquire(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the flusher has not consumed the record one lap behind yet
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        int slot = (int) (position & mask);
+        Thread thread = Thread.currentThread();
+        timestamps[slot] = System.currentTimeMillis();
+        requestNumbers[slot] = requestNumber;
+        threadIds[slot] = thread.threadId();
+        virtualThreads[slot] = thread.isVirtual();
+        threadNames[slot] = thread.getName();
+        statuses[slot] = status;
+        byteCounts[slot] = bytes;
+        latencies[slot] = latencyNanos;
+        sequences.setRelease(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * @return number of records dropped because the buffer was full
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of records written to the channel
+     */
+    public long written() {
+        return written.sum();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            boolean wasClosed = closed;
+            int drained = drain();
+            if (drained == 0) {
+                if (wasClosed) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Formats every ready record into the batch buffer , writing it out whenever it fills up and once at the end.
+     */
+    private int drain() {
+        int drained = 0;
+        while (true) {
+            int slot = (int) (head & mask);
+            if (sequences.getAcquire(slot) != head + 1) {
+                break;
+            }
+            if (batch.remaining() < MAX_TEXT_RECORD) {
+                writeBatch();
+            }
+            if (format == Format.TEXT) {
+                formatText(slot);
+            } else {
+                formatBinary(slot);
+            }
+            threadNames[slot] = null;
+            sequences.setRelease(slot, head + mask + 1);
+            head++;
+            drained++;
+        }
+        if (batch.position() > 0) {
+            writeBatch();
+        }
+        written.add(drained);
+        return drained;
+    }
+
+    private void writeBatch() {
+        batch.flip();
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+        } catch (IOException e) {
+            // losing a batch of access log lines must not stop the flusher
+        }
+        batch.clear();
+    }
+
+    private void formatText(int slot) {
+        putAscii("ts=");
+        putNumber(timestamps[slot]);
+        putAscii(" req=");
+        putNumber(requestNumbers[slot]);
+        putAscii(" thread=");
+        String name = threadNames[slot];
+        if (name.isEmpty()) {
+            putAscii(virtualThreads[slot] ? "virtual#" : "#");
+            putNumber(threadIds[slot]);
+        } else {
+            int length = Math.min(name.length(), MAX_THREAD_NAME);
+            for (int i = 0; i < length; i++) {
+                char c = name.charAt(i);
+                batch.put(c < 128 ? (byte) c : (byte) '?');
+            }
+        }
+        putAscii(" status=");
+        putNumber(statuses[slot]);
+        putAscii(" bytes=");
+        putNumber(byteCounts[slot]);
+        putAscii(" latency_us=");
+        putNumber(TimeUnit.NANOSECONDS.toMicros(latencies[slot]));
+        batch.put((byte) '\n');
+    }
+
+    private void formatBinary(int slot) {
+        batch.putLong(timestamps[slot])
+                .putLong(requestNumbers[slot])
+                .putLong(threadIds[slot])
+                .putLong(latencies[slot])
+                .putLong(byteCounts[slot])
+                .putInt(statuses[slot])
+                .putInt(virtualThreads[slot] ? 1 : 0);
+    }
+
+    private void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            batch.put((byte) text.charAt(i));
+        }
+    }
+
+    private void putNumber(long value) {
+        if (value < 0) {
+            batch.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                putAscii("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            batch.put(digits[--count]);
+        }
+    }
+
+    /**
+     * Writes out every queued record and stops the flusher.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package virtual_threads.part2.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ *   A bounded pool of fixed size {@link ByteBuffer}s , array backed or direct.
+ * </p>
+ * <p>
+ *   With a thread per request every <code>new byte[]</code> for copying a body is garbage as soon as the request completes ,
+ *   and caching buffers in a {@link ThreadLocal} does not help either since virtual threads are never reused. Buffers are
+ *   therefore shared through this pool : {@link #acquire()} hands out a pooled buffer or allocates a new one when the pool
+ *   is empty , {@link #release(ByteBuffer)} keeps at most <code>maxPooled</code> buffers around.
+ * </p>
+ */
+
+public final class BufferPool {
+
+    private final int bufferSize;
+    private final boolean direct;
+    private final BlockingQueue<ByteBuffer> pooled;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this(bufferSize, maxPooled, false);
+    }
+
+    /**
+     * @param direct whether to pool direct buffers , which the JDK can hand to channel I/O without copying them into a
+     *               temporary direct buffer first
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.pooled = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * @return a cleared buffer of <code>bufferSize</code> bytes , never blocks
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pooled.poll();
+        if (buffer != null) {
+            return buffer.clear();
+        }
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire()} , it must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        pooled.offer(buffer);
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+}
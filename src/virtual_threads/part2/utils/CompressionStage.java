@@ -0,0 +1,211 @@
+package virtual_threads.part2.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ *   <b> ** Compression Stage ** </b>
+ * </p>
+ * <p>
+ *   The JSON payloads we persist compress very well , and on our hosts disk bandwidth runs out long before CPU does.
+ *   This stage compresses payloads with the JDK {@link Deflater} before they are written.
+ * </p>
+ * <p>
+ *   <b>Block framing :</b> a payload is split into blocks of <code>blockSize</code> bytes and every block is deflated on its
+ *   own , so any block can be inflated without the ones before it :
+ *   <pre>
+ *     +-----------------+------------------------+---------------------------+
+ *     | raw length (4)  | compressed length (4)  | raw deflate data          | ... next block
+ *     +-----------------+------------------------+---------------------------+
+ *   </pre>
+ * </p>
+ * <p>
+ *   <b>Threading :</b> compression runs on a fixed pool of platform worker threads , separate from the request threads ,
+ *   each with its own reused {@link Deflater}. At most <code>queueCapacity</code> payloads are waiting or being compressed ,
+ *   {@link #compress(byte[])} blocks the caller beyond that , which parks a virtual thread without pinning its carrier.
+ *   A {@link Deflater} holds native memory until it is ended , {@link #close()} waits for the workers to finish and ends
+ *   every one of them.
+ * </p>
+ */
+
+public final class CompressionStage implements Closeable {
+
+    static final int FRAME_HEADER_SIZE = 8;
+
+    /**
+     * Largest block , raw , that {@link #decompress(byte[])} accepts , so a corrupt header can not make it allocate more.
+     */
+    public static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    private final int level;
+    private final int blockSize;
+    private final ThreadPoolExecutor workers;
+    private final Semaphore capacity;
+    private final ThreadLocal<Deflater> deflaters;
+    private final Queue<Deflater> createdDeflaters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param level         deflate level from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}
+     * @param blockSize     maximum number of raw bytes per independently compressed block
+     * @param workerCount   number of compression threads
+     * @param queueCapacity maximum number of payloads queued or in compression
+     */
+    public CompressionStage(int level, int blockSize, int workerCount, int queueCapacity) {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be in [1 , " + MAX_BLOCK_SIZE + "] but was " + blockSize);
+        }
+        this.level = level;
+        this.blockSize = blockSize;
+        this.capacity = new Semaphore(queueCapacity);
+        this.deflaters = ThreadLocal.withInitial(() -> {
+            Deflater deflater = new Deflater(level, true);
+            createdDeflaters.add(deflater);
+            return deflater;
+        });
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> Thread.ofPlatform().name("compression-worker-" + threadNumber.incrementAndGet()).daemon().unstarted(runnable));
+    }
+
+    /**
+     * Creates a stage configured by the system properties :
+     * <ul>
+     *     <li><code>compression.level</code> (default 1)</li>
+     *     <li><code>compression.blockBytes</code> (default 64 KB)</li>
+     *     <li><code>compression.workers</code> (default available processors)</li>
+     *     <li><code>compression.queueCapacity</code> (default 1000)</li>
+     * </ul>
+     */
+    public static CompressionStage fromSystemProperties() {
+        return new CompressionStage(
+                Integer.getInteger("compression.level", 1),
+                Integer.getInteger("compression.blockBytes", 64 * 1024),
+                Integer.getInteger("compression.workers", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("compression.queueCapacity", 1_000));
+    }
+
+    /**
+     * Compresses the payload on a worker thread , blocking while the stage is at capacity.
+     *
+     * @return future completed with the framed , compressed payload
+     */
+    public CompletableFuture<byte[]> compress(byte[] payload) throws InterruptedException {
+        capacity.acquire();
+        try {
+            return CompletableFuture.supplyAsync(() -> compressBlocks(payload, blockSize, deflaters.get()), workers)
+                    .whenComplete((compressed, failure) -> capacity.release());
+        } catch (RuntimeException e) {
+            capacity.release();
+            throw e;
+        }
+    }
+
+    public int level() {
+        return level;
+    }
+
+    /**
+     * Compresses the payload on the calling thread.
+     *
+     * @param deflater a raw (<code>nowrap</code>) deflater configured with the wanted level , reset before every block
+     * @return the framed , compressed payload
+     */
+    public static byte[] compressBlocks(byte[] payload, int blockSize, Deflater deflater) {
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(payload.length / 2 + FRAME_HEADER_SIZE);
+        // deflate never grows a block by more than a few bytes per 16 KB , leave generous room
+        byte[] output = new byte[blockSize + blockSize / 8 + 64];
+        int offset = 0;
+        // an empty payload still gets one empty block
+        do {
+            int rawLength = Math.min(blockSize, payload.length - offset);
+            deflater.reset();
+            deflater.setInput(payload, offset, rawLength);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                compressedLength += deflater.deflate(output, compressedLength, output.length - compressedLength);
+            }
+            framed.writeBytes(ByteBuffer.allocate(FRAME_HEADER_SIZE).putInt(rawLength).putInt(compressedLength).array());
+            framed.write(output, 0, compressedLength);
+            offset += rawLength;
+        } while (offset < payload.length);
+        return framed.toByteArray();
+    }
+
+    /**
+     * Inflates a payload produced by {@link #compressBlocks(byte[], int, Deflater)} , block by block.
+     *
+     * @throws IOException if the payload is corrupt or truncated , or a block is larger than {@link #MAX_BLOCK_SIZE}
+     */
+    public static byte[] decompress(byte[] framed) throws IOException {
+        ByteBuffer input = ByteBuffer.wrap(framed);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream((int) Math.min(4L * framed.length, MAX_BLOCK_SIZE));
+        Inflater inflater = new Inflater(true);
+        try {
+            while (input.remaining() >= FRAME_HEADER_SIZE) {
+                int rawLength = input.getInt();
+                int compressedLength = input.getInt();
+                // check the header before allocating , a corrupt one could ask for up to 2 GB
+                if (rawLength < 0 || rawLength > MAX_BLOCK_SIZE) {
+                    throw new IOException("Invalid raw block length " + rawLength + " at offset " + (input.position() - FRAME_HEADER_SIZE));
+                }
+                if (compressedLength < 0 || compressedLength > input.remaining()) {
+                    throw new IOException("Invalid compressed block length " + compressedLength + " at offset "
+                            + (input.position() - FRAME_HEADER_SIZE) + " , " + input.remaining() + " bytes remain");
+                }
+                byte[] block = new byte[rawLength];
+                inflater.reset();
+                inflater.setInput(framed, input.position(), compressedLength);
+                int inflated = 0;
+                while (inflated < block.length) {
+                    int count = inflater.inflate(block, inflated, block.length - inflated);
+                    if (count == 0 && (inflater.needsInput() || inflater.finished())) {
+                        throw new IOException("Truncated block at offset " + input.position());
+                    }
+                    inflated += count;
+                }
+                raw.write(block);
+                input.position(input.position() + compressedLength);
+            }
+            if (input.hasRemaining()) {
+                throw new IOException("Truncated block header at offset " + input.position());
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed block", e);
+        } finally {
+            inflater.end();
+        }
+        return raw.toByteArray();
+    }
+
+    /**
+     * Waits for the queued payloads to be compressed , then stops the workers and ends their {@link Deflater}s.
+     */
+    @Override
+    public void close() {
+        workers.close();
+        Deflater deflater;
+        while ((deflater = createdDeflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+}
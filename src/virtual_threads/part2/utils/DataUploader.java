@@ -1,29 +1,190 @@
 package virtual_threads.part2.utils;
 
-import com.sun.net.httpserver.HttpExchange;
+import virtual_threads.part2.context.DeadlineExceededException;
+import virtual_threads.part2.context.RequestContext;
+import virtual_threads.part2.downstream.DownstreamClient;
+import virtual_threads.part2.downstream.DownstreamServer;
+import virtual_threads.part2.storage.SegmentedLogStore;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 
 /**
  *  This is a utility class which will be used to upload data to disk
- *  Usage : {@link virtual_threads.part2.servers.PlatformThreaded_HttpServer#taskTobeExecuted(HttpExchange)}
- *                {@link virtual_threads.part2.servers.VirtualThreaded_HttpServer#taskTobeExecuted(HttpExchange)}
+ *  Usage : {@link virtual_threads.part2.servers.UploadHandler#handle(com.sun.net.httpserver.HttpExchange)}
  *
  *   This is just to make the threads perform some I/O intensive task.
+ *
+ *   Data can either be appended by the request thread itself , see {@link #uploadData(InputStream, String)} , or be handed
+ *   over to a {@link GroupCommitWriter} , see {@link #uploadData(InputStream, GroupCommitWriter)}.
+ *
+ *   Large bodies should use {@link #streamData(InputStream, Path)} which copies bytes without decoding them and
+ *   keeps the memory used per upload constant.
+ *
+ *   Uploads that have to be read back individually go to a {@link SegmentedLogStore} , see {@link #uploadData(InputStream, SegmentedLogStore)}.
+ *
+ *   Both the group commit and the log store path can compress bodies on a {@link CompressionStage} before writing them.
+ *
+ *   The allocation free path is {@link #uploadData(InputStream, long, PositionalAppender)}.
+ *
+ *   The simulated latency of every upload is set with <code>-DdataUploader.latencyMillis</code> (250 ms by default) , 0
+ *   disables it. It never sleeps past the deadline of the {@link RequestContext} of the request , an upload that would is
+ *   cut short with a {@link DeadlineExceededException} before anything is written.
+ *
+ *   With <code>-Ddownstream.address=host:port</code> every upload calls a {@link DownstreamServer} instead of sleeping and
+ *   blocks on a real socket read for as long as that takes.
  */
 
 public class DataUploader {
 
+    private static final BufferPool STREAM_BUFFERS = new BufferPool(16 * 1024, 1024);
+    private static final long LATENCY_MILLIS = Long.getLong("dataUploader.latencyMillis", Duration.ofMillis(250).toMillis());
+    private static final DownstreamClient DOWNSTREAM = DownstreamClient.fromSystemProperties("data-uploader");
+
     public static void uploadData(InputStream requestBody , String fileName) throws IOException {
 
-        // Mimic sleep
+        mimicLatency();
+        appendLines(requestBody, fileName);
+    }
+
+    /**
+     * Same as {@link #uploadData(InputStream, String)} but without allocating : the body is copied through pooled buffers
+     * into a range of the file reserved by the {@link PositionalAppender} , nothing is decoded or split into lines.
+     *
+     * @param contentLength length of the body , or <code>-1</code> if unknown , which reads the body into memory first
+     * @return file offset the request body was written at
+     */
+    public static long uploadData(InputStream requestBody , long contentLength , PositionalAppender appender) throws IOException {
+
+        mimicLatency();
+        return contentLength >= 0
+                ? appender.append(requestBody, contentLength)
+                : appender.append(requestBody.readAllBytes());
+    }
+
+    /**
+     * Same as {@link #uploadData(InputStream, String)} but the request body is appended by the single writer thread of
+     * the <code>groupCommitWriter</code> , the calling thread waits until its batch was committed.
+     *
+     * @return file offset the request body was written at
+     */
+    public static long uploadData(InputStream requestBody , GroupCommitWriter groupCommitWriter) throws IOException {
+
+        return uploadData(requestBody, groupCommitWriter, null);
+    }
+
+    /**
+     * Same as {@link #uploadData(InputStream, GroupCommitWriter)} but the request body is first compressed by the
+     * <code>compressionStage</code> , if not <code>null</code>. Compressed bodies are self delimiting block frames ,
+     * see {@link CompressionStage} , no line separator is added to them.
+     *
+     * @return file offset the request body was written at
+     */
+    public static long uploadData(InputStream requestBody , GroupCommitWriter groupCommitWriter , CompressionStage compressionStage) throws IOException {
+
+        mimicLatency();
+        byte[] data = requestBody.readAllBytes();
+        try {
+            if (compressionStage != null) {
+                data = compressionStage.compress(data).get();
+            } else if (data.length == 0 || data[data.length - 1] != '\n') {
+                // keep the line oriented layout of the file
+                byte[] line = new byte[data.length + 1];
+                System.arraycopy(data, 0, line, 0, data.length);
+                line[data.length] = '\n';
+                data = line;
+            }
+            return groupCommitWriter.submit(data).get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Upload failed", e.getCause());
+        }
+    }
+
+    /**
+     * Same as {@link #uploadData(InputStream, String)} but the request body is stored as a single record of the
+     * <code>logStore</code>.
+     *
+     * @return id of the record , to read the upload back with {@link SegmentedLogStore#read(long)}
+     */
+    public static long uploadData(InputStream requestBody , SegmentedLogStore logStore) throws IOException {
+
+        return uploadData(requestBody, logStore, null);
+    }
+
+    /**
+     * Same as {@link #uploadData(InputStream, SegmentedLogStore)} but the request body is first compressed by the
+     * <code>compressionStage</code> , if not <code>null</code>. Use {@link CompressionStage#decompress(byte[])} on the
+     * record to get the body back.
+     *
+     * @return id of the record
+     */
+    public static long uploadData(InputStream requestBody , SegmentedLogStore logStore , CompressionStage compressionStage) throws IOException {
+
+        mimicLatency();
+        byte[] data = requestBody.readAllBytes();
         try {
-            Thread.sleep(Duration.ofSeconds(250).toMillis());
+            if (compressionStage != null) {
+                data = compressionStage.compress(data).get();
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+        return logStore.append(data);
+    }
+
+    /**
+     * Streams the request body as raw bytes into a new file of <code>directory</code> , computing its CRC32C on the fly.
+     *
+     * <p>
+     *   Unlike {@link #uploadData(InputStream, String)} the body is neither decoded to Strings nor split into lines , it goes
+     *   through a single pooled {@link BufferPool buffer} of 16 KB straight into a {@link FileChannel}. Memory per in-flight
+     *   upload therefore stays constant however large the body is , even without a single newline in it.
+     * </p>
+     *
+     * @return number of bytes written and their checksum
+     */
+    public static UploadReceipt streamData(InputStream requestBody , Path directory) throws IOException {
+
+        mimicLatency();
+        Path file = Files.createTempFile(directory, "upload-", ".bin");
+        CRC32C checksum = new CRC32C();
+        long bytes = 0;
+        ByteBuffer buffer = STREAM_BUFFERS.acquire();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            byte[] array = buffer.array();
+            int read;
+            while ((read = requestBody.read(array)) != -1) {
+                checksum.update(array, 0, read);
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                bytes += read;
+            }
+        } finally {
+            STREAM_BUFFERS.release(buffer);
         }
+        return new UploadReceipt(file, bytes, checksum.getValue());
+    }
+
+    /**
+     * Appends every line of the request body to the file , opening and closing the file for every call.
+     */
+    public static void appendLines(InputStream requestBody , String fileName) throws IOException {
+
         InputStreamReader inputStreamReader = new InputStreamReader(requestBody, StandardCharsets.UTF_8);
              BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
 
@@ -42,4 +203,32 @@ public class DataUploader {
              bufferedReader.close();
              bufferedWriter.close();
          }
+
+    private static void mimicLatency() throws IOException {
+        RequestContext context = RequestContext.current();
+        if (context != null) {
+            context.checkDeadline();
+        }
+        if (DOWNSTREAM != null) {
+            DOWNSTREAM.call();
+            if (context != null) {
+                context.checkDeadline();
+            }
+            return;
+        }
+        // Mimic sleep
+        if (LATENCY_MILLIS <= 0) {
+            return;
+        }
+        long sleepNanos = TimeUnit.MILLISECONDS.toNanos(LATENCY_MILLIS);
+        boolean pastDeadline = context != null && context.remainingNanos() < sleepNanos;
+        try {
+            Thread.sleep(Duration.ofNanos(pastDeadline ? Math.max(0, context.remainingNanos()) : sleepNanos));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        if (pastDeadline) {
+            throw new DeadlineExceededException(context);
+        }
+    }
 }
@@ -0,0 +1,238 @@
+package virtual_threads.part2.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ *   <b> ** Group Commit Writer ** </b>
+ * </p>
+ * <p>
+ *   Appending from every request thread to the same file means hundreds of threads contending on the file and its
+ *   metadata , each paying for an open , a write and a close. With a group commit the request threads only hand their
+ *   payload over to a bounded queue and a single writer thread drains whatever has piled up into one gathering
+ *   {@link FileChannel#write(ByteBuffer[])} call. The more requests arrive at once , the bigger the batches get.
+ * </p>
+ * <p>
+ *   Every {@link #submit(byte[])} returns a {@link CompletableFuture} completed with the file offset of the payload
+ *   once its batch was written and , depending on the {@link FsyncPolicy} , synced to disk. Payloads are written in
+ *   submission order and never interleave.
+ * </p>
+ * <p>
+ *   The writer thread owns the end of the file : it starts at the size of the file and only moves past a batch once the
+ *   whole batch was written. When a batch fails the file is truncated back to where the batch started , so a payload whose
+ *   future failed never shows up in the file , and the offsets of later payloads stay right.
+ * </p>
+ * <p>
+ *   When the queue is full {@link #submit(byte[])} blocks , which parks a virtual thread without pinning its carrier.
+ *   Submitters share a read lock that {@link #close()} takes exclusively , so no payload is ever queued behind the
+ *   marker telling the writer thread to stop. A payload the writer can not write fails its future , it never hangs.
+ * </p>
+ */
+
+public final class GroupCommitWriter implements Closeable {
+
+    public enum FsyncPolicy {
+        /** Never sync , leave it to the OS. Futures complete once the batch was written. */
+        NONE,
+        /** Sync after every batch. Futures complete once the batch is durable. */
+        PER_BATCH,
+        /** Sync at most once per interval. Futures complete once the batch was written , so up to one interval of data may be lost on a crash. */
+        INTERVAL
+    }
+
+    private static final PendingWrite POISON_PILL = new PendingWrite(null, null);
+
+    private final FileChannel channel;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int maxBatchSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final Thread writerThread;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+    // only read and written by the writer thread , once started
+    private long writePosition;
+
+    /**
+     * @param file           file to append to , created if it does not exist
+     * @param queueCapacity  maximum number of payloads waiting to be written
+     * @param maxBatchSize   maximum number of payloads written by a single batch
+     * @param fsyncPolicy    when to sync the file to disk
+     * @param fsyncInterval  sync interval , only used with {@link FsyncPolicy#INTERVAL}
+     */
+    public GroupCommitWriter(Path file, int queueCapacity, int maxBatchSize, FsyncPolicy fsyncPolicy, Duration fsyncInterval) throws IOException {
+        // not APPEND , the writer positions every batch itself so it can roll a failed one back
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.writePosition = channel.size();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.writerThread = Thread.ofPlatform().name("group-commit-writer").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * Creates a writer configured by the system properties :
+     * <ul>
+     *     <li><code>groupCommit.queueCapacity</code> (default 10000)</li>
+     *     <li><code>groupCommit.maxBatchSize</code> (default 1000)</li>
+     *     <li><code>groupCommit.fsync</code> : <code>none</code> , <code>per_batch</code> or <code>interval</code> (default none)</li>
+     *     <li><code>groupCommit.fsyncIntervalMillis</code> (default 100)</li>
+     * </ul>
+     */
+    public static GroupCommitWriter fromSystemProperties(Path file) throws IOException {
+        return new GroupCommitWriter(file,
+                Integer.getInteger("groupCommit.queueCapacity", 10_000),
+                Integer.getInteger("groupCommit.maxBatchSize", 1_000),
+                FsyncPolicy.valueOf(System.getProperty("groupCommit.fsync", "none").toUpperCase()),
+                Duration.ofMillis(Long.getLong("groupCommit.fsyncIntervalMillis", 100)));
+    }
+
+    /**
+     * Queues a payload to be appended , blocking while the queue is full.
+     *
+     * @return future completed with the file offset the payload was written at
+     * @throws IllegalStateException if the writer was closed
+     */
+    public CompletableFuture<Long> submit(byte[] payload) throws InterruptedException {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            CompletableFuture<Long> done = new CompletableFuture<>();
+            queue.put(new PendingWrite(ByteBuffer.wrap(payload), done));
+            return done;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        long lastSync = System.nanoTime();
+        boolean unsynced = false;
+        boolean running = true;
+        while (running) {
+            try {
+                PendingWrite first = fsyncPolicy == FsyncPolicy.INTERVAL
+                        ? queue.poll(fsyncIntervalNanos, TimeUnit.NANOSECONDS)
+                        : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - 1);
+                    running = !batch.remove(POISON_PILL);
+                    writeBatch(batch);
+                    unsynced = true;
+                }
+                if (fsyncPolicy == FsyncPolicy.INTERVAL && unsynced && (System.nanoTime() - lastSync >= fsyncIntervalNanos || !running)) {
+                    channel.force(false);
+                    lastSync = System.nanoTime();
+                    unsynced = false;
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                // the batch was already failed , keep serving the next ones
+            } catch (RuntimeException e) {
+                // fail whatever the batch did not complete , the writer thread must survive for the next submitters
+                batch.forEach(pending -> pending.done().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+        // nothing is queued behind the poison pill , unless the writer thread was interrupted
+        List<PendingWrite> left = new ArrayList<>();
+        queue.drainTo(left);
+        IOException stopped = new IOException("Writer stopped before writing the payload");
+        left.stream().filter(pending -> pending != POISON_PILL).forEach(pending -> pending.done().completeExceptionally(stopped));
+    }
+
+    private void writeBatch(List<PendingWrite> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long[] offsets = new long[batch.size()];
+        long start = writePosition;
+        long offset = start;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).payload();
+            offsets[i] = offset;
+            offset += buffers[i].remaining();
+        }
+        try {
+            channel.position(start);
+            long remaining = offset - start;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            if (fsyncPolicy == FsyncPolicy.PER_BATCH) {
+                channel.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            rollBack(start, e);
+            batch.forEach(pending -> pending.done().completeExceptionally(e));
+            throw e;
+        }
+        writePosition = offset;
+        for (int i = 0; i < offsets.length; i++) {
+            batch.get(i).done().complete(offsets[i]);
+        }
+    }
+
+    /**
+     * Cuts off whatever part of a failed batch reached the file. Should that fail too , the next batch still starts at
+     * <code>start</code> and overwrites it.
+     */
+    private void rollBack(long start, Exception failure) {
+        try {
+            channel.truncate(start);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Writes everything submitted so far , syncs it unless the policy is {@link FsyncPolicy#NONE} and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            queue.put(POISON_PILL);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            channel.force(false);
+        }
+        channel.close();
+    }
+
+    private record PendingWrite(ByteBuffer payload, CompletableFuture<Long> done) {
+    }
+}
@@ -0,0 +1,113 @@
+package virtual_threads.part2.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *   <b> ** Positional Appender ** </b>
+ * </p>
+ * <p>
+ *   Appends request bodies to a single , permanently open file without allocating per request. Every append reserves
+ *   <code>length + 1</code> bytes at the end of the file with one {@link AtomicLong#getAndAdd(long)} and writes the body and
+ *   a newline into its range with positional {@link FileChannel#write(ByteBuffer, long)} calls. Concurrent appends never
+ *   interleave and never wait for each other , and unlike {@link FileChannel#write(ByteBuffer)} a positional write does not
+ *   take the channel's position lock , which is a monitor and would pin a virtual thread for the whole write.
+ * </p>
+ * <p>
+ *   Bytes are copied from the body stream through a pooled heap chunk into a pooled direct {@link ByteBuffer} , the channel
+ *   writes a direct buffer as is instead of copying it into a temporary one.
+ * </p>
+ * <p>
+ *   The file must not be appended to by anything else while it is open. A body that ends before its announced length
+ *   leaves zero bytes in the rest of its range.
+ * </p>
+ */
+
+public final class PositionalAppender implements Closeable {
+
+    private final FileChannel channel;
+    private final AtomicLong end;
+    private final BufferPool directBuffers;
+    private final BufferPool chunks;
+
+    /**
+     * @param bufferSize size of the pooled direct buffers , a body is written with one call per buffer
+     * @param maxPooled  maximum number of idle buffers kept
+     */
+    public PositionalAppender(Path file, int bufferSize, int maxPooled) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.end = new AtomicLong(channel.size());
+        this.directBuffers = new BufferPool(bufferSize, maxPooled, true);
+        this.chunks = new BufferPool(8 * 1024, maxPooled);
+    }
+
+    /**
+     * Appends <code>length</code> bytes of the body followed by a newline.
+     *
+     * @return file offset the body was written at
+     * @throws EOFException if the body ends before <code>length</code> bytes
+     */
+    public long append(InputStream body, long length) throws IOException {
+        long position = end.getAndAdd(length + 1);
+        ByteBuffer buffer = directBuffers.acquire();
+        ByteBuffer chunk = chunks.acquire();
+        try {
+            byte[] array = chunk.array();
+            long offset = position;
+            long remaining = length;
+            while (remaining > 0) {
+                int read = body.read(array, 0, (int) Math.min(remaining, Math.min(array.length, buffer.remaining())));
+                if (read < 0) {
+                    throw new EOFException("Body ended after " + (length - remaining) + " of " + length + " bytes");
+                }
+                buffer.put(array, 0, read);
+                remaining -= read;
+                if (!buffer.hasRemaining()) {
+                    offset += write(buffer, offset);
+                }
+            }
+            if (!buffer.hasRemaining()) {
+                offset += write(buffer, offset);
+            }
+            buffer.put((byte) '\n');
+            write(buffer, offset);
+        } finally {
+            chunks.release(chunk);
+            directBuffers.release(buffer);
+        }
+        return position;
+    }
+
+    /**
+     * Appends a body of unknown length , which is read into memory first.
+     */
+    public long append(byte[] body) throws IOException {
+        long position = end.getAndAdd(body.length + 1L);
+        ByteBuffer payload = ByteBuffer.allocate(body.length + 1).put(body).put((byte) '\n');
+        write(payload, position);
+        return position;
+    }
+
+    private int write(ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
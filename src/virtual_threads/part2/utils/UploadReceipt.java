@@ -0,0 +1,17 @@
+package virtual_threads.part2.utils;
+
+import java.nio.file.Path;
+
+/**
+ * Result of a streamed upload , see {@link DataUploader#streamData(java.io.InputStream, Path)}.
+ *
+ * @param file   file the request body was written to
+ * @param bytes  number of bytes written
+ * @param crc32c CRC32C checksum of the written bytes
+ */
+public record UploadReceipt(Path file, long bytes, long crc32c) {
+
+    public String crc32cHex() {
+        return String.format("%08x", crc32c);
+    }
+}